@@ -0,0 +1,59 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc;
+
+import java.lang.annotation.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes <code>TCRunner</code> measure the throughput of the <code>@Threaded</code>
+ * methods, instead of running them once, before the annotated <code>@Test</code> method.
+ *
+ * <p>
+ * Each test thread calls its method over and over. The threads start together,
+ * behind the green light of the <code>Conductor</code>, and run for the warmup period,
+ * then for the measurement period, during which every call is counted. The number of
+ * calls per second of each thread, and of all of them, is printed, and can be read
+ * with <code>RunnerConductor.getBenchmarkResult()</code> by the <code>@Test</code> method.
+ * </p>
+ *
+ * <p>
+ * The beat doesn't advance while the threads keep running, so the methods shouldn't
+ * wait for beats. Whatever a method computes should go into some state the test
+ * can see, or the JIT may get rid of it.
+ * </p>
+ *
+ * @see BenchmarkResult
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Benchmark {
+    /**
+     * How long the threads run before their calls are counted.
+     */
+    long warmup() default 1;
+
+    /**
+     * How long the calls of the threads are counted for.
+     */
+    long measurement() default 5;
+
+    /**
+     * The time unit of the periods.
+     */
+    TimeUnit unit() default TimeUnit.SECONDS;
+}
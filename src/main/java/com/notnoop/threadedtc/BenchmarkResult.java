@@ -0,0 +1,106 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The throughput a <code>@Benchmark</code> measured: the number of calls per second
+ * of the method of each test thread, and of all of them together.
+ *
+ * @see Benchmark
+ */
+public final class BenchmarkResult {
+    private final Map<String, Long> operations = new LinkedHashMap<String, Long>();
+    private final Map<String, Double> opsPerSecond = new LinkedHashMap<String, Double>();
+    private long totalOperations = 0;
+    private double totalOpsPerSecond = 0;
+    private long blockedNanos = 0;
+
+    BenchmarkResult() {
+    }
+
+    /**
+     * Adds the calls of a thread, and the time it was blocked or waiting while making
+     * them, or -1 if that wasn't measured.
+     */
+    void add(String thread, long ops, long elapsedNanos, long blocked) {
+        double perSecond = elapsedNanos <= 0 ? 0 : ops * (double)TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+        operations.put(thread, ops);
+        opsPerSecond.put(thread, perSecond);
+        totalOperations += ops;
+        totalOpsPerSecond += perSecond;
+        blockedNanos = blocked < 0 || blockedNanos < 0 ? -1 : blockedNanos + blocked;
+    }
+
+    /**
+     * The number of calls per second of the method of each test thread, by the name of
+     * the thread, in the order the threads were created.
+     */
+    public Map<String, Double> getOpsPerSecondByThread() {
+        return Collections.unmodifiableMap(opsPerSecond);
+    }
+
+    /**
+     * The number of calls per second of the method of the given test thread.
+     *
+     * @throws IllegalArgumentException if there is no test thread of that name
+     */
+    public double getOpsPerSecond(String thread) {
+        Double perSecond = opsPerSecond.get(thread);
+        if (perSecond == null)
+            throw new IllegalArgumentException("noSuchThread: " + thread);
+        return perSecond;
+    }
+
+    /**
+     * The number of calls per second of all the test threads together.
+     */
+    public double getTotalOpsPerSecond() {
+        return totalOpsPerSecond;
+    }
+
+    /**
+     * The number of calls counted during the measurement period, by all the test threads.
+     */
+    public long getTotalOperations() {
+        return totalOperations;
+    }
+
+    /**
+     * The time the test threads spent blocked on monitors, or waiting on locks and
+     * conditions, during the measurement period, all of them together, or -1 if the JVM
+     * didn't measure it. Waiting for a beat, or in virtual time, doesn't count. It is only
+     * measured while contention monitoring is on, e.g. during a <code>@ScalingSweep</code>.
+     */
+    public long getBlockedTime(TimeUnit unit) {
+        return blockedNanos < 0 ? -1 : unit.convert(blockedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Double> thread : opsPerSecond.entrySet())
+            out.append(String.format("%-30s %15.1f ops/s (%d ops)%n",
+                    thread.getKey(), thread.getValue(), operations.get(thread.getKey())));
+        out.append(String.format("%-30s %15.1f ops/s (%d ops)%n",
+                "total", totalOpsPerSecond, totalOperations));
+        return out.toString();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.notnoop.threadedtc.internal.ThreadActivity;
+
+/*
+ * Runs the bodies of the test threads of a scenario in a loop, for a warmup period
+ * and then a measurement period, and counts the calls made during the latter. A
+ * timer thread, outside the orchestra, moves the threads from one period to the
+ * next once they have all started, so that the loops only read a volatile field.
+ */
+final class BenchmarkScenario {
+    private static final int Warmup = 0;
+    private static final int Measurement = 1;
+    private static final int Done = 2;
+
+    private volatile int phase = Warmup;
+
+    private final long warmupNanos;
+    private final long measurementNanos;
+
+    private final ThreadActivity activity = new ThreadActivity();
+
+    BenchmarkScenario(Benchmark benchmark) {
+        this.warmupNanos = benchmark.unit().toNanos(benchmark.warmup());
+        this.measurementNanos = benchmark.unit().toNanos(benchmark.measurement());
+    }
+
+    long getMeasurementNanos() {
+        return measurementNanos;
+    }
+
+    /**
+     * Runs the given bodies in the test threads of the given conductor, which must
+     * not have any yet, and returns their throughput.
+     */
+    BenchmarkResult conduct(final Conductor c, String[] names, Runnable[] bodies) {
+        final CountDownLatch started = new CountDownLatch(bodies.length);
+        final long[] operations = new long[bodies.length];
+        final long[] elapsed = new long[bodies.length];
+        final long[] blocked = new long[bodies.length];
+        for (int i = 0; i < bodies.length; i++) {
+            final int index = i;
+            final Runnable body = bodies[i];
+            c.thread(names[i], new Runnable() {
+                public void run() {
+                    started.countDown();
+                    while (phase == Warmup)
+                        body.run();
+                    Thread self = Thread.currentThread();
+                    long blockedBefore = activity.blockedOrWaitingTime(self);
+                    long parkedBefore = c.parkedTime();
+                    long ops = 0;
+                    long start = System.nanoTime();
+                    while (phase == Measurement) {
+                        body.run();
+                        ops++;
+                    }
+                    elapsed[index] = System.nanoTime() - start;
+                    operations[index] = ops;
+                    long blockedAfter = activity.blockedOrWaitingTime(self);
+                    // the conductor parking the thread isn't contention
+                    long parked = c.parkedTime() - parkedBefore;
+                    blocked[index] = blockedBefore < 0 || blockedAfter < 0 ? -1
+                            : Math.max(0, blockedAfter - blockedBefore - parked);
+                }
+            });
+        }
+
+        Thread timer = new Thread("Benchmark-Timer") {
+            @Override
+            public void run() {
+                try {
+                    started.await();
+                    TimeUnit.NANOSECONDS.sleep(warmupNanos);
+                    phase = Measurement;
+                    TimeUnit.NANOSECONDS.sleep(measurementNanos);
+                } catch (InterruptedException e) {
+                    // the scenario failed
+                } finally {
+                    phase = Done;
+                }
+            }
+        };
+        timer.setDaemon(true);
+        timer.start();
+        try {
+            // the threads keep running without the beat advancing, so the timeout has
+            // to leave them the time of both periods
+            long seconds = TimeUnit.NANOSECONDS.toSeconds(warmupNanos + measurementNanos);
+            c.conduct(10, (int)Math.min(Integer.MAX_VALUE, seconds + 5));
+        } finally {
+            timer.interrupt();
+        }
+
+        BenchmarkResult result = new BenchmarkResult();
+        for (int i = 0; i < bodies.length; i++)
+            result.add(names[i], operations[i], elapsed[i], blocked[i]);
+        return result;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How the clock thread of a <code>Conductor</code> spent its time between
+ * checks of the test threads: how many checks it made, and the periods it chose
+ * to sleep for in between.
+ *
+ * <p>
+ * The statistics are updated by the clock thread as the scenario runs. The clock
+ * thread may still be finishing its last check when <code>conduct</code> returns.
+ * </p>
+ *
+ * @see Conductor#setAdaptiveClock(long, long, TimeUnit)
+ */
+public final class ClockStatistics {
+    // only ever written by the clock thread
+    private volatile long ticks = 0;
+    private volatile long spins = 0;
+    private volatile long parks = 0;
+    private volatile long totalPeriodNanos = 0;
+    private volatile long shortestPeriodNanos = Long.MAX_VALUE;
+    private volatile long longestPeriodNanos = 0;
+
+    ClockStatistics() {
+    }
+
+    /**
+     * Records a check that was followed by spinning, cut short by a test thread.
+     */
+    void recordSpin() {
+        ticks += 1;
+        spins += 1;
+    }
+
+    /**
+     * Records a check that was followed by sleeping for the given period.
+     */
+    void recordPark(long periodNanos) {
+        ticks += 1;
+        parks += 1;
+        totalPeriodNanos += periodNanos;
+        if (periodNanos < shortestPeriodNanos)
+            shortestPeriodNanos = periodNanos;
+        if (periodNanos > longestPeriodNanos)
+            longestPeriodNanos = periodNanos;
+    }
+
+    /**
+     * The number of times the clock thread checked the test threads.
+     */
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * The number of checks after which the clock thread didn't go to sleep, because
+     * a test thread did something while it was spinning.
+     */
+    public long getSpins() {
+        return spins;
+    }
+
+    /**
+     * The number of checks after which the clock thread went to sleep.
+     */
+    public long getParks() {
+        return parks;
+    }
+
+    /**
+     * The shortest period the clock thread chose to sleep for, or 0 if it never slept.
+     */
+    public long getShortestPeriod(TimeUnit unit) {
+        return parks == 0 ? 0 : unit.convert(shortestPeriodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * The longest period the clock thread chose to sleep for, or 0 if it never slept.
+     */
+    public long getLongestPeriod(TimeUnit unit) {
+        return unit.convert(longestPeriodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * The average of the periods the clock thread chose to sleep for, or 0 if it
+     * never slept. A sleep may end before its period is over, when a test thread wakes
+     * the clock up.
+     */
+    public long getAveragePeriod(TimeUnit unit) {
+        long count = parks;
+        return count == 0 ? 0 : unit.convert(totalPeriodNanos / count, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return "ClockStatistics[ticks=" + ticks + ", spins=" + spins + ", parks=" + parks
+            + ", shortest=" + getShortestPeriod(TimeUnit.MICROSECONDS) + "us"
+            + ", average=" + getAveragePeriod(TimeUnit.MICROSECONDS) + "us"
+            + ", longest=" + getLongestPeriod(TimeUnit.MICROSECONDS) + "us]";
+    }
+}
@@ -20,14 +20,27 @@ package com.notnoop.threadedtc;
 import static com.notnoop.threadedtc.internal.ThreadGroupUtils.*;
 import static com.notnoop.threadedtc.internal.RunnableUtils.*;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.LockSupport;
 
+import com.notnoop.threadedtc.agent.SchedulingPoints;
 import com.notnoop.threadedtc.exceptions.DeadlockSuspectedError;
 import com.notnoop.threadedtc.exceptions.NotAllowedException;
 import com.notnoop.threadedtc.exceptions.TimeoutError;
+import com.notnoop.threadedtc.internal.DeadlockFinder;
+import com.notnoop.threadedtc.internal.FlightEvents;
+import com.notnoop.threadedtc.internal.ScheduleNoise;
+import com.notnoop.threadedtc.internal.SerialScheduler;
 import com.notnoop.threadedtc.internal.TestThreadsStartingCounter;
+import com.notnoop.threadedtc.internal.ThreadActivity;
+import com.notnoop.threadedtc.internal.ThreadStateSnapshot;
+import com.notnoop.threadedtc.internal.VirtualThreads;
+import com.notnoop.threadedtc.internal.WaiterBuckets;
 
 /**
  * Class that facilitates the testing of classes, traits, and libraries designed
@@ -241,6 +254,18 @@ import com.notnoop.threadedtc.internal.TestThreadsStartingCounter;
  * </p>
  *
  * <p>
+ * While a Java Flight Recorder recording is running, on Java 12 and later, a
+ * <code>Conductor</code> commits events of the "ThreadedTC" category, on the threads
+ * they happen on, so that a recording lines them up with the lock contention,
+ * garbage collection and allocation of the subject: <code>BeatAdvanced</code>,
+ * <code>ThreadRegistered</code>, <code>ClockFrozen</code>, lasting until the clock
+ * is unfrozen, <code>DeadlockSuspected</code>, as the threads are first found stuck
+ * and once the deadlock is reported, <code>TimeoutFired</code>, and
+ * <code>ScenarioFinished</code>, lasting from <code>conduct</code> on. Without a
+ * recording, they cost a volatile read each.
+ * </p>
+ *
+ * <p>
  * Class <code>Conductor</code> was inspired by the
  * <a href="http://www.cs.umd.edu/projects/PL/multithreadedtc/">MultithreadedTC project</a>,
  * created by Bill Pugh and Nat Ayewah of the University of Maryland.
@@ -256,6 +281,12 @@ public final class Conductor {
      */
     private final Clock clock = new Clock();
 
+    /**
+     * The time timed waits in the scenario can be made in, without costing real
+     * time. It only moves when the clock thread moves it.
+     */
+    private final VirtualTime virtualTime = new VirtualTime(this);
+
     /////////////////////// thread management start //////////////////////////////
 
     // place all threads in a new thread group
@@ -264,7 +295,15 @@ public final class Conductor {
     // all the threads in this test
     // This need not be volatile, because it is initialized with one object and
     // that stays forever. Because it is final, it
-    private final CopyOnWriteArrayList<Thread> threads = new CopyOnWriteArrayList<Thread>();
+    // It is also the registry the clock thread goes through on every tick, by index,
+    // so that it doesn't need to enumerate the thread group.
+    private final CopyOnWriteArrayList<TestParticipant> threads = new CopyOnWriteArrayList<TestParticipant>();
+
+    // the pool test threads run on, or null if each runs on a thread of its own
+    private volatile TestThreadPool threadPool = null;
+
+    // whether test threads run on virtual threads, when there is no pool
+    private volatile boolean virtualThreads = false;
 
     // Used to keep track of what names have been created so far, so that
     // it can be enforced that the names are unique.
@@ -273,6 +312,56 @@ public final class Conductor {
     // the main test thread
     private final Thread mainThread = Thread.currentThread();
 
+    // incremented whenever a test thread enters or leaves waitForBeat, or finishes,
+    // so the clock thread can tell whether anything happened between two of its checks
+    private final AtomicLong quiescenceEvents = new AtomicLong();
+
+    private volatile boolean quiescenceDriven = true;
+
+    private volatile boolean fastForward = true;
+
+    private volatile boolean deadlockCycleDetection = true;
+
+    private volatile boolean cpuTimeProgress = false;
+
+    // whether test threads inject noise into their schedules, and the seed it comes from
+    private volatile boolean stressed = false;
+    private volatile long stressSeed = 0;
+
+    // one in how many of the points the scheduling agent added to the subject inject noise, or 0
+    private volatile int subjectNoise = 0;
+
+    // runs the test threads one at a time, in the order it chooses, when exploring
+    // or replaying
+    private volatile SerialScheduler scheduler = null;
+
+    // the schedule being replayed, if any
+    private volatile ScheduleLog replayedSchedule = null;
+
+    // records the events of the scenario, when asked to
+    private volatile ScheduleRecorder recorder = null;
+
+    // the track of the clock thread, when recording
+    private ScheduleRecorder.Track clockTrack;
+
+    // delivers what happens to the listeners, if any
+    private final ConductorEvents events = new ConductorEvents();
+
+    // where the clock thread emits its events, when there are listeners
+    private ConductorEvents.Source clockEvents;
+
+    // the bounds of the adaptive clock period, or 0 if the clock period is fixed
+    private volatile long minClockPeriodNanos = 0;
+    private volatile long maxClockPeriodNanos = 0;
+
+    private final ClockStatistics clockStatistics = new ClockStatistics();
+
+    // filled by the clock thread, beat by beat
+    private final ConductorStats stats = new ConductorStats(threadNames);
+
+    // set by conduct; test threads wake it up when they may have made the scenario quiescent
+    private volatile ClockThread clockThread;
+
     /**
      * Creates a new thread that will execute the specified function.
      *
@@ -317,11 +406,32 @@ public final class Conductor {
 //                throw new NotAllowedException(Resources("cantRegisterThreadsWithSameName", name), getStackDepth("Conductor.scala", "thread"))
                 throw new NotAllowedException("cantRegisterThreadsWithSameName: " + name);
 
-            Thread thread = new TestThread(name, fun);
-            threads.add(thread);
+            TestParticipant participant = new TestParticipant(fun);
+            TestThreadPool pool = threadPool;
+            if (pool != null)
+                participant.thread = pool.acquire(name);
+            else if (virtualThreads)
+                participant.thread = VirtualThreads.newThread(name, participant);
+            else
+                participant.thread = new TestThread(threadGroup, participant, name);
+            SerialScheduler serial = scheduler;
+            if (serial != null)
+                participant.slot = serial.register(name, participant.thread);
+            ScheduleRecorder r = recorder;
+            if (r != null)
+                participant.track = r.track(name);
+            if (events.hasListeners()) {
+                participant.events = events.source(name);
+                participant.events.emit(ConductorEvents.Registered, 0);
+            }
+            FlightEvents.threadRegistered(name, clock.currentBeat());
+            threads.add(participant);
             threadNames.add(name);
-            thread.start();
-            return thread;
+            if (pool != null)
+                TestThreadPool.hand(participant.thread, participant);
+            else
+                participant.thread.start();
+            return participant.thread;
         }
     }
 
@@ -332,7 +442,7 @@ public final class Conductor {
     public Thread getThread(String name) {
         int index = threadNames.indexOf(name);
         if (index != -1)
-            return threads.get(index);
+            return threads.get(index).thread;
         else
             return null;
     }
@@ -341,31 +451,162 @@ public final class Conductor {
     // will start immediately, without requiring the user to explicitly start() them.
     // Also, so that the thread method can return a Thread object.
 
+    /*
+     * What the clock thread keeps track of about a thread taking part in the scenario:
+     * a test thread, or a service thread running the tasks of a virtual time executor.
+     * It runs either on a thread of its own, which may be a virtual thread, or on a
+     * thread of the pool.
+     */
+    private abstract class Participant implements Runnable {
+        final Runnable runnable;
+
+        // the thread this runs on, set once it is started
+        volatile Thread thread;
+
+        // false until the green light has been given and this thread has seen it;
+        // until then, it may be WAITING on the latch while it is really about to run
+        volatile boolean pastGreenLight = false;
+
+        // the virtualDeadline of a thread woken before its deadline
+        static final long Woken = -1;
+
+        // the beat this thread is blocked on in Clock.waitForBeat, or 0. The thread is
+        // only still waiting while the clock hasn't reached that beat: once it has, the
+        // thread is runnable even if it hasn't woken up and reset this yet.
+        volatile int beatWaitedFor = 0;
+
+        // the virtual time this thread is parked until in VirtualTime, or 0, in the
+        // same way as beatWaitedFor; Woken once another thread has unparked it
+        volatile long virtualDeadline = 0;
+
+        // the time this thread has spent parked by the conductor itself, waiting for a
+        // beat or in virtual time, and when it last parked in virtual time; only used
+        // by the thread itself
+        long parkedNanos = 0;
+        long parkedSince;
+
+        // true once the runnable has returned or thrown
+        volatile boolean finished = false;
+
+        // the noise this thread injects into its own schedule, when stressed; only
+        // used by the thread itself
+        ScheduleNoise noise;
+
+        // where the scheduler keeps track of this thread, when exploring or replaying
+        SerialScheduler.Slot slot;
+
+        // where the events of this thread are recorded, when recording
+        ScheduleRecorder.Track track;
+
+        // where this thread emits its events, when there are listeners
+        ConductorEvents.Source events;
+
+        // counted down with finished, for waiting on a pooled thread, which doesn't die
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        // what the clock thread last read of this thread's activity, when measuring
+        // progress by CPU time
+        long lastCpuTime = -1;
+        long lastBlockedAndWaited = -1;
+
+        Participant(Runnable runnable) {
+            this.runnable = runnable;
+        }
+
+        Conductor owner() {
+            return Conductor.this;
+        }
+
+        public final void run() {
+            current.set(this);
+            // a pooled thread is bound for this scenario only, whatever it inherited
+            // from the thread that created it, which may be long gone
+            RunnerConductor.bind(Conductor.this);
+            try {
+                participate();
+            } finally {
+                RunnerConductor.bind(null);
+                current.remove();
+            }
+        }
+
+        abstract void participate();
+
+        /**
+         * Records that this thread is done, and lets the clock thread know.
+         */
+        void finish() {
+            finished = true;
+            done.countDown();
+            quiescenceEvents.incrementAndGet();
+            wakeUpClock();
+        }
+
+        /**
+         * Waits for this to finish. A thread of its own is waited for until it dies.
+         */
+        void awaitFinished() throws InterruptedException {
+            if (TestThreadPool.isPooled(thread))
+                done.await();
+            else
+                thread.join();
+        }
+
+        /**
+         * Stops the thread this runs on, unless it is a pooled thread that has moved on.
+         * Virtual threads can't be stopped, so they are interrupted instead.
+         */
+        @SuppressWarnings("deprecation")
+        void stop() {
+            if (TestThreadPool.isPooled(thread))
+                TestThreadPool.stopIfRunning(thread, this);
+            else if (VirtualThreads.isVirtual(thread))
+                thread.interrupt();
+            else if (thread.isAlive())
+                thread.stop();
+        }
+    }
+
+    // the participant each thread is running, if any
+    private static final ThreadLocal<Participant> current = new ThreadLocal<Participant>();
+
     /*
      * A test thread runs the given function.
      * It only does so after it is given permission to do so by the main thread.
      * The main thread grants permission after it receives notication that
      * all test threads are ready to go.
      */
-    private class TestThread extends Thread {
-        final Runnable runnable;
+    private class TestParticipant extends Participant {
 
-        public TestThread(String name, Runnable runnable) {
-            super(threadGroup, name);
-            this.runnable = runnable;
+        public TestParticipant(Runnable runnable) {
+            super(runnable);
 
             // Indicate a TestThread has been created that has not yet started running
             testThreadsStartingCounter.increment();
         }
 
         @Override
-        public void run() {
+        void participate() {
             try {
                 // Indicate to the TestThreadsStartingCounter that one more thread is ready to go
                 testThreadsStartingCounter.decrement();
 
                 // wait for the main thread to say its ok to go.
                 greenLightForTestThreads.await();
+                pastGreenLight = true;
+                if (stressed) {
+                    noise = new ScheduleNoise(stressSeed, thread.getName());
+                    if (subjectNoise > 0)
+                        SchedulingPoints.register(new SubjectNoise(this));
+                }
+                if (slot != null) {
+                    if (scheduler.isInSubject())
+                        SchedulingPoints.register(slot);
+                    schedule(this);
+                }
+                record(this, ScheduleLog.Kind.STARTED);
+                emit(this, ConductorEvents.Started);
+                perturb(this);
 
                 // go
                 runnable.run();
@@ -383,10 +624,243 @@ public final class Conductor {
                     // if it finds it is non-empty, it stops any live thread.
                     firstExceptionThrown.offer(t);
                 }
+            } finally {
+                if (noise != null || slot != null)
+                    SchedulingPoints.unregister();
+                if (slot != null)
+                    scheduler.finish(slot);
+                record(this, ScheduleLog.Kind.FINISHED);
+                emit(this, ConductorEvents.Finished);
+                finish();
             }
         }
     }
 
+    /*
+     * The thread of its own a test thread runs on, unless there is a pool.
+     */
+    private static class TestThread extends Thread {
+        TestThread(ThreadGroup group, Runnable participant, String name) {
+            super(group, participant, name);
+        }
+    }
+
+    /*
+     * A service thread runs the tasks of an executor working in virtual time, from
+     * the start of the scenario to the end. It isn't part of the orchestra: the
+     * scenario doesn't wait for it to finish, and while it is idle, waiting for a
+     * task to run, the clock thread doesn't wait for it either.
+     */
+    private class ServiceParticipant extends Participant {
+        // true while the thread has nothing to do until a task is submitted,
+        // or until the virtual time of the next task
+        volatile boolean idle = false;
+
+        // true once another thread has marked it busy, until it marks itself again;
+        // it is runnable in the meantime, whatever its thread state says
+        volatile boolean woken = false;
+
+        ServiceParticipant(Runnable runnable) {
+            super(runnable);
+        }
+
+        @Override
+        void participate() {
+            pastGreenLight = true;
+            try {
+                runnable.run();
+            } catch (Throwable t) {
+                // the executor keeps the exceptions of its tasks in their futures,
+                // so this is a bug of its own
+                firstExceptionThrown.offer(t);
+            } finally {
+                finish();
+            }
+        }
+    }
+
+    // the service threads of the executors of virtualTime
+    private final CopyOnWriteArrayList<ServiceParticipant> serviceThreads = new CopyOnWriteArrayList<ServiceParticipant>();
+
+    /**
+     * Starts a service thread running the given function.
+     */
+    Thread serviceThread(String name, Runnable fun) {
+        ServiceParticipant service = new ServiceParticipant(fun);
+        Thread thread = new Thread(mainThread.getThreadGroup(), service, name);
+        thread.setDaemon(true);
+        service.thread = thread;
+        serviceThreads.add(service);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Sets whether the given service thread is idle. A thread handing it a task
+     * must mark it busy before unparking it, so that the clock thread doesn't take
+     * it to be idle before it has woken up.
+     */
+    void setServiceThreadIdle(Thread thread, boolean idle) {
+        boolean waker = Thread.currentThread() != thread;
+        for (ServiceParticipant service : serviceThreads) {
+            if (service.thread == thread) {
+                service.woken = waker && !idle;
+                service.idle = idle;
+            }
+        }
+    }
+
+    /**
+     * Returns what this conductor keeps track of about the calling thread, if it is
+     * one of its test threads or service threads, or null otherwise.
+     */
+    private Participant currentParticipant() {
+        Participant self = current.get();
+        if (self != null && self.owner() == this)
+            return self;
+        else
+            return null;
+    }
+
+    /**
+     * Injects noise into the schedule of the calling thread, if it is a test thread
+     * of this conductor and the scenario is stressed.
+     */
+    private void perturb(Participant self) {
+        if (self != null && self.noise != null)
+            self.noise.perturb();
+    }
+
+    /**
+     * Waits for the turn of the calling thread, if it is a test thread of this
+     * conductor and the scenario is explored or replayed. A point of the conductor
+     * may depend on anything the subject does.
+     */
+    private void schedule(Participant self) {
+        if (self != null && self.slot != null)
+            scheduler.arrive(self.slot, null, null, true);
+    }
+
+    /**
+     * Records an event of the given kind on the track of the calling thread, if it
+     * is a test thread of this conductor and the scenario is recorded.
+     */
+    private void record(Participant self, ScheduleLog.Kind kind) {
+        if (self != null && self.track != null)
+            self.track.record(kind);
+    }
+
+    /**
+     * Emits an event of the given kind for the calling thread, if it is a test thread
+     * of this conductor and there are listeners.
+     */
+    private void emit(Participant self, int kind) {
+        if (self != null && self.events != null)
+            self.events.emit(kind, 0);
+    }
+
+    /**
+     * A scheduling point of the conductor: the calling thread waits for its turn,
+     * records that it passed it, and injects noise, as the scenario requires. A
+     * stressed thread records the point before its noise, so that the recorded order
+     * is the one the threads got there in, which the clock goes by.
+     */
+    private void point(Participant self) {
+        schedule(self);
+        record(self, ScheduleLog.Kind.POINT);
+        perturb(self);
+    }
+
+    /*
+     * What a test thread of a stressed scenario does at the points the scheduling
+     * agent added to the subject: inject noise at one in subjectNoise of them, and
+     * record them all, so that a replay can follow them.
+     */
+    private final class SubjectNoise extends SchedulingPoints.Listener {
+        private final Participant self;
+
+        SubjectNoise(Participant self) {
+            this.self = self;
+        }
+
+        @Override
+        protected void reached(Object target, String member, boolean write) {
+            record(self, ScheduleLog.Kind.SUBJECT_POINT);
+            self.noise.perturbOneIn(subjectNoise);
+        }
+    }
+
+    /**
+     * Called by VirtualTime when the current thread parks until the given virtual
+     * time, so that the clock thread knows what it is waiting for.
+     */
+    void virtualWaitStarted(long deadline) {
+        Participant self = currentParticipant();
+        if (self != null) {
+            self.virtualDeadline = deadline;
+            self.parkedSince = System.nanoTime();
+        }
+        quiescenceEvents.incrementAndGet();
+        wakeUpClock();
+    }
+
+    /**
+     * The time the calling thread has spent parked by this conductor, waiting for a
+     * beat or in virtual time, in nanoseconds, or 0 if it isn't one of its threads.
+     */
+    long parkedTime() {
+        Participant self = currentParticipant();
+        return self == null ? 0 : self.parkedNanos;
+    }
+
+    /**
+     * Called by VirtualTime when the current thread is done parking.
+     */
+    void virtualWaitEnded() {
+        Participant self = currentParticipant();
+        if (self != null) {
+            // a service thread is busy from now until it says it is idle again, so
+            // that it isn't left out of the snapshots on its way to its next task
+            if (self instanceof ServiceParticipant)
+                ((ServiceParticipant)self).idle = false;
+            self.virtualDeadline = 0;
+            self.parkedNanos += System.nanoTime() - self.parkedSince;
+        }
+        quiescenceEvents.incrementAndGet();
+    }
+
+    /**
+     * Called by VirtualTime before it unparks the given thread, which may be parked
+     * until a virtual time: from then on, the thread is about to run again.
+     */
+    void virtualWaiterWoken(Thread thread) {
+        Participant woken = null;
+        for (Participant p : threads) {
+            if (p.thread == thread && !p.finished)
+                woken = p;
+        }
+        for (Participant p : serviceThreads) {
+            if (p.thread == thread && !p.finished)
+                woken = p;
+        }
+        // it counts as runnable until it is done parking, as it does once its
+        // deadline has been reached
+        if (woken != null && woken.virtualDeadline != 0) {
+            woken.virtualDeadline = Participant.Woken;
+            quiescenceEvents.incrementAndGet();
+        }
+    }
+
+    /**
+     * Lets the clock thread check the test threads right away, instead of
+     * at the end of its current clock period.
+     */
+    private void wakeUpClock() {
+        ClockThread clock = clockThread;
+        if (quiescenceDriven && clock != null)
+            LockSupport.unpark(clock);
+    }
+
     /**
      * A BlockingQueue containing the first exception that occured
      * in test threads, or that was thrown by the clock thread.
@@ -475,6 +949,17 @@ public final class Conductor {
         return clock.currentBeat();
     }
 
+    /**
+     * Returns the virtual time of this <code>Conductor</code>: a clock, a way to sleep,
+     * and scheduled executors, that only move on when every thread of the scenario is
+     * blocked, so that timed waits finish right away.
+     *
+     * @see VirtualTime
+     */
+    public VirtualTime getVirtualTime() {
+        return virtualTime;
+    }
+
     /**
      * Executes the passed function with the <code>Conductor</code> <em>frozen</em> so that it
      * won't advance the clock.
@@ -507,6 +992,427 @@ public final class Conductor {
         return clock.isFrozen();
     }
 
+    /**
+     * Sets whether the beat advances as soon as the test threads become quiescent.
+     *
+     * <p>
+     * When enabled, which is the default, a test thread that enters <code>waitForBeat</code>
+     * or finishes wakes the clock up, so the beat advances right away once every other test
+     * thread is either waiting for a beat or blocked. Threads blocked inside the subject are
+     * only visible through their thread state, so in that case the clock confirms the
+     * observation a short while later before advancing. The clock still checks the threads
+     * once every clock period, which catches any blocking it wasn't told about.
+     * </p>
+     *
+     * <p>
+     * When disabled, the clock only checks the threads once every clock period.
+     * </p>
+     *
+     * @param quiescenceDriven whether to advance the beat on quiescence
+     * @throws NotAllowedException if <code>conduct</code> has already been invoked
+     */
+    public void setQuiescenceDriven(boolean quiescenceDriven) {
+        if (conductingHasBegun())
+            throw new NotAllowedException("cannotChangeClockModeAfterConduct");
+        this.quiescenceDriven = quiescenceDriven;
+    }
+
+    public boolean isQuiescenceDriven() {
+        return quiescenceDriven;
+    }
+
+    /**
+     * Sets whether the clock skips the beats nobody is waiting for.
+     *
+     * <p>
+     * When enabled, which is the default, the clock advances straight to the lowest
+     * beat some thread is waiting for, rather than one beat at a time. As the beat only
+     * advances while all the test threads are blocked, nothing can happen during the
+     * skipped beats, so a scenario behaves the same either way, except that one whose
+     * threads wait for beats 1, 100 and 1000 only takes three advances instead of a
+     * thousand. <code>beat</code> reports the beat the clock jumped to.
+     * </p>
+     *
+     * @param fastForward whether to skip the beats nobody is waiting for
+     * @throws NotAllowedException if <code>conduct</code> has already been invoked
+     */
+    public void setFastForward(boolean fastForward) {
+        if (conductingHasBegun())
+            throw new NotAllowedException("cannotChangeClockModeAfterConduct");
+        this.fastForward = fastForward;
+    }
+
+    public boolean isFastForward() {
+        return fastForward;
+    }
+
+    /**
+     * Sets whether the clock asks the JVM for deadlocked threads.
+     *
+     * <p>
+     * When enabled, which is the default, the clock asks the <code>ThreadMXBean</code>
+     * for deadlocked threads, monitors and ownable synchronizers (such as
+     * <code>ReentrantLock</code>) included, whenever no thread is running or waiting
+     * for a beat or a timeout. If a test thread is in a wait-for cycle, the test is
+     * aborted right away with a <code>DeadlockSuspectedError</code> describing the
+     * cycle: which thread waits for which lock, owned by which thread, and their stacks.
+     * </p>
+     *
+     * <p>
+     * Threads that are stuck without being in a cycle, e.g. waiting for a condition
+     * or a latch nobody will signal, are still only suspected of being deadlocked after
+     * they have stayed that way for a number of clock periods.
+     * </p>
+     *
+     * @param deadlockCycleDetection whether to look for wait-for cycles
+     * @throws NotAllowedException if <code>conduct</code> has already been invoked
+     */
+    public void setDeadlockCycleDetection(boolean deadlockCycleDetection) {
+        if (conductingHasBegun())
+            throw new NotAllowedException("cannotChangeDeadlockDetectionAfterConduct");
+        this.deadlockCycleDetection = deadlockCycleDetection;
+    }
+
+    public boolean isDeadlockCycleDetection() {
+        return deadlockCycleDetection;
+    }
+
+    /**
+     * Sets whether running threads that keep doing something count as making progress.
+     *
+     * <p>
+     * By default, the test times out once threads have been running for the timeout
+     * passed to <code>conduct</code> without the beat advancing, whatever they are
+     * doing. When enabled, the clock also asks the JVM, through its <code>ThreadMXBean</code>,
+     * how much CPU time each test thread has used, and how many times it has blocked on a
+     * monitor or waited. As long as either goes up for some test thread, the timeout
+     * starts over, so a long computation isn't cut short. A thread that stays
+     * <code>RUNNABLE</code> without using any CPU, e.g. stuck in a native call or in
+     * blocking I/O, still times out.
+     * </p>
+     *
+     * <p>
+     * The JVM can't tell a busy loop from a computation, so a live lock of threads
+     * spinning on each other also counts as progress when this is enabled.
+     * </p>
+     *
+     * @param cpuTimeProgress whether to measure progress by CPU time and blocking
+     * @throws NotAllowedException if <code>conduct</code> has already been invoked
+     */
+    public void setCpuTimeProgress(boolean cpuTimeProgress) {
+        if (conductingHasBegun())
+            throw new NotAllowedException("cannotChangeTimeoutModeAfterConduct");
+        this.cpuTimeProgress = cpuTimeProgress;
+    }
+
+    public boolean isCpuTimeProgress() {
+        return cpuTimeProgress;
+    }
+
+    /**
+     * Makes test threads inject seeded noise into their schedules, so that running
+     * the scenario over and over goes through many more interleavings than the
+     * scheduler of the OS would come up with on its own.
+     *
+     * <p>
+     * Each test thread, as it starts, as it returns from <code>waitForBeat</code>, and
+     * as it leaves <code>withConductorFrozen</code>, either goes on, yields, spins for a
+     * little while or parks for up to 200 microseconds. What it does at each of these
+     * points only depends on the seed and the name of the thread, so running the
+     * scenario again with the seed of a failed run makes the same choices. That doesn't
+     * make the run deterministic, as the threads still race in between, but it makes
+     * the failure a lot more likely to come back.
+     * </p>
+     *
+     * @param seed the seed the noise of every test thread is drawn from
+     * @throws NotAllowedException if <code>conduct</code> has already been invoked
+     */
+    public void setStressSeed(long seed) {
+        if (conductingHasBegun())
+            throw new NotAllowedException("cannotChangeStressAfterConduct");
+        if (scheduler != null)
+            throw new NotAllowedException(replayedSchedule != null
+                    ? "cannotStressAReplayedScenario" : "cannotStressAnExploredScenario");
+        this.stressSeed = seed;
+        this.stressed = true;
+    }
+
+    public boolean isStressed() {
+        return stressed;
+    }
+
+    /**
+     * Returns the seed passed to <code>setStressSeed</code>, or 0 if the scenario
+     * isn't stressed.
+     */
+    public long getStressSeed() {
+        return stressSeed;
+    }
+
+    /**
+     * Makes test threads of a stressed scenario also inject noise inside the subject,
+     * at one in <code>oneIn</code> of the points the <code>SchedulingAgent</code> added to it:
+     * its field accesses, monitor operations and lock calls. Threads the subject starts
+     * don't inject any, nor do the threads of other scenarios, which run the same
+     * classes at nearly full speed.
+     *
+     * @param oneIn one in how many points inject noise, or 0 for none, the default
+     * @throws NotAllowedException if <code>oneIn</code> is negative, if the agent isn't
+     *   installed, or if <code>conduct</code> has already been invoked
+     * @see com.notnoop.threadedtc.agent.SchedulingAgent
+     */
+    public void setSubjectNoise(int oneIn) {
+        if (oneIn < 0)
+            throw new NotAllowedException("cannotPassNegativeSubjectNoise");
+        if (oneIn > 0 && !SchedulingPoints.isInstalled())
+            throw new NotAllowedException("subjectNoiseNeedsTheSchedulingAgent");
+        if (conductingHasBegun())
+            throw new NotAllowedException("cannotChangeStressAfterConduct");
+        this.subjectNoise = oneIn;
+    }
+
+    public int getSubjectNoise() {
+        return subjectNoise;
+    }
+
+    /**
+     * Makes the given scheduler run the test threads one at a time, see
+     * <code>Explore</code>.
+     */
+    void setScheduler(SerialScheduler scheduler) {
+        if (!threads.isEmpty() || conductingHasBegun())
+            throw new NotAllowedException("cannotChangeSchedulerAfterThreadsWereCreated");
+        if (stressed)
+            throw new NotAllowedException("cannotStressAnExploredScenario");
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Makes the given listener hear about what happens in the scenario: the test
+     * threads being registered, starting and finishing, the clock being frozen and
+     * unfrozen, the beat advancing, and the scenario being suspected of deadlock or
+     * timing out. The listeners are called on a thread of their own, see
+     * <code>ConductorListener</code>.
+     *
+     * @throws NotAllowedException if <code>conduct</code> has already been invoked
+     */
+    public void addListener(ConductorListener listener) {
+        if (conductingHasBegun())
+            throw new NotAllowedException("cannotAddListenersAfterConduct");
+        events.addListener(listener);
+        // the threads created so far get the green light after their sources are set
+        for (int i = 0; i < threads.size(); i++) {
+            Participant participant = threads.get(i);
+            if (participant.events == null) {
+                participant.events = events.source(threadNames.get(i));
+                participant.events.emit(ConductorEvents.Registered, 0);
+            }
+        }
+    }
+
+    /**
+     * Records what happens in the scenario: the test threads starting, passing their
+     * scheduling points and finishing, the clock being frozen and unfrozen, and the
+     * beat advancing. The scheduling points are those the test threads of a stressed
+     * scenario inject noise at, see <code>setStressSeed</code>, and with subject
+     * noise, those the <code>SchedulingAgent</code> added to the subject as well.
+     *
+     * <p>
+     * Each thread records its events on its own, so the only cost it shares with the
+     * others is taking a ticket from a counter, which keeps recording cheap enough to
+     * leave on in every stressed run. Replaying the log with
+     * <code>setReplayedSchedule</code> makes the test threads pass their scheduling
+     * points in the same order again, one at a time.
+     * </p>
+     *
+     * @throws NotAllowedException if threads were created, or <code>conduct</code>
+     *   invoked, already
+     * @see #getScheduleLog()
+     */
+    public void setScheduleRecording(boolean record) {
+        if (!threads.isEmpty() || conductingHasBegun())
+            throw new NotAllowedException("cannotChangeScheduleRecordingAfterThreadsWereCreated");
+        this.recorder = record ? new ScheduleRecorder() : null;
+    }
+
+    public boolean isScheduleRecording() {
+        return recorder != null;
+    }
+
+    /**
+     * Returns what was recorded of the scenario so far, whether it passed or
+     * failed, or null if it isn't recorded.
+     */
+    public ScheduleLog getScheduleLog() {
+        ScheduleRecorder r = recorder;
+        return r == null ? null : r.log(stressed && subjectNoise > 0);
+    }
+
+    /**
+     * Makes the test threads pass their scheduling points in the order they did in
+     * a recorded scenario, running one at a time, see
+     * <code>setScheduleRecording</code>. The points the
+     * <code>SchedulingAgent</code> added to the subject only take part if the log
+     * recorded them. The threads are told apart by their names, so they have to be
+     * created with the same ones. Once the recorded schedule has run out, or if it
+     * can't be followed, the threads go on one at a time in an order of their own.
+     *
+     * @param log the recorded scenario, or null to stop replaying
+     * @throws NotAllowedException if the scenario is stressed, or threads were
+     *   created, or <code>conduct</code> invoked, already
+     */
+    public void setReplayedSchedule(ScheduleLog log) {
+        if (!threads.isEmpty() || conductingHasBegun())
+            throw new NotAllowedException("cannotChangeSchedulerAfterThreadsWereCreated");
+        if (stressed)
+            throw new NotAllowedException("cannotStressAReplayedScenario");
+        this.replayedSchedule = log;
+        this.scheduler = log == null ? null
+                : new SerialScheduler(log.getSchedule().getThreads(), log.hasSubjectPoints());
+    }
+
+    public ScheduleLog getReplayedSchedule() {
+        return replayedSchedule;
+    }
+
+    /**
+     * Makes test threads run on threads of the given pool, instead of threads of
+     * their own, or on threads of their own again if the pool is null.
+     *
+     * <p>
+     * A pooled thread has the name of the test thread it runs, and is tracked like
+     * any other test thread while the scenario runs. It isn't terminated after the
+     * scenario though, but goes back to the pool for the next one. Threads the
+     * subject starts from a pooled thread end up in the thread group of the pool
+     * rather than that of the <code>Conductor</code>. See <code>TestThreadPool</code>.
+     * </p>
+     *
+     * @param pool the pool to run test threads on, or null
+     * @throws NotAllowedException if a test thread has already been created
+     */
+    public void setThreadPool(TestThreadPool pool) {
+        if (!threads.isEmpty() || conductingHasBegun())
+            throw new NotAllowedException("cannotChangeThreadPoolAfterThreadsWereCreated");
+        if (pool != null && virtualThreads)
+            throw new NotAllowedException("cannotPoolVirtualThreads");
+        this.threadPool = pool;
+    }
+
+    public TestThreadPool getThreadPool() {
+        return threadPool;
+    }
+
+    /**
+     * Sets whether test threads run on virtual threads, instead of platform threads
+     * of their own, so that scenarios with thousands of test threads are cheap to
+     * set up. Virtual threads need a Java 21 JVM.
+     *
+     * <p>
+     * A test thread running on a virtual thread is tracked like any other test thread.
+     * However:
+     * </p>
+     *
+     * <ul>
+     * <li>Threads the subject starts from a virtual thread don't end up in the thread
+     * group of the <code>Conductor</code>, so the scenario neither tracks nor waits for
+     * them.</li>
+     * <li>The JVM doesn't report deadlocks, CPU time or blocking of virtual threads, so a
+     * deadlock is only suspected after the threads have stayed stuck for 50 clock periods,
+     * and running threads don't count as making progress by CPU time.</li>
+     * <li>A virtual thread can't be stopped, so when the test fails, the test threads are
+     * interrupted instead, and may keep running if they ignore it.</li>
+     * </ul>
+     *
+     * @param virtualThreads whether to run test threads on virtual threads
+     * @throws NotAllowedException if a test thread has already been created, if the JVM
+     *   doesn't support virtual threads, or if test threads run on a thread pool
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        if (!threads.isEmpty() || conductingHasBegun())
+            throw new NotAllowedException("cannotChangeThreadKindAfterThreadsWereCreated");
+        if (virtualThreads && !VirtualThreads.isSupported())
+            throw new NotAllowedException("virtualThreadsNeedJava21");
+        if (virtualThreads && threadPool != null)
+            throw new NotAllowedException("cannotPoolVirtualThreads");
+        this.virtualThreads = virtualThreads;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * The thread group the threads the subject starts from test threads end up in.
+     */
+    private ThreadGroup scenarioGroup() {
+        TestThreadPool pool = threadPool;
+        return pool == null ? threadGroup : pool.group();
+    }
+
+    /**
+     * Returns true if the given thread is one test threads run on, rather than a
+     * thread started by the subject.
+     */
+    private static boolean isTestThread(Thread t) {
+        return t instanceof TestThread || TestThreadPool.isPooled(t);
+    }
+
+    /**
+     * Makes the clock choose its own period, between the given bounds, instead of
+     * using the clock period passed to <code>conduct</code>.
+     *
+     * <p>
+     * Right after a test thread has entered or left <code>waitForBeat</code>, finished,
+     * or unfrozen the clock, and right after the beat has advanced, the clock checks the
+     * threads again after <code>minPeriod</code>, spinning for a little while first in
+     * case the threads become quiescent straight away. Every check that finds nothing has
+     * changed doubles the period, up to <code>maxPeriod</code>, so the clock thread stays
+     * out of the way of test threads that are busy running. The periods chosen are
+     * reported by <code>getClockStatistics</code>.
+     * </p>
+     *
+     * <p>
+     * The clock period passed to <code>conduct</code> still sets how long the threads
+     * may stay blocked before a deadlock is suspected.
+     * </p>
+     *
+     * @param minPeriod the period to check the threads at right after a change
+     * @param maxPeriod the longest period to leave between two checks
+     * @param unit the time unit of both periods
+     * @throws NotAllowedException if a period is not positive, if <code>maxPeriod</code>
+     *   is less than <code>minPeriod</code>, or if <code>conduct</code> has already been invoked
+     */
+    public void setAdaptiveClock(long minPeriod, long maxPeriod, TimeUnit unit) {
+        if (minPeriod <= 0)
+            throw new NotAllowedException("cannotPassNonPositiveClockPeriod");
+        if (maxPeriod < minPeriod)
+            throw new NotAllowedException("maxClockPeriodLessThanMinClockPeriod");
+        if (conductingHasBegun())
+            throw new NotAllowedException("cannotChangeClockModeAfterConduct");
+        this.minClockPeriodNanos = unit.toNanos(minPeriod);
+        this.maxClockPeriodNanos = unit.toNanos(maxPeriod);
+    }
+
+    public boolean isAdaptiveClock() {
+        return minClockPeriodNanos != 0;
+    }
+
+    /**
+     * Returns how often the clock checked the test threads, and the periods it slept
+     * for in between, as the clock thread updates them.
+     */
+    public ClockStatistics getClockStatistics() {
+        return clockStatistics;
+    }
+
+    /**
+     * Returns how long each beat lasted, and how its test threads spent it, as the
+     * clock thread saw them; complete once <code>conduct</code> has returned, or thrown.
+     */
+    public ConductorStats getStats() {
+        return stats;
+    }
+
     private TestThreadsStartingCounter testThreadsStartingCounter = new TestThreadsStartingCounter();
 
     /**
@@ -518,11 +1424,13 @@ public final class Conductor {
     /**
      * Conducts a multithreaded test with a default clock period of 10 milliseconds
      * and default run limit of 5 seconds.
+     *
+     * @return how each beat went, see <code>getStats</code>
      */
-    public void conduct() {
+    public ConductorStats conduct() {
         int DefaultClockPeriod = 10; // milliseconds
         int DefaultRunLimit = 5; // seconds
-        conduct(DefaultClockPeriod, DefaultRunLimit);
+        return conduct(DefaultClockPeriod, DefaultRunLimit);
     }
 
     private AtomicReference<ConductorState> currentState
@@ -551,20 +1459,24 @@ public final class Conductor {
      * <p>
      * A <code>Conductor</code> instance maintains an internal clock, which will wake up
      * periodically and check to see if it should advance the beat, abort the test, or go back to sleep.
-     * It sleeps <code>clockPeriod</code> milliseconds each time. It will abort the test
+     * It sleeps <code>clockPeriod</code> milliseconds each time, unless a test thread wakes it
+     * up earlier (see <code>setQuiescenceDriven</code>), or it chooses its own period (see
+     * <code>setAdaptiveClock</code>). It will abort the test
      * if either deadlock is suspected or the beat has not advanced for the number of
      * seconds specified as <code>timeout</code>. Suspected deadlock will be declared if
-     * for some number of consecutive clock cycles, all test threads are in the <code>BLOCKED</code> or
+     * for 50 clock periods, all test threads are in the <code>BLOCKED</code> or
      * <code>WAITING</code> states and none of them are waiting for a beat.
      * </p>
      *
      * @param clockPeriod The period (in ms) the clock will sleep each time it sleeps
      * @param timeout The maximum allowed time between successive advances of the beat. If this time
-     *    is exceeded, the Conductor will abort the test.
+     *    is exceeded, the Conductor will abort the test. See <code>setCpuTimeProgress</code> for
+     *    letting threads that keep computing run for longer.
+     * @return how each beat went, see <code>getStats</code>
      * @throws Throwable The first error or exception that is thrown by one of the test threads, or
      *    a <code>TestFailedException</code> if the test was aborted due to a timeout or suspected deadlock.
      */
-    public void conduct(int clockPeriod, int timeout) {
+    public ConductorStats conduct(int clockPeriod, int timeout) {
         if (clockPeriod <= 0)
             throw new NotAllowedException("cannotPassNonPositiveClockPeriod");
 //            throw new NotAllowedException(Resources("cannotPassNonPositiveClockPeriod", clockPeriod.toString), getStackDepth("Conductor.scala", "conduct"))
@@ -579,6 +1491,7 @@ public final class Conductor {
 //            throw new NotAllowedException(Resources("cannotCallConductTwice"), getStackDepth("Conductor.scala", "conduct"))
         else
             currentState.set(ConductorState.TEST_STARTED);
+            Object flight = FlightEvents.scenarioStarted();
 
             // wait until all threads are definitely ready to go
             try {
@@ -588,19 +1501,44 @@ public final class Conductor {
                 throw new RuntimeException(e);
             }
 
+            SerialScheduler serial = scheduler;
+            if (serial != null) {
+                serial.start(new SerialScheduler.Beat() {
+                    public int currentBeat() {
+                        return clock.currentBeat();
+                    }
+                });
+            }
+
             // release the latch, allowing all threads to start
             // wait for all the test threads to start before starting the clock
             greenLightForTestThreads.countDown();
 
             // start the clock thread
-            ClockThread clockThread = new ClockThread(clockPeriod, timeout);
+            ScheduleRecorder r = recorder;
+            if (r != null)
+                clockTrack = r.track("Conductor-Clock");
+            if (events.hasListeners()) {
+                clockEvents = events.source("Conductor-Clock");
+                events.start();
+            }
+            stats.start(clock.currentBeat(), System.nanoTime());
+            clockThread = new ClockThread(clockPeriod, timeout);
             clockThread.start();
 
             // wait until all threads have ended
             waitForThreads();
+            stats.finish(System.nanoTime());
+            virtualTime.shutdownExecutors();
+            if (serial != null)
+                serial.stop();
+            Throwable listenerFailure = events.stop();
+            if (listenerFailure != null)
+                firstExceptionThrown.offer(listenerFailure);
 
             // change state to test finished
             currentState.set(ConductorState.TEST_FINISHED);
+            FlightEvents.scenarioFinished(flight, clock.currentBeat(), threads.size(), !firstExceptionThrown.isEmpty());
 
             if (!firstExceptionThrown.isEmpty()) {
                 Throwable throwable = firstExceptionThrown.peek();
@@ -611,6 +1549,7 @@ public final class Conductor {
                 else
                     throw new RuntimeException(throwable);
             }
+            return stats;
     }
 
     /**
@@ -631,22 +1570,46 @@ public final class Conductor {
     // returns.
     private void waitForThreads() {
         boolean interrupted = false;
-        while(!interrupted && areAnyThreadsAlive(threadGroup)) {
-            for (Thread t : getThreads(threadGroup)) {
-            if (!interrupted && t.isAlive() && firstExceptionThrown.isEmpty())
+        while(!interrupted && (areAnyTestThreadsUnfinished() || areAnySubjectThreadsAlive())) {
+            for (TestParticipant p : threads) {
+                if (!interrupted && !p.finished && firstExceptionThrown.isEmpty())
+                    try {
+                        p.awaitFinished();
+                    } catch (InterruptedException e) {
+                        // main thread will be interrupted if a timeout occurs, deadlock is suspected,
+                        // or a test thread completes abruptly with an exception. Just loop here, because
+                        // firstExceptionThrown should be non-empty after InterruptedException is caught, and
+                        // if not, then I don't know how it got interrupted, but just keep looping.
+                        interrupted = true;
+                    }
+            }
+            for (Thread t : getThreads(scenarioGroup())) {
+            if (!interrupted && !isTestThread(t) && t.isAlive() && firstExceptionThrown.isEmpty())
                 try {
                     t.join();
                 } catch (InterruptedException e) {
-                    // main thread will be interrupted if a timeout occurs, deadlock is suspected,
-                    // or a test thread completes abruptly with an exception. Just loop here, because
-                    // firstExceptionThrown should be non-empty after InterruptedException is caught, and
-                    // if not, then I don't know how it got interrupted, but just keep looping.
                     interrupted = true;
                 }
             }
         }
     }
 
+    private boolean areAnyTestThreadsUnfinished() {
+        for (TestParticipant p : threads) {
+            if (!p.finished || !TestThreadPool.isPooled(p.thread) && p.thread.isAlive())
+                return true;
+        }
+        return false;
+    }
+
+    private boolean areAnySubjectThreadsAlive() {
+        for (Thread t : getThreads(scenarioGroup())) {
+            if (!isTestThread(t) && t.isAlive())
+                return true;
+        }
+        return false;
+    }
+
 
 
     /**
@@ -660,69 +1623,96 @@ public final class Conductor {
      * <li>Report the current time</li>
      * <li>Run operations with the clock frozen.</li>
      * </ol>
+     *
+     * The clock doesn't take any locks. Threads waiting for a beat are parked in
+     * a bucket for that beat, so advancing the clock only unparks the threads
+     * whose beat has arrived, and leaves the ones waiting for later beats alone.
      */
     private class Clock {
 
         // clock starts at time 0
-        private int currentTime = 0;
+        private final AtomicInteger currentTime = new AtomicInteger(0);
 
-        // methods in Clock that access or modify the private instance vars of this
-        // Clock are synchronized on the object referenced from lock
-        private Object lock = new Object();
+        // the threads parked in waitForBeat, bucketed by the beat they wait for
+        private final WaiterBuckets waiters = new WaiterBuckets();
 
         /**
-         * Read locks are acquired when clock is frozen and must be
-         * released before the clock can advance in a advance(). (In a
-         * ReentrantReadWriteLock, multiple threads can hold the read lock (and these
-         * threads might read the value of currentTime (the currentBeat method), or just execute a
-         * function with the clock frozen (the withClockFrozen method). The write lock
-         * of a ReentrantReadWriteLock is exclusive, so only one can hold it, and it
-         * can't be held if there are a thread or threads holding the read lock. This
-         * is why the clock can't advance during a withClockFrozen, because the read
-         * lock is grabbed before the function is executed in withClockFrozen, thus
-         * advance will not be able to acquire the write lock to update currentTime
-         * until after withClockFrozen has released the read lock (and there are no other
-         * threads holding a read lock or the write lock).
+         * The number of threads running a function with the clock frozen, or
+         * Advancing while the clock thread is updating currentTime. A freezer can
+         * only get in while no advance is in progress, and an advance only happens
+         * while nobody has the clock frozen, so the clock can't advance during a
+         * withClockFrozen.
          */
-        private ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
-
-        private int highestBeatBeingWaitedOn = 0;
+        private final AtomicInteger freezers = new AtomicInteger(0);
+        private static final int Advancing = -1;
 
         /**
-         * Advance the current beat. In order to do so, the clock will wait
-         * until it has become unfrozen.
+         * Advance the current beat, unless the clock is frozen. When fast forwarding,
+         * the clock advances to the lowest beat a thread is waiting for.
+         *
+         * The threads waiting for the new beat (they would have been parked in its
+         * bucket by invoking the waitForBeat method) will be unparked after the advance.
+         *
+         * Only the clock thread should be calling this.
          *
-         * All threads waiting for the clock to advance (they would have been put in the lock
-         * object's wait set by invoking the waitForBeat method) will be notified after the advance.
+         * @return false if the clock is frozen, in which case it didn't advance. The thread
+         *   unfreezing the clock will wake the clock thread up, so it can try again.
+         */
+        boolean advance() {
+            if (!freezers.compareAndSet(0, Advancing))
+                return false;
+            int beat;
+            try {
+                beat = currentTime.get() + 1;
+                if (fastForward) {
+                    long lowest = waiters.lowestWaitedFor(beat - 1);
+                    if (lowest != Long.MAX_VALUE && lowest > beat)
+                        beat = (int)lowest;
+                }
+                currentTime.set(beat);
+            } finally {
+                freezers.set(0);
+            }
+            // before the waiters are released, so that the advance comes before whatever they do
+            if (clockTrack != null)
+                clockTrack.record(ScheduleLog.Kind.BEAT_ADVANCED);
+            if (clockEvents != null)
+                clockEvents.emit(ConductorEvents.BeatAdvanced, beat);
+            stats.advanced(beat, System.nanoTime());
+            FlightEvents.beatAdvanced(beat);
+            waiters.release(beat);
+            return true;
+        }
+
+        /**
+         * Move virtual time forward to the earliest time a thread is parked until,
+         * unless the clock is frozen, and unpark the threads parked until then.
          *
          * Only the clock thread should be calling this.
          *
-         * If the clock has been frozen by a thread, then that thread will own the readLock. Write
-         * lock can only be acquired when there are no readers, so ticks won't progress while someone
-         * has the clock frozen. Other methods also grab the read lock, like time (which gets
-         * the current beat.)
+         * @return false if the clock is frozen, in which case virtual time didn't move
          */
-        void advance() {
-            synchronized(lock) {
-                rwLock.writeLock().lock();
-                currentTime += 1;
-                rwLock.writeLock().unlock();
-                lock.notifyAll();
+        boolean advanceVirtualTime() {
+            if (!freezers.compareAndSet(0, Advancing))
+                return false;
+            long time;
+            try {
+                time = virtualTime.nextDeadline();
+                if (time == Long.MAX_VALUE)
+                    return true;
+                virtualTime.moveTo(time);
+            } finally {
+                freezers.set(0);
             }
+            virtualTime.release(time);
+            return true;
         }
 
         /**
          * The current beat.
          */
         int currentBeat() {
-            synchronized(lock) {
-                rwLock.readLock().lock();
-                try {
-                    return currentTime;
-                } finally {
-                    rwLock.readLock().unlock();
-                }
-            }
+            return currentTime.get();
         }
 
         /**
@@ -730,34 +1720,71 @@ public final class Conductor {
          * the given beat is reached by the clock.
          */
         void waitForBeat(int beat) {
-            synchronized (lock) {
-                if (beat > highestBeatBeingWaitedOn)
-                    highestBeatBeingWaitedOn = beat;
+            Participant self = currentParticipant();
+            if (currentBeat() >= beat) {
+                point(self);
+                return;
+            }
+
+            Thread current = Thread.currentThread();
+            long start = System.nanoTime();
+            waiters.add(beat, current);
+
+            if (self != null) {
+                self.beatWaitedFor = beat;
+                quiescenceEvents.incrementAndGet();
+                wakeUpClock();
+                if (self.slot != null)
+                    scheduler.waitForBeat(self.slot, beat);
+            }
+            try {
                 while (currentBeat() < beat) {
-                    try {
-                        lock.wait();
-                    } catch (InterruptedException e) {
+                    LockSupport.park();
+                    if (Thread.interrupted()) {
                         // TODO: this is probably fine, but check JCIP about InterEx again
-                        throw new AssertionError(e);
+                        throw new AssertionError(new InterruptedException());
                         // Actually I"m not sure. Maybe should reset the interupted status
                     }
                 }
+            } finally {
+                waiters.remove(beat, current);
+                if (self != null) {
+                    self.beatWaitedFor = 0;
+                    self.parkedNanos += System.nanoTime() - start;
+                    quiescenceEvents.incrementAndGet();
+                }
             }
+            point(self);
         }
 
-        // The reason there's no race condition between calling currentBeat in the while and calling
-        // lock.wait() later (between that) and some other thread incrementing the beat and doing
-        // a notify that this thread would miss (which it would want to know about if that's the
-        // new time that it's waiting for) is because both this and the currentBeat method are synchronized
-        // on the lock.
+        // The reason there's no race condition between calling currentBeat in the while and parking
+        // (between that, some other thread could increment the beat and unpark this thread before it
+        // parks) is that the thread is in its bucket before it checks the beat, and an unpark that
+        // comes before the park makes the park return right away.
 
         /**
          * Returns true if any thread is waiting for a beat in the future (greater than the current beat)
          */
         boolean isAnyThreadWaitingForABeat() {
-            synchronized(lock) {
-                return highestBeatBeingWaitedOn > currentTime;
-            }
+            return waiters.lowestWaitedFor(currentBeat()) != Long.MAX_VALUE;
+        }
+
+        /**
+         * Returns true if the given test thread is blocked in waitForBeat, for a beat that
+         * hasn't been reached yet.
+         */
+        boolean isWaitingForABeat(Participant t) {
+            return t.beatWaitedFor > currentBeat();
+        }
+
+        /**
+         * Returns true if the given thread is parked until a virtual time that
+         * hasn't come yet. A thread woken earlier by VirtualTime.unpark is marked
+         * Woken already, and one that has been interrupted keeps its interrupt
+         * status until it is done parking.
+         */
+        boolean isWaitingInVirtualTime(Participant t) {
+            return t.virtualDeadline > virtualTime.nanoTime() && !t.thread.isInterrupted();
         }
 
         /**
@@ -767,19 +1794,36 @@ public final class Conductor {
          * another thread.
          */
         void withClockFrozen(Runnable fun) {
-            rwLock.readLock().lock();
+            Participant self = currentParticipant();
+            for (;;) {
+                int count = freezers.get();
+                if (count != Advancing && freezers.compareAndSet(count, count + 1))
+                    break;
+                // the clock thread is in the middle of an advance, which is only a few instructions
+                Thread.yield();
+            }
+            record(self, ScheduleLog.Kind.FROZEN);
+            emit(self, ConductorEvents.Frozen);
+            Object frozen = FlightEvents.clockFrozen();
             try {
                 fun.run();
             } finally {
-                rwLock.readLock().unlock();
+                record(self, ScheduleLog.Kind.UNFROZEN);
+                emit(self, ConductorEvents.Unfrozen);
+                FlightEvents.clockUnfrozen(frozen, Thread.currentThread().getName(), currentBeat());
+                if (freezers.decrementAndGet() == 0) {
+                    quiescenceEvents.incrementAndGet();
+                    wakeUpClock();
+                }
             }
+            point(self);
         }
 
         /**
          * Check if the clock has been frozen by any threads.
          */
         boolean isFrozen() {
-            return rwLock.getReadLockCount() > 0;
+            return freezers.get() > 0;
         }
     }
 
@@ -787,34 +1831,47 @@ public final class Conductor {
      * The clock thread is the manager of the multi-threaded scenario.
      * Periodically checks all the test threads and regulates them.
      * If all the threads are blocked and at least one is waiting for a beat,
-     * the clock advances to the next beat and all waiting threads are notified.
+     * the clock advances to the next beat and the threads waiting for it are unparked.
+     * If all the threads are blocked and some are parked in virtual time, virtual time
+     * moves on to the earliest of them.
      * If none of the threads are waiting for a tick or in timed waiting,
      * a deadlock is detected. The clock thread times out if a thread is in runnable
      * or all are blocked and one is in timed waiting for longer than the runLimit.
      *
      * Algorithm in detail:
      *
-     * While there are threads alive
+     * While there are threads alive, counting the threads in each state once per tick
      *
      *    If there are threads RUNNING
      *
-     *       If they have been running too long
+     *       If they have been running too long (without using CPU time or blocking,
+     *       when measuring progress by CPU time)
      *
      *          stop the test with a timeout error
      *
      *    else if there are threads waiting for a beat
      *
-     *       advance the clock
+     *       advance the clock (to the lowest beat being waited for, if fast forwarding),
+     *       once every test thread is waiting for a beat, or the threads were seen
+     *       blocked twice with nothing happening in between, unless the clock is frozen
+     *
+     *    else if there are no threads in TIMED_WAITING, and threads parked in virtual time
      *
-     *    else if there are threads in TIMED_WAITING
+     *       move virtual time to the earliest time they are parked until, on the same
+     *       conditions as advancing the clock
      *
-     *       increment the deadlock counter
+     *    else if there are no threads in TIMED_WAITING
      *
-     *       if the deadlock counter has reached a threshold
+     *       if test threads are in a wait-for cycle
+     *
+     *          stop the test due to deadlock
+     *
+     *       if the threads have been like this for 50 clock periods
      *
      *          stop the test due to potential deadlock
      *
-     *    sleep clockPeriod ms
+     *    sleep clockPeriod ms (or the adaptive period), or until a test thread enters
+     *    waitForBeat or finishes
      *
      *
      * @param mainThread The main test thread. This thread will be waiting
@@ -847,10 +1904,46 @@ public final class Conductor {
         // used in detecting timeouts
         private long lastProgress = System.currentTimeMillis();
 
-        // used in detecting deadlocks
-        private int deadlockCount = 0;
+        // used in detecting deadlocks: when the threads were first seen stuck, or -1.
+        // It is a time rather than a number of ticks, as an adaptive clock doesn't tick
+        // at a steady rate.
+        private long stuckSince = -1;
         private int MaxDeadlockDetectionsBeforeDeadlock = 50;
 
+        // how many ticks in a row the threads have been seen stuck, for the listeners
+        private int suspicions = 0;
+
+        // The value of quiescenceEvents when the test threads were last seen blocked
+        // through their thread states, or -1 if they weren't. A thread that has just been
+        // unblocked may still report being blocked, so such an observation is only trusted
+        // once it has been repeated without any test thread doing anything in between.
+        private long quiescenceObservedAt = -1;
+
+        // how long to wait before repeating an observation of quiescence
+        private static final long MaxQuiescenceSettleNanos = 1000L * 1000L;
+
+        // created on the first idle tick, if ever
+        private DeadlockFinder deadlockFinder;
+
+        // created on the first running tick, if measuring progress by CPU time
+        private ThreadActivity activity;
+
+        // refilled on every tick, see takeSnapshot
+        private final ThreadStateSnapshot snapshot = new ThreadStateSnapshot();
+        private Thread[] groupThreads = new Thread[16];
+
+        // the state each test thread was counted in by the last snapshot, for the stats
+        private Thread.State[] threadStates = new Thread.State[16];
+        private int threadCount = 0;
+
+        // the adaptive clock period, and the value of quiescenceEvents it was chosen at
+        // (-1 after an advance, which counts as a change)
+        private long periodNanos = minClockPeriodNanos;
+        private long lastEvents = -1;
+
+        // how many times to yield, right after a change, before parking
+        private static final int SpinTries = 64;
+
         /**
          * Runs the steps described above.
          */
@@ -862,11 +1955,21 @@ public final class Conductor {
             // NEW after it has been instantiated, but run() hasn't been called yet.)
             // So this means there are threads that are RUNNABLE, BLOCKED, WAITING, or
             // TIMED_WAITING. (BLOCKED is waiting for a lock. WAITING is in the wait set.)
-            while (areAnyThreadsAlive(threadGroup)) {
+            for (;;) {
+                long events = quiescenceEvents.get();
+                takeSnapshot();
+                stats.tick(System.nanoTime(), threadStates, threadCount, snapshot.areAnyThreadsRunning());
+                if (!snapshot.areAnyThreadsAlive())
+                    break;
+
                 if (!firstExceptionThrown.isEmpty()) {
                     // If any exception has been thrown, stop any live test thread.
-                    for (Thread t : getThreads(threadGroup)) {
-                        if (t.isAlive())
+                    for (TestParticipant p : threads) {
+                        if (!p.finished)
+                            p.stop();
+                    }
+                    for (Thread t : getThreads(scenarioGroup())) {
+                        if (!isTestThread(t) && t.isAlive())
                             t.stop();
                     }
                 }
@@ -875,33 +1978,254 @@ public final class Conductor {
                 // no progress for more than the timeout amount of time. If RUNNABLE threads
                 // exist, but the timeout limit has not been reached, then just go
                 // back to sleep.
-                else if (areAnyThreadsRunning(threadGroup)) {
+                else if (snapshot.areAnyThreadsRunning()) {
+                    quiescenceObservedAt = -1;
+                    stuckSince = -1;
+                    if (cpuTimeProgress && anyThreadActive())
+                        lastProgress = System.currentTimeMillis();
                     // TODO: Change to runningTooLong
                     if (System.currentTimeMillis() - lastProgress > 1000L * maxRunTime) timeout();
                 }
 
                 // No RUNNABLE threads, so if any threads are waiting for a beat, advance
                 // the beat.
-                else if (clock.isAnyThreadWaitingForABeat()) {
-                    clock.advance();
-                    deadlockCount = 0;
-                    lastProgress = System.currentTimeMillis();
+                else if (snapshot.waitingForBeat() > 0 || clock.isAnyThreadWaitingForABeat()) {
+                    // Waiting for a beat is tracked by the Conductor itself, so unlike a
+                    // thread state, it can't be out of date: if every thread is waiting
+                    // for a beat (or in virtual time), none of them will run again until
+                    // the clock advances. A park in virtual time ended by another thread
+                    // is only up to date because the waker marks it before unparking
+                    // (VirtualTime.unpark), or the waiter is seen to be interrupted, and
+                    // the snapshot only holds together if no thread did anything while
+                    // it was being taken.
+                    if (!quiescenceDriven || quiescenceObservedAt == events
+                            || allWaitingForTheConductor(events)) {
+                        // a frozen clock refuses to advance; unfreezing it wakes this thread up
+                        if (clock.advance()) {
+                            suspicions = 0;
+                            stuckSince = -1;
+                            lastEvents = -1;
+                            lastProgress = System.currentTimeMillis();
+                        }
+                        quiescenceObservedAt = -1;
+                    } else {
+                        quiescenceObservedAt = events;
+                    }
                 }
-                else if (!areAnyThreadsInTimedWaiting(threadGroup)) {
+                // No threads waiting for a beat, so if any are parked in virtual time, and
+                // none are waiting for some real time to pass, move virtual time forward.
+                // Moving it isn't progress as far as the timeout is concerned, so that a
+                // periodic task doesn't keep a stuck scenario going forever.
+                else if (!snapshot.areAnyThreadsInTimedWaiting()
+                        && virtualTime.nextDeadline() != Long.MAX_VALUE) {
+                    if (!quiescenceDriven || quiescenceObservedAt == events
+                            || allWaitingForTheConductor(events)) {
+                        if (clock.advanceVirtualTime()) {
+                            suspicions = 0;
+                            stuckSince = -1;
+                            lastEvents = -1;
+                        }
+                        quiescenceObservedAt = -1;
+                    } else {
+                        quiescenceObservedAt = events;
+                    }
+                    if (System.currentTimeMillis() - lastProgress > 1000L * maxRunTime) timeout();
+                }
+                else if (!snapshot.areAnyThreadsInTimedWaiting()) {
                     // At this point, no threads are RUNNABLE, None
-                    // are waiting for a beat, and none are in TimedWaiting.
+                    // are waiting for a beat or in virtual time, and none are in TimedWaiting.
                     // If this persists for MaxDeadlockDetectionsBeforeDeadlock,
                     // go ahead and abort.
                     detectDeadlock();
                 }
-                try {
-                    Thread.sleep(clockPeriod);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+                else {
+                    stuckSince = -1;
+                    suspicions = 0;
                 }
+                pause(events);
             }
         }
 
+        /**
+         * Returns true if the snapshot saw every thread waiting for a beat, or in
+         * virtual time, and no thread did anything while it was being taken, given
+         * the value of quiescenceEvents this tick started with.
+         */
+        private boolean allWaitingForTheConductor(long events) {
+            return snapshot.areAllThreadsWaitingForTheConductor() && quiescenceEvents.get() == events;
+        }
+
+        /**
+         * Returns true if some unfinished test thread has used CPU time, or blocked
+         * or waited, since the last time this was called. Every thread is read, so
+         * that the next call compares against what each thread has done by now.
+         */
+        private boolean anyThreadActive() {
+            if (activity == null)
+                activity = new ThreadActivity();
+            boolean active = false;
+            for (int i = 0, n = threads.size(); i < n; i++) {
+                TestParticipant t = threads.get(i);
+                if (t.finished)
+                    continue;
+                long cpuTime = activity.cpuTime(t.thread);
+                if (cpuTime != t.lastCpuTime) {
+                    active = active || t.lastCpuTime != -1;
+                    t.lastCpuTime = cpuTime;
+                }
+                long blockedAndWaited = activity.blockedAndWaited(t.thread);
+                if (blockedAndWaited != t.lastBlockedAndWaited) {
+                    active = active || t.lastBlockedAndWaited != -1;
+                    t.lastBlockedAndWaited = blockedAndWaited;
+                }
+            }
+            return active;
+        }
+
+        /**
+         * Counts the threads of the scenario by state, in one pass over the registered
+         * test threads. Test threads that have finished their function count as
+         * TERMINATED, even if they haven't quite died yet. Test threads that are still on
+         * their way past the green light, or that have been released from waitForBeat (or
+         * a park in virtual time) but haven't woken up yet, count as RUNNABLE, whatever
+         * their thread state says.
+         *
+         * Service threads only count while they run a task; while idle, they are only
+         * seen through the virtual time they are parked until, if any.
+         *
+         * Threads the subject starts from a test thread end up in the orchestra's
+         * thread group without being registered. The group is only enumerated, into
+         * a buffer that is kept from tick to tick, when it looks like there are some.
+         * Virtual test threads don't count in the group, nor do the threads they
+         * start, so then it stays empty.
+         */
+        private void takeSnapshot() {
+            snapshot.clear();
+            int unfinished = 0;
+            int n = threads.size();
+            if (threadStates.length < n)
+                threadStates = new Thread.State[Math.max(n, threadStates.length * 2)];
+            threadCount = n;
+            for (int i = 0; i < n; i++) {
+                TestParticipant t = threads.get(i);
+                if (t.finished) {
+                    snapshot.add(Thread.State.TERMINATED);
+                    threadStates[i] = Thread.State.TERMINATED;
+                    continue;
+                }
+                unfinished += 1;
+                threadStates[i] = addParticipant(t);
+            }
+            for (int i = 0, m = serviceThreads.size(); i < m; i++) {
+                ServiceParticipant t = serviceThreads.get(i);
+                if (!t.finished && !(t.idle && t.virtualDeadline == 0)
+                        && !(t.idle && clock.isWaitingInVirtualTime(t)))
+                    addParticipant(t);
+            }
+
+            // pooled threads stay alive, idle or running the test threads of other scenarios
+            TestThreadPool pool = threadPool;
+            if (pool == null ? threadGroup.activeCount() > unfinished
+                    : pool.group().activeCount() > pool.getPoolSize())
+                addUnregisteredThreads();
+        }
+
+        /**
+         * Counts the given thread in the snapshot, and returns the state it was
+         * counted in.
+         */
+        private Thread.State addParticipant(Participant t) {
+            if (clock.isWaitingForABeat(t)) {
+                snapshot.addWaitingForBeat();
+                return Thread.State.WAITING;
+            }
+            if (clock.isWaitingInVirtualTime(t)) {
+                snapshot.addWaitingInVirtualTime();
+                return Thread.State.WAITING;
+            }
+            Thread.State state = !t.pastGreenLight || t.beatWaitedFor != 0 || t.virtualDeadline != 0
+                    || t.slot != null && t.slot.isHeldBack()
+                    || t instanceof ServiceParticipant && ((ServiceParticipant)t).woken
+                    ? Thread.State.RUNNABLE : t.thread.getState();
+            snapshot.add(state);
+            return state;
+        }
+
+        private void addUnregisteredThreads() {
+            ThreadGroup group = scenarioGroup();
+            int count;
+            while ((count = group.enumerate(groupThreads, true)) == groupThreads.length)
+                groupThreads = new Thread[groupThreads.length * 2];
+            for (int i = 0; i < count; i++) {
+                Thread t = groupThreads[i];
+                groupThreads[i] = null;
+                if (!isTestThread(t))
+                    snapshot.add(t.getState());
+            }
+        }
+
+        /**
+         * Sleeps for a clock period. When the clock is quiescence driven, the sleep
+         * ends early if a test thread wakes the clock up, and it is shortened while an
+         * observation of quiescence is waiting to be confirmed.
+         *
+         * An adaptive clock goes back to its minimum period when quiescenceEvents has
+         * changed since the last tick, or the beat has advanced, and spins for a bit
+         * before parking. Otherwise it doubles its period, up to the maximum.
+         *
+         * @param events the value of quiescenceEvents this tick started with
+         */
+        private void pause(long events) {
+            if (minClockPeriodNanos == 0) {
+                long period = TimeUnit.MILLISECONDS.toNanos(clockPeriod);
+                if (!quiescenceDriven) {
+                    clockStatistics.recordPark(period);
+                    try {
+                        Thread.sleep(clockPeriod);
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    return;
+                }
+                park(period);
+                return;
+            }
+
+            if (events != lastEvents) {
+                lastEvents = events;
+                periodNanos = minClockPeriodNanos;
+                if (spin(events)) {
+                    clockStatistics.recordSpin();
+                    return;
+                }
+            } else if (periodNanos > maxClockPeriodNanos / 2) {
+                periodNanos = maxClockPeriodNanos;
+            } else {
+                periodNanos *= 2;
+            }
+            park(periodNanos);
+        }
+
+        /**
+         * Yields a few times, and returns true as soon as a test thread changes
+         * quiescenceEvents, or false if none did.
+         */
+        private boolean spin(long events) {
+            for (int i = 0; i < SpinTries; i++) {
+                if (quiescenceEvents.get() != events)
+                    return true;
+                Thread.yield();
+            }
+            return quiescenceEvents.get() != events;
+        }
+
+        private void park(long period) {
+            if (quiescenceObservedAt != -1)
+                period = Math.min(period, MaxQuiescenceSettleNanos);
+            clockStatistics.recordPark(period);
+            LockSupport.parkNanos(period);
+        }
+
         /**
          * Threads have been running too long (timeout) if
          * The number of seconds since the last progress are more
@@ -917,7 +2241,11 @@ public final class Conductor {
             // The mainThread is likely joined to some test thread, so wake it up. It will look and
             // notice that the firstExceptionThrown is no longer empty, and will stop all live test threads,
             // then rethrow the rirst exception thrown.
-            firstExceptionThrown.offer(new TimeoutError(errorMessage));
+            if (firstExceptionThrown.offer(new TimeoutError(errorMessage))) {
+                if (clockEvents != null)
+                    clockEvents.emit(ConductorEvents.TimedOut, 0);
+                FlightEvents.timeoutFired(clock.currentBeat());
+            }
             mainThread.interrupt();
         }
 
@@ -925,18 +2253,54 @@ public final class Conductor {
          * Determine if there is a deadlock and if so, stop the test.
          */
         private void detectDeadlock() {
-            // Should never get to >= before ==, but just playing it safe
-            if (deadlockCount >= MaxDeadlockDetectionsBeforeDeadlock) {
+            suspicions += 1;
+            if (clockEvents != null)
+                clockEvents.emit(ConductorEvents.DeadlockSuspected, suspicions);
+            // a recording only hears of the first tick the threads are stuck, and of
+            // the report, rather than of every tick in between
+            if (suspicions == 1)
+                FlightEvents.deadlockSuspected(suspicions, clock.currentBeat());
+            if (deadlockCycleDetection) {
+                if (deadlockFinder == null)
+                    deadlockFinder = new DeadlockFinder();
+                String cycle = deadlockFinder.findDeadlock(unfinishedThreads());
+                if (cycle != null) {
+                    suspectDeadlock("deadlockDetected\n" + cycle);
+                    return;
+                }
+            }
+
+            long now = System.currentTimeMillis();
+            if (stuckSince == -1)
+                stuckSince = now;
+            else if (now - stuckSince >= (long)clockPeriod * MaxDeadlockDetectionsBeforeDeadlock) {
                 // val errorMessage = "Apparent Deadlock! Threads waiting 50 clock periods (" + (clockPeriod * 50) + "ms)"
                 String errorMessage = "suspectedDeadlock"; // Resources("suspectedDeadlock", MaxDeadlockDetectionsBeforeDeadlock.toString, (clockPeriod * MaxDeadlockDetectionsBeforeDeadlock).toString)
-                firstExceptionThrown.offer(new DeadlockSuspectedError(errorMessage));
+                if (deadlockFinder == null)
+                    deadlockFinder = new DeadlockFinder();
+                suspectDeadlock(errorMessage + ": no thread has been running or waiting for a beat for "
+                        + (clockPeriod * MaxDeadlockDetectionsBeforeDeadlock) + "ms\n"
+                        + deadlockFinder.describe(unfinishedThreads()));
+            }
+        }
+
+        private void suspectDeadlock(String errorMessage) {
+            if (firstExceptionThrown.offer(new DeadlockSuspectedError(errorMessage)) && suspicions > 1)
+                FlightEvents.deadlockSuspected(suspicions, clock.currentBeat());
+
+            // The mainThread is likely joined to some test thread, so wake it up. It will look and
+            // notice that the firstExceptionThrown is no longer empty, and will stop all live test threads,
+            // then rethrow the rirst exception thrown.
+            mainThread.interrupt();
+        }
 
-                // The mainThread is likely joined to some test thread, so wake it up. It will look and
-                // notice that the firstExceptionThrown is no longer empty, and will stop all live test threads,
-                // then rethrow the rirst exception thrown.
-                mainThread.interrupt();
+        private List<Thread> unfinishedThreads() {
+            List<Thread> unfinished = new ArrayList<Thread>();
+            for (TestParticipant t : threads) {
+                if (!t.finished)
+                    unfinished.add(t.thread);
             }
-            else deadlockCount += 1;
+            return unfinished;
         }
     }
 
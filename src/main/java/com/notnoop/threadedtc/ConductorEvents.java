@@ -0,0 +1,187 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.notnoop.threadedtc.internal.EventRing;
+
+/*
+ * Delivers the events of a scenario to its listeners. Each thread taking part emits
+ * its events into a ring of its own, and a delivery thread drains the rings, oldest
+ * event first, and calls the listeners. A thread finding its ring full wakes the
+ * delivery thread up and yields until there is room again, rather than lose events.
+ */
+final class ConductorEvents {
+    static final int Registered = 0;
+    static final int Started = 1;
+    static final int Finished = 2;
+    static final int BeatAdvanced = 3;
+    static final int Frozen = 4;
+    static final int Unfrozen = 5;
+    static final int DeadlockSuspected = 6;
+    static final int TimedOut = 7;
+
+    private static final int RingCapacity = 1024;
+    private static final long DeliveryPeriodNanos = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final CopyOnWriteArrayList<ConductorListener> listeners = new CopyOnWriteArrayList<ConductorListener>();
+    private final CopyOnWriteArrayList<Source> sources = new CopyOnWriteArrayList<Source>();
+
+    private volatile Thread deliverer;
+    private volatile boolean stopping = false;
+    private volatile Throwable failure;
+
+    /*
+     * Where one thread emits its events.
+     */
+    final class Source {
+        final String thread;
+        private final EventRing ring = new EventRing(RingCapacity);
+
+        Source(String thread) {
+            this.thread = thread;
+        }
+
+        /**
+         * Emits an event. Only called by one thread at a time, in turn.
+         */
+        void emit(int kind, int value) {
+            long time = System.nanoTime();
+            while (!ring.offer(kind, value, time)) {
+                Thread t = deliverer;
+                if (t != null)
+                    LockSupport.unpark(t);
+                Thread.yield();
+            }
+        }
+    }
+
+    void addListener(ConductorListener listener) {
+        listeners.add(listener);
+    }
+
+    boolean hasListeners() {
+        return !listeners.isEmpty();
+    }
+
+    /**
+     * Returns a new source for the given thread to emit its events into.
+     */
+    Source source(String thread) {
+        Source source = new Source(thread);
+        sources.add(source);
+        return source;
+    }
+
+    /**
+     * Starts delivering events, once the scenario is about to start.
+     */
+    void start() {
+        Thread t = new Thread("Conductor-Listeners") {
+            @Override
+            public void run() {
+                while (!stopping) {
+                    deliver();
+                    LockSupport.parkNanos(this, DeliveryPeriodNanos);
+                }
+                deliver();
+            }
+        };
+        t.setDaemon(true);
+        deliverer = t;
+        t.start();
+    }
+
+    /**
+     * Delivers the events left, once every thread that emits them is done, and
+     * returns the first failure of a listener, if any.
+     */
+    Throwable stop() {
+        Thread t = deliverer;
+        if (t == null)
+            return null;
+        stopping = true;
+        LockSupport.unpark(t);
+        boolean interrupted = false;
+        for (;;) {
+            try {
+                t.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        return failure;
+    }
+
+    /**
+     * Delivers the events in the rings, oldest first, until they are empty.
+     */
+    private void deliver() {
+        for (;;) {
+            Source oldest = null;
+            for (Source source : sources) {
+                if (!source.ring.isEmpty()
+                        && (oldest == null || source.ring.peekTime() - oldest.ring.peekTime() < 0))
+                    oldest = source;
+            }
+            if (oldest == null)
+                return;
+            EventRing ring = oldest.ring;
+            for (ConductorListener listener : listeners)
+                deliver(listener, oldest.thread, ring.peekKind(), ring.peekValue(), ring.peekTime());
+            ring.remove();
+        }
+    }
+
+    private void deliver(ConductorListener listener, String thread, int kind, int value, long time) {
+        try {
+            switch (kind) {
+            case Registered:
+                listener.threadRegistered(thread, time);
+                break;
+            case Started:
+                listener.threadStarted(thread, time);
+                break;
+            case Finished:
+                listener.threadFinished(thread, time);
+                break;
+            case BeatAdvanced:
+                listener.beatAdvanced(value, time);
+                break;
+            case Frozen:
+                listener.clockFrozen(thread, time);
+                break;
+            case Unfrozen:
+                listener.clockUnfrozen(thread, time);
+                break;
+            case DeadlockSuspected:
+                listener.deadlockSuspected(value, time);
+                break;
+            default:
+                listener.timedOut(time);
+            }
+        } catch (Throwable t) {
+            if (failure == null)
+                failure = t;
+        }
+    }
+}
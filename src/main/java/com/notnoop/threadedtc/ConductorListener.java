@@ -0,0 +1,89 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc;
+
+/**
+ * Hears about what a <code>Conductor</code> does, see
+ * <code>Conductor.addListener</code>. The methods do nothing, to be overridden as
+ * needed.
+ *
+ * <p>
+ * The threads taking part record their events in buffers of their own, and a
+ * delivery thread of the conductor calls the listeners, so listeners don't slow the
+ * threads down, nor take part in their synchronization. The events of one thread
+ * are heard in the order it had them, and those of different threads in the order
+ * of their times, as far as the delivery thread can tell; by the time
+ * <code>conduct</code> returns, all of them have been heard. Each event comes with
+ * the <code>System.nanoTime</code> it happened at.
+ * </p>
+ *
+ * <p>
+ * The methods are all called on the delivery thread. If one throws, the scenario
+ * fails with what it threw, unless it failed already.
+ * </p>
+ */
+public abstract class ConductorListener {
+    /**
+     * A test thread was created, before it started.
+     */
+    public void threadRegistered(String thread, long nanoTime) {
+    }
+
+    /**
+     * A test thread got the green light, and is about to run its function.
+     */
+    public void threadStarted(String thread, long nanoTime) {
+    }
+
+    /**
+     * A test thread returned from its function, or threw.
+     */
+    public void threadFinished(String thread, long nanoTime) {
+    }
+
+    /**
+     * The clock advanced to the given beat.
+     */
+    public void beatAdvanced(int beat, long nanoTime) {
+    }
+
+    /**
+     * A test thread froze the clock, see <code>Conductor.withConductorFrozen</code>.
+     */
+    public void clockFrozen(String thread, long nanoTime) {
+    }
+
+    /**
+     * A test thread unfroze the clock.
+     */
+    public void clockUnfrozen(String thread, long nanoTime) {
+    }
+
+    /**
+     * The clock found the test threads stuck, neither running nor waiting for a
+     * beat or for some time to pass, for the given number of ticks in a row. Once
+     * they have been for long enough, see <code>Conductor.conduct</code>, or are
+     * found in a cycle, the scenario fails with a <code>DeadlockSuspectedError</code>.
+     */
+    public void deadlockSuspected(int suspicions, long nanoTime) {
+    }
+
+    /**
+     * The scenario timed out, and fails with a <code>TimeoutError</code>.
+     */
+    public void timedOut(long nanoTime) {
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How each beat of a scenario went: how long it lasted, how much of it every test
+ * thread spent running, blocked on a monitor, or waiting, and how many checks it
+ * took the clock thread to see that the test threads had gone quiet.
+ *
+ * <p>
+ * The clock thread samples the state of the test threads on every check, and
+ * charges the time since the previous check to the state each thread is seen in,
+ * so times are only as fine as the clock period. Waiting for a beat, or in virtual
+ * time, counts as waiting, as does <code>TIMED_WAITING</code>. A beat whose threads
+ * spend most of it blocked is contention bound.
+ * </p>
+ *
+ * <p>
+ * The statistics are complete once <code>conduct</code> has returned, which returns
+ * them; the last beat is the one the scenario ended in.
+ * </p>
+ *
+ * @see Conductor#getStats()
+ */
+public final class ConductorStats {
+    private final List<String> threads;
+    // guarded by this
+    private final List<Beat> beats = new ArrayList<Beat>();
+    private Beat current;
+    private long lastTickNanos;
+    private boolean finished = false;
+
+    /**
+     * Creates statistics on the test threads of the given names, indexed as they are
+     * registered.
+     */
+    ConductorStats(List<String> threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Starts the first beat, as the clock starts.
+     */
+    synchronized void start(int beat, long nanoTime) {
+        current = new Beat(beat, nanoTime);
+        lastTickNanos = nanoTime;
+    }
+
+    /**
+     * Records a check of the clock thread, which saw the first <code>count</code>
+     * test threads in the given states, or <code>TERMINATED</code> for those that had
+     * finished, and any thread running or not.
+     */
+    synchronized void tick(long nanoTime, Thread.State[] states, int count, boolean running) {
+        Beat beat = current;
+        if (finished || beat == null)
+            return;
+        long elapsed = nanoTime - lastTickNanos;
+        lastTickNanos = nanoTime;
+        beat.ticks += 1;
+        beat.quietTicks = running ? 0 : beat.quietTicks + 1;
+        beat.ensure(count);
+        for (int i = 0; i < count; i++) {
+            switch (states[i]) {
+            case RUNNABLE:
+                beat.runnable[i] += elapsed;
+                break;
+            case BLOCKED:
+                beat.blocked[i] += elapsed;
+                break;
+            case WAITING:
+            case TIMED_WAITING:
+                beat.waiting[i] += elapsed;
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    /**
+     * Ends the current beat, as the clock advanced to the given one.
+     */
+    synchronized void advanced(int beat, long nanoTime) {
+        if (finished || current == null)
+            return;
+        current.end(nanoTime, current.quietTicks);
+        beats.add(current);
+        current = new Beat(beat, nanoTime);
+    }
+
+    /**
+     * Ends the last beat, as the test threads have finished. The clock thread may
+     * still check them once more, which is then ignored.
+     */
+    synchronized void finish(long nanoTime) {
+        if (finished || current == null)
+            return;
+        finished = true;
+        // it ended with the threads rather than quiescence
+        current.end(nanoTime, 0);
+        beats.add(current);
+        current = null;
+    }
+
+    /**
+     * The beats of the scenario, in order. A beat the clock skipped, fast forwarding
+     * to the next one a thread waits for, isn't in the list.
+     */
+    public synchronized List<Beat> getBeats() {
+        return Collections.unmodifiableList(new ArrayList<Beat>(beats));
+    }
+
+    /**
+     * The given beat.
+     *
+     * @throws IllegalArgumentException if the scenario didn't go through it
+     */
+    public synchronized Beat getBeat(int beat) {
+        for (Beat b : beats) {
+            if (b.beat == beat)
+                return b;
+        }
+        throw new IllegalArgumentException("noSuchBeat: " + beat);
+    }
+
+    /**
+     * The names of the test threads, in the order they were created.
+     */
+    public List<String> getThreads() {
+        return Collections.unmodifiableList(new ArrayList<String>(threads));
+    }
+
+    /**
+     * The beat whose threads spent the most time blocked on monitors, altogether,
+     * or null if there were no beats.
+     */
+    public synchronized Beat getMostBlockedBeat() {
+        Beat most = null;
+        for (Beat b : beats) {
+            if (most == null || b.total(b.blocked) > most.total(most.blocked))
+                most = b;
+        }
+        return most;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Beat b : beats)
+            sb.append("  ").append(b).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * How a beat went.
+     */
+    public final class Beat {
+        private final int beat;
+        private final long startNanos;
+        private long durationNanos;
+        private int ticks;
+        private int quiescenceTicks;
+        // the checks in a row, up to the last, that saw no thread running
+        private int quietTicks;
+        // by the index of the thread
+        private long[] runnable = new long[0];
+        private long[] blocked = new long[0];
+        private long[] waiting = new long[0];
+
+        private Beat(int beat, long startNanos) {
+            this.beat = beat;
+            this.startNanos = startNanos;
+        }
+
+        private void ensure(int count) {
+            if (runnable.length < count) {
+                runnable = Arrays.copyOf(runnable, count);
+                blocked = Arrays.copyOf(blocked, count);
+                waiting = Arrays.copyOf(waiting, count);
+            }
+        }
+
+        private void end(long nanoTime, int quiescenceTicks) {
+            this.durationNanos = nanoTime - startNanos;
+            this.quiescenceTicks = quiescenceTicks;
+        }
+
+        private long time(long[] times, String thread) {
+            int index = threads.indexOf(thread);
+            if (index == -1)
+                throw new IllegalArgumentException("noSuchThread: " + thread);
+            return index < times.length ? times[index] : 0;
+        }
+
+        private long total(long[] times) {
+            long total = 0;
+            for (long time : times)
+                total += time;
+            return total;
+        }
+
+        /**
+         * The number of the beat.
+         */
+        public int getBeat() {
+            return beat;
+        }
+
+        /**
+         * How long the beat lasted, from the advance that started it, or the start of
+         * the clock, to the advance that ended it, or the end of the scenario.
+         */
+        public long getDuration(TimeUnit unit) {
+            return unit.convert(durationNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * The number of times the clock thread checked the test threads during the beat.
+         */
+        public int getTicks() {
+            return ticks;
+        }
+
+        /**
+         * The number of checks in a row, up to the advance that ended the beat, that saw
+         * no thread running: how long it took to tell the threads had gone quiet. It is
+         * 0 for the beat the scenario ended in.
+         */
+        public int getQuiescenceTicks() {
+            return quiescenceTicks;
+        }
+
+        /**
+         * The time the given test thread was seen <code>RUNNABLE</code> during the beat.
+         *
+         * @throws IllegalArgumentException if there is no test thread of that name
+         */
+        public long getRunnableTime(String thread, TimeUnit unit) {
+            return unit.convert(time(runnable, thread), TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * The time the given test thread was seen <code>BLOCKED</code> on a monitor
+         * during the beat.
+         *
+         * @throws IllegalArgumentException if there is no test thread of that name
+         */
+        public long getBlockedTime(String thread, TimeUnit unit) {
+            return unit.convert(time(blocked, thread), TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * The time the given test thread was seen waiting, for a beat, in virtual time,
+         * or otherwise, during the beat.
+         *
+         * @throws IllegalArgumentException if there is no test thread of that name
+         */
+        public long getWaitingTime(String thread, TimeUnit unit) {
+            return unit.convert(time(waiting, thread), TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * The time all the test threads together were seen <code>RUNNABLE</code> during the beat.
+         */
+        public long getRunnableTime(TimeUnit unit) {
+            return unit.convert(total(runnable), TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * The time all the test threads together were seen <code>BLOCKED</code> during the beat.
+         */
+        public long getBlockedTime(TimeUnit unit) {
+            return unit.convert(total(blocked), TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * The time all the test threads together were seen waiting during the beat.
+         */
+        public long getWaitingTime(TimeUnit unit) {
+            return unit.convert(total(waiting), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public String toString() {
+            return "beat " + beat + ": " + getDuration(TimeUnit.MICROSECONDS) + "us, "
+                + ticks + " ticks, quiescent after " + quiescenceTicks
+                + ", runnable=" + getRunnableTime(TimeUnit.MICROSECONDS) + "us"
+                + ", blocked=" + getBlockedTime(TimeUnit.MICROSECONDS) + "us"
+                + ", waiting=" + getWaitingTime(TimeUnit.MICROSECONDS) + "us";
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc;
+
+import java.lang.annotation.*;
+
+/**
+ * Makes <code>TCRunner</code> run the scenario of the annotated <code>@Test</code>
+ * method in every interleaving of its test threads, up to a number of preemptions,
+ * rather than in whichever one the OS happens to schedule, and fail with the first
+ * schedule that fails.
+ *
+ * <p>
+ * The test threads run one at a time, and only switch at scheduling points: as they
+ * start, as they return from <code>waitForBeat</code>, as they leave
+ * <code>withConductorFrozen</code>, and, with the <code>SchedulingAgent</code>
+ * installed, before the field accesses, monitor operations and lock calls of the
+ * subject. A thread that blocks in between gives up its turn. Each run follows a
+ * schedule tried before up to some point, and takes a different turn there; after
+ * that, the thread that ran last goes on, if it can. A switch away from a thread that
+ * could have gone on is a preemption. Most bugs only take one or two.
+ * </p>
+ *
+ * <p>
+ * Schedules that only differ by the order of independent accesses (to different
+ * fields or objects, or reads of the same one) end up in the same state, which is
+ * only explored once. The points of the <code>Conductor</code> depend on everything.
+ * Runs are spread over <code>parallelism</code> threads, each running the whole method
+ * block, test instance, befores and afters included, as parallel repetitions do (see
+ * <code>MultiThreadedTest.parallelism</code>), in class loaders of their own if the
+ * test is <code>isolated</code>.
+ * </p>
+ *
+ * <p>
+ * A failure is reported in an <code>InterleavingFailureError</code>, along with the
+ * schedule that failed and how far the exploration got. Threads the subject starts, and the threads of virtual time
+ * executors, aren't scheduled, so scenarios using them may not behave the same when
+ * the same schedule is run again, which is reported at the end.
+ * </p>
+ *
+ * @see Schedule
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Explore {
+    /**
+     * The most preemptions a schedule may have.
+     */
+    int preemptionBound() default 2;
+
+    /**
+     * The most schedules to run, after which the exploration stops, and passes.
+     */
+    int maxSchedules() default 10000;
+
+    /**
+     * The number of threads running schedules, or 0 for one per processor.
+     */
+    int parallelism() default 0;
+
+    /**
+     * Whether to print how many schedules were explored, and how many pruned, once
+     * the exploration passes. A failing one reports them along with the schedule
+     * that failed either way.
+     */
+    boolean verbose() default false;
+}
@@ -22,4 +22,131 @@ import java.lang.annotation.*;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface MultiThreadedTest {
     int times() default 1;
+
+    /**
+     * Whether test threads that keep using CPU time, or blocking and waiting, count
+     * as making progress, so that a long computation doesn't time out.
+     *
+     * @see Conductor#setCpuTimeProgress(boolean)
+     */
+    boolean cpuTimeProgress() default false;
+
+    /**
+     * Whether the test threads run on the threads of a shared pool, reused from
+     * one repetition, and one test, to the next, rather than on threads of their own.
+     *
+     * @see Conductor#setThreadPool(TestThreadPool)
+     */
+    boolean pooledThreads() default false;
+
+    /**
+     * Whether the test threads run on virtual threads, which needs a Java 21 JVM.
+     *
+     * @see Conductor#setVirtualThreads(boolean)
+     */
+    boolean virtualThreads() default false;
+
+    /**
+     * How many repetitions may run at the same time. Above 1, each repetition runs on
+     * an instance of the test class of its own, created and set up as for any test,
+     * with a <code>Conductor</code> of its own. The <code>@Test</code> method is
+     * evaluated once, after all of them, on the instance of the last one, which is
+     * torn down after it. No new repetitions are started once one has failed, and
+     * the failures of those that did run are all reported, rather than evaluating
+     * the <code>@Test</code> method.
+     *
+     * <p>
+     * At 1, the default, the repetitions run one after the other on the same instance,
+     * and the <code>@Test</code> method is evaluated once, after the last one.
+     * </p>
+     *
+     * <p>
+     * Either way, the <code>@Test</code> method sees the conductor of the last
+     * repetition, and how every repetition went through
+     * <code>RunnerConductor.getRepetitionStats</code>. What the repetitions did to
+     * the fields of their instances only adds up on the one instance at 1, though;
+     * in parallel, the <code>@Test</code> method sees that of the last one. The same
+     * goes for stressed repetitions, which run in parallel unless this is set.
+     * </p>
+     */
+    int parallelism() default 1;
+
+    /**
+     * Whether repetitions running in parallel each load the test class, and the
+     * classes of <code>isolatedPackages</code>, in a class loader of their own, so
+     * that they don't share the static state of the subject. The loaders are kept
+     * once the test class has been loaded and set up in them, and reused from one
+     * repetition, and one test of the class, to the next, until all of them have run;
+     * a repetition only has a loader to itself while it runs, so static state still
+     * carries over to the repetitions that reuse it, as it does to the repetitions
+     * run one after the other.
+     *
+     * <p>
+     * Only has an effect with a <code>parallelism</code> above 1. The JDK, JUnit and
+     * this library are never loaded again.
+     * </p>
+     */
+    boolean isolated() default false;
+
+    /**
+     * The packages, subpackages included, whose classes are loaded again for every
+     * <code>isolated</code> repetition, along with the test class and its nested classes.
+     */
+    String[] isolatedPackages() default {};
+
+    /**
+     * Whether the test threads inject seeded noise into their schedules, so that
+     * the repetitions go through more interleavings, see
+     * <code>Conductor.setStressSeed</code>. Repetition <em>i</em> is given the seed
+     * <code>seed + i</code>. Stressed repetitions run in parallel, on as many threads
+     * as there are processors unless <code>parallelism</code> says otherwise, and
+     * each failure is reported with the seed of its repetition, in a
+     * <code>StressFailureError</code>. Their schedules are recorded, and the log of a
+     * failed one is written out, to be replayed, see <code>replay</code>.
+     *
+     * @see Conductor#setStressSeed(long)
+     */
+    boolean stress() default false;
+
+    /**
+     * The seed of the first stressed repetition, or 0 to draw one at random. Running
+     * a test with <code>times = 1</code> and the seed a failure was reported with
+     * injects the same noise again.
+     */
+    long seed() default 0;
+
+    /**
+     * For stressed repetitions, one in how many of the points the scheduling agent added to
+     * the subject inject noise, or 0 for none. Needs the agent to be installed.
+     *
+     * @see Conductor#setSubjectNoise(int)
+     */
+    int subjectNoise() default 0;
+
+    /**
+     * The file of a schedule log to replay, as written for a failed stressed
+     * repetition and reported in its <code>StressFailureError</code>, or empty for none.
+     * The test then runs once, with its test threads passing their scheduling points
+     * one at a time in the recorded order, and without noise.
+     *
+     * @see Conductor#setReplayedSchedule(ScheduleLog)
+     */
+    String replay() default "";
+
+    /**
+     * Whether to shrink the schedule of <code>replay</code> rather than only replay
+     * it: variants of it are replayed, in parallel, on as many threads as there are
+     * processors unless <code>parallelism</code> says otherwise, until the simplest
+     * one that still fails is found, with the fewest preemptions, switches between
+     * threads and turns. It is reported in an <code>InterleavingFailureError</code>,
+     * along with a timeline of its threads.
+     */
+    boolean shrink() default false;
+
+    /**
+     * Whether to print what shrinking the schedule of <code>replay</code> came to, with
+     * a timeline of its threads, once it is over. The failure of the smallest failing
+     * schedule has them in its message either way.
+     */
+    boolean verbose() default false;
 }
@@ -15,66 +15,215 @@
  */
 package com.notnoop.threadedtc;
 
+import java.util.Collections;
+import java.util.List;
+
+import com.notnoop.threadedtc.exceptions.NotAllowedException;
+
+/**
+ * The <code>Conductor</code> of the scenario <code>TCRunner</code> is running,
+ * for the <code>@Threaded</code> methods and the <code>@Test</code> method to use.
+ *
+ * <p>
+ * Each scenario has a <code>Conductor</code> of its own, which every method of
+ * this class looks up from the calling thread: the thread running the test, its
+ * test threads, and the threads they start, are bound to the conductor of their
+ * scenario. Tests of different classes, or different methods of a class, may
+ * therefore run at the same time, e.g. with JUnit's <code>ParallelComputer</code>.
+ * Pooled test threads, see <code>TestThreadPool</code>, are bound to each scenario
+ * they run for, and unbound once it is over.
+ * </p>
+ */
 public class RunnerConductor {
-    static Conductor conductor;
+    // the conductor the current thread takes part in, handed down to the threads it starts
+    private static final InheritableThreadLocal<Conductor> bound = new InheritableThreadLocal<Conductor>();
+
+    // what the @Benchmark of the test being evaluated measured, if it has one
+    private static final ThreadLocal<BenchmarkResult> benchmarkResult = new ThreadLocal<BenchmarkResult>();
+
+    // what the @ScalingSweep of the test being evaluated measured, if it has one
+    private static final ThreadLocal<ScalingReport> scalingReport = new ThreadLocal<ScalingReport>();
+
+    // how each repetition of the test being evaluated went, in order
+    private static final ThreadLocal<List<ConductorStats>> repetitionStats = new ThreadLocal<List<ConductorStats>>();
+
+    /**
+     * Returns the conductor of the scenario the current thread takes part in.
+     *
+     * @throws NotAllowedException if the current thread doesn't take part in one
+     */
+    public static Conductor current() {
+        Conductor conductor = bound.get();
+        if (conductor == null)
+            throw new NotAllowedException("noConductorForThisThread");
+        return conductor;
+    }
+
+    /**
+     * Binds the current thread, and the threads it starts from now on, to the given
+     * conductor, or to none if it is null.
+     *
+     * @return the conductor the current thread was bound to before
+     */
+    static Conductor bind(Conductor conductor) {
+        Conductor previous = bound.get();
+        if (conductor == null)
+            bound.remove();
+        else
+            bound.set(conductor);
+        return previous;
+    }
+
+    /**
+     * Returns the throughput the <code>@Benchmark</code> of the current test measured,
+     * for the <code>@Test</code> method to check.
+     *
+     * @throws NotAllowedException if the current thread isn't evaluating a benchmark
+     */
+    public static BenchmarkResult getBenchmarkResult() {
+        BenchmarkResult result = benchmarkResult.get();
+        if (result == null)
+            throw new NotAllowedException("noBenchmarkResultForThisThread");
+        return result;
+    }
 
-    public static Thread thread(Runnable fun) { 
-        return conductor.thread(fun);
+    /**
+     * Sets the result <code>getBenchmarkResult</code> returns on the current thread,
+     * or clears it if it is null, and returns the one it replaces.
+     */
+    static BenchmarkResult bindBenchmarkResult(BenchmarkResult result) {
+        BenchmarkResult previous = benchmarkResult.get();
+        if (result == null)
+            benchmarkResult.remove();
+        else
+            benchmarkResult.set(result);
+        return previous;
     }
 
-    public static Thread thread(TCRunnable fun) { 
-        return conductor.thread(fun);
+    /**
+     * Returns what the <code>@ScalingSweep</code> of the current test measured at each
+     * thread count, for the <code>@Test</code> method to check.
+     *
+     * @throws NotAllowedException if the current thread isn't evaluating a sweep
+     */
+    public static ScalingReport getScalingReport() {
+        ScalingReport report = scalingReport.get();
+        if (report == null)
+            throw new NotAllowedException("noScalingReportForThisThread");
+        return report;
+    }
+
+    /**
+     * Sets the report <code>getScalingReport</code> returns on the current thread,
+     * or clears it if it is null, and returns the one it replaces.
+     */
+    static ScalingReport bindScalingReport(ScalingReport report) {
+        ScalingReport previous = scalingReport.get();
+        if (report == null)
+            scalingReport.remove();
+        else
+            scalingReport.set(report);
+        return previous;
+    }
+
+    /**
+     * Returns how each repetition of the current test went, in order, for the
+     * <code>@Test</code> method to check what they did together, however many ran
+     * at the same time, see <code>MultiThreadedTest.parallelism</code>.
+     *
+     * @throws NotAllowedException if the current thread isn't evaluating a scenario
+     */
+    public static List<ConductorStats> getRepetitionStats() {
+        List<ConductorStats> stats = repetitionStats.get();
+        if (stats == null)
+            throw new NotAllowedException("noRepetitionsForThisThread");
+        return stats;
+    }
+
+    /**
+     * Sets the stats <code>getRepetitionStats</code> returns on the current thread,
+     * or clears them if they are null, and returns the ones they replace.
+     */
+    static List<ConductorStats> bindRepetitionStats(List<ConductorStats> stats) {
+        List<ConductorStats> previous = repetitionStats.get();
+        if (stats == null)
+            repetitionStats.remove();
+        else
+            repetitionStats.set(Collections.unmodifiableList(stats));
+        return previous;
+    }
+
+    public static Thread thread(Runnable fun) {
+        return current().thread(fun);
+    }
+
+    public static Thread thread(TCRunnable fun) {
+        return current().thread(fun);
     }
 
     public static Thread thread(String name, Runnable fun) {
-        return conductor.thread(name, fun);
+        return current().thread(name, fun);
     }
 
     public static Thread thread(String name, TCRunnable fun) {
-        return conductor.thread(name, fun);
+        return current().thread(name, fun);
     }
 
     public static void whenFinished(Runnable fun) {
-        conductor.whenFinished(fun);
+        current().whenFinished(fun);
     }
 
     public static void whenFinished(TCRunnable fun) {
-        conductor.whenFinished(fun);
+        current().whenFinished(fun);
     }
 
     public static void waitForBeat(int beat) {
-        conductor.waitForBeat(beat);
+        current().waitForBeat(beat);
     }
 
     public static int beat() {
-        return conductor.beat();
+        return current().beat();
     }
 
     public static void withConductorFrozen(Runnable fun) {
-        conductor.withConductorFrozen(fun);
+        current().withConductorFrozen(fun);
     }
 
     public static void withConductorFrozen(TCRunnable fun) {
-        conductor.withConductorFrozen(fun);
+        current().withConductorFrozen(fun);
     }
 
     public static boolean isConductorFrozen() {
-        return conductor.isConductorFrozen();
+        return current().isConductorFrozen();
     }
 
-    public static void conduct() {
-        conductor.conduct();
+    public static ConductorStats conduct() {
+        return current().conduct();
     }
 
     public static boolean conductingHasBegun() {
-        return conductor.conductingHasBegun();
+        return current().conductingHasBegun();
+    }
+
+    public static ConductorStats conduct(int clockPeriod, int timeout) {
+        return current().conduct(clockPeriod, timeout);
     }
 
-    public static void conduct(int clockPeriod, int timeout) {
-        conductor.conduct(clockPeriod, timeout);
+    /**
+     * Returns how each beat of the scenario went, for the <code>@Test</code> method to
+     * check; after repetitions, the stats of the last one.
+     *
+     * @see Conductor#getStats()
+     */
+    public static ConductorStats getStats() {
+        return current().getStats();
     }
 
     public static Thread getThread(String name) {
-        return conductor.getThread(name);
+        return current().getThread(name);
+    }
+
+    public static VirtualTime getVirtualTime() {
+        return current().getVirtualTime();
     }
 }
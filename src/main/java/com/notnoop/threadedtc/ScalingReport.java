@@ -0,0 +1,139 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a <code>@ScalingSweep</code> measured at each thread count.
+ *
+ * @see ScalingSweep
+ */
+public final class ScalingReport {
+    private final String latencyOf;
+    private final List<Point> points = new ArrayList<Point>();
+
+    ScalingReport(String latencyOf) {
+        this.latencyOf = latencyOf;
+    }
+
+    void add(int threads, double throughput, long latencyNanos, double blockedFraction) {
+        double efficiency = 1;
+        if (!points.isEmpty()) {
+            Point base = points.get(0);
+            double basePerThread = base.throughput / base.threads;
+            efficiency = basePerThread == 0 ? 0 : throughput / threads / basePerThread;
+        }
+        points.add(new Point(threads, throughput, latencyNanos, blockedFraction, efficiency));
+    }
+
+    /**
+     * What was measured at each thread count, in the order the counts were run.
+     */
+    public List<Point> getPoints() {
+        return Collections.unmodifiableList(points);
+    }
+
+    /**
+     * What was measured with the given number of test threads.
+     *
+     * @throws IllegalArgumentException if the sweep didn't run that many
+     */
+    public Point getPoint(int threads) {
+        for (Point point : points) {
+            if (point.threads == threads)
+                return point;
+        }
+        throw new IllegalArgumentException("noSuchThreadCount: " + threads);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("%8s %15s %12s %9s %11s%n",
+                "threads", "ops/s", "us/" + latencyOf, "blocked", "efficiency"));
+        for (Point point : points) {
+            out.append(String.format("%8d %15.1f %12.3f %9s %10.1f%%%n",
+                    point.threads, point.throughput, point.latencyNanos / 1000.0,
+                    point.blockedFraction < 0 ? "n/a" : String.format("%.1f%%", point.blockedFraction * 100),
+                    point.efficiency * 100));
+        }
+        return out.toString();
+    }
+
+    /**
+     * What was measured with one number of test threads.
+     */
+    public static final class Point {
+        private final int threads;
+        private final double throughput;
+        private final long latencyNanos;
+        private final double blockedFraction;
+        private final double efficiency;
+
+        Point(int threads, double throughput, long latencyNanos, double blockedFraction, double efficiency) {
+            this.threads = threads;
+            this.throughput = throughput;
+            this.latencyNanos = latencyNanos;
+            this.blockedFraction = blockedFraction;
+            this.efficiency = efficiency;
+        }
+
+        /**
+         * The number of test threads, scaled or not.
+         */
+        public int getThreads() {
+            return threads;
+        }
+
+        /**
+         * The number of calls of the methods of all the test threads per second.
+         */
+        public double getThroughput() {
+            return throughput;
+        }
+
+        /**
+         * The average time from one beat to the next, or for a benchmark, the average
+         * time of a call. Beats are timed from the green light to the end of the
+         * scenario, leaving out the setting up of the threads.
+         */
+        public long getLatency(TimeUnit unit) {
+            return unit.convert(latencyNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * The share of their time the test threads spent blocked on monitors, or waiting
+         * on locks and conditions, from 0 to 1, or -1 if the JVM didn't measure it.
+         * Waiting for a beat, or in virtual time, doesn't count.
+         */
+        public double getBlockedFraction() {
+            return blockedFraction;
+        }
+
+        /**
+         * The throughput per thread, relative to that at the first thread count: 1 when
+         * the throughput grows in proportion to the number of threads, less when the
+         * threads get in each other's way.
+         */
+        public double getEfficiency() {
+            return efficiency;
+        }
+    }
+}
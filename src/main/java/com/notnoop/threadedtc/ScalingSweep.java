@@ -0,0 +1,53 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc;
+
+import java.lang.annotation.*;
+
+/**
+ * Makes <code>TCRunner</code> run the scenario of the annotated <code>@Test</code>
+ * method at a series of thread counts, and measure how it scales.
+ *
+ * <p>
+ * At each count, the <code>@Threaded</code> methods that are <code>scaled</code>, or
+ * all of them if none is, run in that many test threads. If the test method is also a
+ * <code>@Benchmark</code>, a benchmark is run at each count; otherwise the scenario is
+ * conducted <code>@MultiThreadedTest(times)</code> times, each call of a method counting
+ * as one operation, over the time from the green light to the end of each scenario.
+ * The throughput, the latency per beat (or per call, for a benchmark), the share of
+ * time the test threads spent blocked on monitors or waiting on locks, and the scaling
+ * efficiency at each count are printed, and can be read with
+ * <code>RunnerConductor.getScalingReport()</code> by the <code>@Test</code> method,
+ * e.g. to fail when the efficiency drops.
+ * </p>
+ *
+ * <p>
+ * Measuring blocked time turns on contention monitoring for the whole JVM while the
+ * sweep runs, and turns it off again afterwards unless it already was on.
+ * </p>
+ *
+ * @see ScalingReport
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ScalingSweep {
+    /**
+     * The thread counts to run the scenario at. By default: 1, 2, 4 and the other
+     * powers of two below the number of processors, and the number of processors.
+     */
+    int[] threads() default {};
+}
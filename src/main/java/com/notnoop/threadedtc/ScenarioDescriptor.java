@@ -0,0 +1,164 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.notnoop.threadedtc.exceptions.NotAllowedException;
+import com.notnoop.threadedtc.internal.RunnableUtils;
+
+/*
+ * The @Threaded methods of a test class, looked up once per class: the names of
+ * the test threads running them, and method handles calling them, which throw
+ * what the methods throw rather than an InvocationTargetException. The number of
+ * instances of a method may come from a system property, or a scaling sweep, so
+ * it is only resolved when the methods are bound to a test instance.
+ */
+final class ScenarioDescriptor {
+    private static final MethodType Body = MethodType.methodType(void.class, Object.class);
+    private static final MethodType IndexedBody = MethodType.methodType(void.class, Object.class, int.class);
+
+    private static final ClassValue<ScenarioDescriptor> descriptors = new ClassValue<ScenarioDescriptor>() {
+        @Override
+        protected ScenarioDescriptor computeValue(Class<?> type) {
+            return new ScenarioDescriptor(type);
+        }
+    };
+
+    private final List<ThreadedMethod> methods = new ArrayList<ThreadedMethod>();
+
+    // whether a sweep scales all the methods, as none is marked as scaled
+    private final boolean allScaled;
+
+    private ScenarioDescriptor(Class<?> clazz) {
+        boolean anyScaled = false;
+        for (Method method : clazz.getMethods()) {
+            Threaded threaded = method.getAnnotation(Threaded.class);
+            if (threaded != null) {
+                methods.add(new ThreadedMethod(method, threaded));
+                anyScaled = anyScaled || threaded.scaled();
+            }
+        }
+        this.allScaled = !anyScaled;
+    }
+
+    /**
+     * Returns the descriptor of the given test class.
+     */
+    static ScenarioDescriptor of(Class<?> clazz) {
+        return descriptors.get(clazz);
+    }
+
+    /**
+     * Returns the test threads running the @Threaded methods on the given test instance.
+     *
+     * @throws NotAllowedException if the number of instances of a method is invalid
+     */
+    Threads bind(Object target) {
+        return bind(target, 0);
+    }
+
+    /**
+     * Returns the test threads running the @Threaded methods on the given test instance,
+     * with the given number of instances of the scaled methods, if it is positive.
+     *
+     * @throws NotAllowedException if the number of instances of a method is invalid
+     */
+    Threads bind(Object target, int scaledInstances) {
+        List<String> names = new ArrayList<String>();
+        List<Runnable> bodies = new ArrayList<Runnable>();
+        for (ThreadedMethod method : methods) {
+            boolean scaled = scaledInstances > 0 && (allScaled || method.scaled);
+            int instances = scaled ? scaledInstances : method.instances();
+            MethodHandle body = method.body.bindTo(target);
+            for (int i = 0; i < instances; i++) {
+                names.add(instances == 1 ? method.name : method.name + "-" + i);
+                bodies.add(runnable(method.indexed ? MethodHandles.insertArguments(body, 0, i) : body));
+            }
+        }
+        return new Threads(names.toArray(new String[names.size()]),
+                bodies.toArray(new Runnable[bodies.size()]));
+    }
+
+    private static Runnable runnable(final MethodHandle body) {
+        return RunnableUtils.wrapRunnable(new TCRunnable() {
+            public void run() throws Throwable {
+                body.invokeExact();
+            }
+        });
+    }
+
+    /*
+     * The names of the test threads of a scenario, and the functions they run.
+     */
+    static final class Threads {
+        final String[] names;
+        final Runnable[] bodies;
+
+        Threads(String[] names, Runnable[] bodies) {
+            this.names = names;
+            this.bodies = bodies;
+        }
+    }
+
+    private static final class ThreadedMethod {
+        final String name;
+        final MethodHandle body;
+        final boolean indexed;
+        final boolean scaled;
+        private final int instances;
+        private final String instancesProperty;
+
+        ThreadedMethod(Method method, Threaded threaded) {
+            this.name = threaded.value().isEmpty() ? method.getName() : threaded.value();
+            this.instances = threaded.instances();
+            this.instancesProperty = threaded.instancesProperty();
+            this.scaled = threaded.scaled();
+
+            Class<?>[] parameters = method.getParameterTypes();
+            this.indexed = parameters.length == 1 && parameters[0] == int.class;
+            if (parameters.length != 0 && !indexed)
+                throw new NotAllowedException("threadedMethodsTakeNothingOrAnIndex: " + method.getName());
+            try {
+                // the class itself may not be public
+                method.setAccessible(true);
+                this.body = MethodHandles.lookup().unreflect(method).asType(indexed ? IndexedBody : Body);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        int instances() {
+            int count = instances;
+            String property = instancesProperty.isEmpty() ? null : System.getProperty(instancesProperty);
+            if (property != null) {
+                try {
+                    count = Integer.parseInt(property.trim());
+                } catch (NumberFormatException e) {
+                    throw new NotAllowedException("invalidNumberOfInstances: " + instancesProperty + "=" + property);
+                }
+            }
+            if (count < 1)
+                throw new NotAllowedException("invalidNumberOfInstances: " + name + " " + count);
+            return count;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The order test threads took turns in, in a scenario whose threads run one at a
+ * time: the name of the thread that ran at each scheduling point.
+ *
+ * <p>
+ * A schedule is written as the names of the threads, each followed by
+ * <code>*</code> and the number of turns in a row it took, if more than one, and
+ * separated by spaces, e.g. <code>producer*3 consumer producer*2</code>. Thread names
+ * with spaces or <code>*</code> in them can't be written that way.
+ * </p>
+ */
+public final class Schedule {
+    private final List<String> threads;
+
+    public Schedule(List<String> threads) {
+        this.threads = Collections.unmodifiableList(new ArrayList<String>(threads));
+    }
+
+    /**
+     * Reads a schedule written as <code>toString</code> writes it.
+     *
+     * @throws IllegalArgumentException if the schedule is malformed
+     */
+    public static Schedule parse(String schedule) {
+        List<String> threads = new ArrayList<String>();
+        for (String turns : schedule.trim().split("\\s+")) {
+            if (turns.isEmpty())
+                continue;
+            int star = turns.lastIndexOf('*');
+            String name = star == -1 ? turns : turns.substring(0, star);
+            int count = 1;
+            if (star != -1) {
+                try {
+                    count = Integer.parseInt(turns.substring(star + 1));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("malformedSchedule: " + turns);
+                }
+            }
+            if (name.isEmpty() || count < 1)
+                throw new IllegalArgumentException("malformedSchedule: " + turns);
+            for (int i = 0; i < count; i++)
+                threads.add(name);
+        }
+        return new Schedule(threads);
+    }
+
+    /**
+     * Returns the name of the thread that ran at each scheduling point.
+     */
+    public List<String> getThreads() {
+        return threads;
+    }
+
+    /**
+     * Returns the number of scheduling points.
+     */
+    public int size() {
+        return threads.size();
+    }
+
+    /**
+     * Returns the number of times the schedule switches from one thread to another.
+     */
+    public int getSwitches() {
+        int switches = 0;
+        for (int i = 1; i < threads.size(); i++) {
+            if (!threads.get(i).equals(threads.get(i - 1)))
+                switches++;
+        }
+        return switches;
+    }
+
+    /**
+     * Returns the schedule as a line per thread, in the order they first ran, with a
+     * column per turn that is <code>#</code> if the thread took it, e.g.
+     *
+     * <pre>
+     * producer ###...##
+     * consumer ...###..
+     * </pre>
+     */
+    public String toTimeline() {
+        List<String> names = new ArrayList<String>();
+        int width = 0;
+        for (String name : threads) {
+            if (!names.contains(name)) {
+                names.add(name);
+                width = Math.max(width, name.length());
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String name : names) {
+            sb.append(name);
+            for (int i = name.length(); i <= width; i++)
+                sb.append(' ');
+            for (String turn : threads)
+                sb.append(turn.equals(name) ? '#' : '.');
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Schedule && threads.equals(((Schedule)o).threads);
+    }
+
+    @Override
+    public int hashCode() {
+        return threads.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < threads.size(); ) {
+            String name = threads.get(i);
+            int j = i + 1;
+            while (j < threads.size() && threads.get(j).equals(name))
+                j++;
+            if (sb.length() > 0)
+                sb.append(' ');
+            sb.append(name);
+            if (j - i > 1)
+                sb.append('*').append(j - i);
+            i = j;
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import com.notnoop.threadedtc.exceptions.InterleavingFailureError;
+import com.notnoop.threadedtc.internal.SerialScheduler;
+import com.notnoop.threadedtc.internal.TraceHash;
+
+/*
+ * Explores the schedules of a scenario, depth first, up to a number of preemptions.
+ * Each run is given a prefix to follow, and then goes on as the scheduler sees fit;
+ * every turn it took after the prefix is then tried the other way, by a run of its
+ * own, unless that leads to a state some other run has already reached with as few
+ * preemptions. A state is the hash of the accesses so far, up to the order of the
+ * independent ones, along with the thread that made the last one.
+ *
+ * The prefixes left to run are shared by the threads running them, so the tree of
+ * schedules is split between them as they go.
+ */
+final class ScheduleExploration {
+    private static final long IdleNanos = TimeUnit.MICROSECONDS.toNanos(100);
+
+    // the scheduler of the run the current thread is making, for its TCStatement to pick up
+    private static final ThreadLocal<SerialScheduler> current = new ThreadLocal<SerialScheduler>();
+
+    /*
+     * Runs the scenario once, on the calling thread.
+     */
+    interface Execution {
+        void run() throws Throwable;
+    }
+
+    private final int preemptionBound;
+    private final int maxSchedules;
+    private final int parallelism;
+
+    private final ConcurrentLinkedDeque<int[]> prefixes = new ConcurrentLinkedDeque<int[]>();
+    // the prefixes queued or running
+    private final AtomicInteger pending = new AtomicInteger(0);
+    // the fewest preemptions each state was reached with
+    private final ConcurrentHashMap<Long, Integer> visited = new ConcurrentHashMap<Long, Integer>();
+    private final AtomicInteger runs = new AtomicInteger(0);
+    private final AtomicInteger pruned = new AtomicInteger(0);
+    private final AtomicInteger diverged = new AtomicInteger(0);
+    private final AtomicReference<InterleavingFailureError> failure = new AtomicReference<InterleavingFailureError>();
+
+    ScheduleExploration(Explore explore) {
+        this.preemptionBound = explore.preemptionBound();
+        this.maxSchedules = explore.maxSchedules();
+        this.parallelism = explore.parallelism() > 0
+                ? explore.parallelism() : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Returns the scheduler the calling thread should conduct its scenario with, or
+     * null if it isn't exploring.
+     */
+    static SerialScheduler schedulerOfThisThread() {
+        return current.get();
+    }
+
+    /**
+     * Runs the schedules of the given execution, and returns a summary of how many
+     * there were, and how many were pruned.
+     *
+     * @throws InterleavingFailureError if a schedule failed, with the summary
+     */
+    String explore(final Execution execution) throws Throwable {
+        enqueue(new int[0]);
+        final Throwable[] errors = new Throwable[1];
+        Thread[] workers = new Thread[parallelism];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread("TCRunner-Explorer-" + i) {
+                @Override
+                public void run() {
+                    try {
+                        work(execution);
+                    } catch (Throwable t) {
+                        synchronized (errors) {
+                            errors[0] = t;
+                        }
+                    }
+                }
+            };
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        for (Thread worker : workers)
+            worker.join();
+        if (errors[0] != null)
+            throw errors[0];
+        if (failure.get() != null)
+            throw new InterleavingFailureError(failure.get(), summary().trim());
+        return summary();
+    }
+
+    private String summary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append("  explored ").append(runs.get()).append(" schedules with up to ")
+            .append(preemptionBound).append(" preemptions, pruned ").append(pruned.get());
+        if (failure.get() == null && pending.get() != 0)
+            summary.append(", stopped at ").append(maxSchedules).append(" schedules");
+        if (diverged.get() != 0)
+            summary.append(", ").append(diverged.get()).append(" runs didn't follow their schedule");
+        return summary.append('\n').toString();
+    }
+
+    private void work(Execution execution) {
+        while (failure.get() == null) {
+            int[] prefix = prefixes.pollLast();
+            if (prefix == null) {
+                if (pending.get() == 0)
+                    return;
+                LockSupport.parkNanos(IdleNanos);
+                continue;
+            }
+            if (runs.incrementAndGet() > maxSchedules) {
+                runs.decrementAndGet();
+                prefixes.add(prefix);
+                return;
+            }
+            try {
+                run(execution, prefix);
+            } finally {
+                pending.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Runs the given execution with the given scheduler, on the calling thread, and
+     * returns how it failed, or null if it passed.
+     */
+    static Throwable run(Execution execution, SerialScheduler scheduler) {
+        current.set(scheduler);
+        try {
+            execution.run();
+            return null;
+        } catch (Throwable t) {
+            return t;
+        } finally {
+            current.remove();
+        }
+    }
+
+    private void run(Execution execution, int[] prefix) {
+        SerialScheduler scheduler = new SerialScheduler(prefix);
+        Throwable failed = run(execution, scheduler);
+
+        List<SerialScheduler.Step> steps = scheduler.steps();
+        if (scheduler.hasDiverged())
+            diverged.incrementAndGet();
+        if (failed != null) {
+            List<String> names = scheduler.threadNames();
+            List<String> threads = new ArrayList<String>(steps.size());
+            for (SerialScheduler.Step step : steps)
+                threads.add(names.get(step.chosen));
+            failure.compareAndSet(null,
+                    new InterleavingFailureError(new Schedule(threads).toString(), failed));
+            return;
+        }
+        expand(prefix, steps);
+    }
+
+    /**
+     * Marks the states the given run went through as visited, then queues a prefix
+     * for each turn it could have taken otherwise after the given prefix.
+     */
+    private void expand(int[] prefix, List<SerialScheduler.Step> steps) {
+        int[] preemptions = new int[steps.size() + 1];
+        for (int k = 0; k < steps.size(); k++) {
+            SerialScheduler.Step step = steps.get(k);
+            preemptions[k + 1] = preemptions[k] + (step.isPreemption(step.chosen) ? 1 : 0);
+            visit(state(step.hash, step.chosen), preemptions[k + 1]);
+        }
+
+        for (int k = prefix.length; k < steps.size(); k++) {
+            SerialScheduler.Step step = steps.get(k);
+            for (int i = 0; i < step.enabled.length; i++) {
+                int other = step.enabled[i];
+                if (other == step.chosen)
+                    continue;
+                int count = preemptions[k] + (step.isPreemption(other) ? 1 : 0);
+                if (count > preemptionBound)
+                    continue;
+                if (!visit(state(step.hashes[i], other), count)) {
+                    pruned.incrementAndGet();
+                    continue;
+                }
+                int[] next = new int[k + 1];
+                for (int j = 0; j < k; j++)
+                    next[j] = steps.get(j).chosen;
+                next[k] = other;
+                enqueue(next);
+            }
+        }
+    }
+
+    private void enqueue(int[] prefix) {
+        pending.incrementAndGet();
+        prefixes.add(prefix);
+    }
+
+    private static long state(long hash, int last) {
+        return TraceHash.mix(hash ^ last);
+    }
+
+    /**
+     * Records that the given state was reached with the given number of preemptions,
+     * and returns false if it already was with as few.
+     */
+    private boolean visit(long state, int preemptions) {
+        for (;;) {
+            Integer before = visited.putIfAbsent(state, preemptions);
+            if (before == null)
+                return true;
+            if (before <= preemptions)
+                return false;
+            if (visited.replace(state, before, preemptions))
+                return true;
+        }
+    }
+}
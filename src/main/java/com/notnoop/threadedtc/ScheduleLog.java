@@ -0,0 +1,272 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What happened in a recorded scenario, in the order it happened: the test threads
+ * starting, passing scheduling points and finishing, the clock being frozen and
+ * unfrozen, and the beat advancing, see <code>Conductor.setScheduleRecording</code>.
+ * The order the test threads passed their scheduling points in is a
+ * <code>Schedule</code> that the scenario can be made to follow again, see
+ * <code>Conductor.setReplayedSchedule</code>.
+ *
+ * <p>
+ * A log is written in a compact binary format, one or two bytes per event with up to
+ * 16 threads, through a memory mapped file, so that logs of long runs are cheap to
+ * write and read.
+ * </p>
+ */
+public final class ScheduleLog {
+    /**
+     * The kinds of events.
+     */
+    public enum Kind {
+        /** a test thread started, past the green light */
+        STARTED,
+        /** a test thread returned from <code>waitForBeat</code> or left <code>withConductorFrozen</code> */
+        POINT,
+        /** a test thread passed a point the scheduling agent added to the subject */
+        SUBJECT_POINT,
+        /** a test thread froze the clock */
+        FROZEN,
+        /** a test thread unfroze the clock */
+        UNFROZEN,
+        /** a test thread finished */
+        FINISHED,
+        /** the clock advanced the beat */
+        BEAT_ADVANCED;
+
+        private static final Kind[] values = values();
+
+        /**
+         * Returns true for the events that are turns of a <code>Schedule</code>.
+         */
+        public boolean isSchedulingPoint() {
+            return this == STARTED || this == POINT || this == SUBJECT_POINT;
+        }
+    }
+
+    private static final int Magic = 0x5443534c; // "TCSL"
+    private static final int Version = 1;
+    private static final int SubjectPoints = 1;
+    private static final int KindBits = 3;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final List<String> threads;
+    private final int[] eventThreads;
+    private final byte[] eventKinds;
+    private final boolean subjectPoints;
+
+    ScheduleLog(List<String> threads, int[] eventThreads, byte[] eventKinds, boolean subjectPoints) {
+        this.threads = Collections.unmodifiableList(new ArrayList<String>(threads));
+        this.eventThreads = eventThreads;
+        this.eventKinds = eventKinds;
+        this.subjectPoints = subjectPoints;
+    }
+
+    /**
+     * Returns a log of just the given schedule, each turn a point, as to replay the
+     * schedule of an <code>InterleavingFailureError</code>.
+     *
+     * @param subjectPoints whether the schedule includes the points the scheduling
+     *   agent added to the subject, as those of an explored scenario do
+     */
+    public static ScheduleLog of(Schedule schedule, boolean subjectPoints) {
+        List<String> threads = new ArrayList<String>();
+        int[] eventThreads = new int[schedule.size()];
+        byte[] eventKinds = new byte[schedule.size()];
+        for (int i = 0; i < eventThreads.length; i++) {
+            String name = schedule.getThreads().get(i);
+            if (!threads.contains(name))
+                threads.add(name);
+            eventThreads[i] = threads.indexOf(name);
+            eventKinds[i] = (byte)Kind.POINT.ordinal();
+        }
+        return new ScheduleLog(threads, eventThreads, eventKinds, subjectPoints);
+    }
+
+    /**
+     * Returns the names of the threads that took part, in the order they
+     * were created, the clock thread among them as <code>Conductor-Clock</code>.
+     */
+    public List<String> getThreads() {
+        return threads;
+    }
+
+    /**
+     * Returns the number of events.
+     */
+    public int size() {
+        return eventKinds.length;
+    }
+
+    /**
+     * Returns the name of the thread the given event happened on.
+     */
+    public String getThread(int event) {
+        return threads.get(eventThreads[event]);
+    }
+
+    public Kind getKind(int event) {
+        return Kind.values[eventKinds[event]];
+    }
+
+    /**
+     * Returns true if the points the scheduling agent added to the subject were
+     * recorded, along with those of the conductor.
+     */
+    public boolean hasSubjectPoints() {
+        return subjectPoints;
+    }
+
+    /**
+     * Returns the order the test threads passed their scheduling points in.
+     */
+    public Schedule getSchedule() {
+        List<String> turns = new ArrayList<String>();
+        for (int i = 0; i < eventKinds.length; i++) {
+            if (getKind(i).isSchedulingPoint())
+                turns.add(getThread(i));
+        }
+        return new Schedule(turns);
+    }
+
+    /**
+     * Writes this log to the given file, replacing it.
+     */
+    public void write(File file) throws IOException {
+        byte[][] names = new byte[threads.size()][];
+        long size = 4 + 1 + 1 + varintSize(names.length) + varintSize(eventKinds.length);
+        for (int i = 0; i < names.length; i++) {
+            names[i] = threads.get(i).getBytes(UTF8);
+            size += varintSize(names[i].length) + names[i].length;
+        }
+        for (int i = 0; i < eventKinds.length; i++)
+            size += varintSize(event(i));
+
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.setLength(0);
+            MappedByteBuffer buffer = out.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(Magic);
+            buffer.put((byte)Version);
+            buffer.put((byte)(subjectPoints ? SubjectPoints : 0));
+            putVarint(buffer, names.length);
+            for (byte[] name : names) {
+                putVarint(buffer, name.length);
+                buffer.put(name);
+            }
+            putVarint(buffer, eventKinds.length);
+            for (int i = 0; i < eventKinds.length; i++)
+                putVarint(buffer, event(i));
+            buffer.force();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a log written by <code>write</code>.
+     *
+     * @throws IOException if the file can't be read, or isn't a schedule log
+     */
+    public static ScheduleLog read(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            MappedByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+            if (buffer.getInt() != Magic || buffer.get() != Version)
+                throw new IOException("notAScheduleLog: " + file);
+            boolean subjectPoints = (buffer.get() & SubjectPoints) != 0;
+            int threadCount = getVarint(buffer);
+            List<String> threads = new ArrayList<String>(threadCount);
+            for (int i = 0; i < threadCount; i++) {
+                byte[] name = new byte[getVarint(buffer)];
+                buffer.get(name);
+                threads.add(new String(name, UTF8));
+            }
+            int events = getVarint(buffer);
+            int[] eventThreads = new int[events];
+            byte[] eventKinds = new byte[events];
+            for (int i = 0; i < events; i++) {
+                int event = getVarint(buffer);
+                eventThreads[i] = event >>> KindBits;
+                eventKinds[i] = (byte)(event & ((1 << KindBits) - 1));
+                if (eventThreads[i] >= threadCount || eventKinds[i] >= Kind.values.length)
+                    throw new IOException("corruptScheduleLog: " + file);
+            }
+            return new ScheduleLog(threads, eventThreads, eventKinds, subjectPoints);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("truncatedScheduleLog: " + file);
+        } finally {
+            in.close();
+        }
+    }
+
+    private int event(int i) {
+        return eventThreads[i] << KindBits | eventKinds[i];
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0)
+            size++;
+        return size;
+    }
+
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer.put((byte)((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte)value);
+    }
+
+    private static int getVarint(ByteBuffer buffer) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IOException("corruptScheduleLog");
+    }
+
+    /**
+     * Returns the events, one per line.
+     */
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < eventKinds.length; i++) {
+            s.append(getThread(i)).append(' ')
+                .append(getKind(i).name().toLowerCase().replace('_', ' ')).append('\n');
+        }
+        return s.toString();
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Records the events of a scenario into a track per thread. Each event takes a
+ * ticket from a shared counter, which is all the threads have to agree on, and is
+ * appended to the track of its thread along with it, which only that thread
+ * writes; merging the tracks by ticket, once the scenario is over, gives the order
+ * the events happened in.
+ */
+final class ScheduleRecorder {
+    private static final int ChunkSize = 1 << 12;
+    private static final int KindBits = 8;
+
+    private final AtomicLong tickets = new AtomicLong(0);
+    private final CopyOnWriteArrayList<Track> tracks = new CopyOnWriteArrayList<Track>();
+
+    /*
+     * The events of one thread, ticket and kind packed in a long, in chunks so that
+     * growing it doesn't copy what's already recorded.
+     */
+    final class Track {
+        final String name;
+        final int index;
+
+        private long[][] chunks = new long[1][];
+        private long[] chunk = new long[ChunkSize];
+        private int position = 0;
+        // written last, so readers see the events below it
+        private volatile int size = 0;
+
+        Track(String name, int index) {
+            this.name = name;
+            this.index = index;
+            chunks[0] = chunk;
+        }
+
+        /**
+         * Records an event of the given kind. Only called by the thread of the track.
+         */
+        void record(ScheduleLog.Kind kind) {
+            long event = tickets.getAndIncrement() << KindBits | kind.ordinal();
+            if (position == ChunkSize) {
+                long[][] more = new long[chunks.length + 1][];
+                System.arraycopy(chunks, 0, more, 0, chunks.length);
+                chunk = new long[ChunkSize];
+                more[chunks.length] = chunk;
+                chunks = more;
+                position = 0;
+            }
+            chunk[position++] = event;
+            size = size + 1;
+        }
+
+        long get(long[][] chunks, int i) {
+            return chunks[i / ChunkSize][i % ChunkSize];
+        }
+    }
+
+    /**
+     * Adds the track of a thread. Threads are numbered in the order they are added.
+     */
+    Track track(String name) {
+        synchronized (tracks) {
+            Track track = new Track(name, tracks.size());
+            tracks.add(track);
+            return track;
+        }
+    }
+
+    /**
+     * Returns the events recorded so far, in order.
+     */
+    ScheduleLog log(boolean subjectPoints) {
+        List<String> names = new ArrayList<String>();
+        int[] sizes = new int[tracks.size()];
+        long[][][] chunks = new long[sizes.length][][];
+        int total = 0;
+        for (Track track : tracks) {
+            names.add(track.name);
+            sizes[track.index] = track.size;
+            chunks[track.index] = track.chunks;
+            total += sizes[track.index];
+        }
+
+        // each track is in ticket order, so this only ever compares their heads
+        int[] positions = new int[sizes.length];
+        int[] threads = new int[total];
+        byte[] kinds = new byte[total];
+        for (int n = 0; n < total; n++) {
+            int next = -1;
+            long lowest = Long.MAX_VALUE;
+            for (int t = 0; t < sizes.length; t++) {
+                if (positions[t] == sizes[t])
+                    continue;
+                long event = tracks.get(t).get(chunks[t], positions[t]);
+                if (event < lowest) {
+                    lowest = event;
+                    next = t;
+                }
+            }
+            positions[next]++;
+            threads[n] = next;
+            kinds[n] = (byte)(lowest & ((1 << KindBits) - 1));
+        }
+        return new ScheduleLog(names, threads, kinds, subjectPoints);
+    }
+}
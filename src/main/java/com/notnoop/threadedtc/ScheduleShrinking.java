@@ -0,0 +1,260 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.notnoop.threadedtc.exceptions.InterleavingFailureError;
+import com.notnoop.threadedtc.internal.SerialScheduler;
+
+/*
+ * Shrinks a failing schedule: replays variants of it that stop following it
+ * sooner, that run a thread without interleaving it with the others, or that
+ * merge two turns of a thread taken apart, and keeps the first that still fails
+ * with fewer preemptions, or as many and fewer switches between threads, or as
+ * many and fewer turns, until none does.
+ *
+ * A variant is only a prefix for the serial scheduler to follow: past it, or
+ * where it can't be followed, the scheduler goes on with the thread that ran last
+ * if it can. What counts is the schedule the failing replay actually went
+ * through, which is the one shrunk next. The variants of a round are replayed in
+ * parallel, simplest first, and the round is over once the first of them that
+ * fails is known.
+ */
+final class ScheduleShrinking {
+    private final int parallelism;
+    private final boolean inSubject;
+
+    private final AtomicInteger replays = new AtomicInteger(0);
+    private InterleavingFailureError failure;
+
+    /*
+     * A replay: the schedule it went through, its preemptions, and how it failed.
+     */
+    private static final class Run {
+        final Schedule schedule;
+        final int preemptions;
+        final Throwable failure;
+
+        Run(Schedule schedule, int preemptions, Throwable failure) {
+            this.schedule = schedule;
+            this.preemptions = preemptions;
+            this.failure = failure;
+        }
+
+        boolean isSimplerThan(Run other) {
+            if (preemptions != other.preemptions)
+                return preemptions < other.preemptions;
+            if (schedule.getSwitches() != other.schedule.getSwitches())
+                return schedule.getSwitches() < other.schedule.getSwitches();
+            return schedule.size() < other.schedule.size();
+        }
+    }
+
+    /**
+     * Creates a shrinking replaying up to <code>parallelism</code> variants at a
+     * time, with the threads switching at the points the scheduling agent added to
+     * the subject too if <code>inSubject</code> is true.
+     */
+    ScheduleShrinking(int parallelism, boolean inSubject) {
+        this.parallelism = parallelism;
+        this.inSubject = inSubject;
+    }
+
+    /**
+     * Shrinks the given schedule, and returns what became of it. The smallest failing
+     * schedule found, if the given one failed at all, is then <code>getFailure</code>,
+     * with what became of it in its message.
+     */
+    String shrink(Schedule schedule, ScheduleExploration.Execution execution) throws Throwable {
+        Run original = replay(execution, schedule);
+        if (original.failure == null) {
+            return "  the schedule of " + schedule.size()
+                + " turns didn't fail when replayed, nothing to shrink\n";
+        }
+
+        Run smallest = original;
+        for (;;) {
+            Run simpler = firstSimpler(variants(smallest.schedule), smallest, execution);
+            if (simpler == null)
+                break;
+            smallest = simpler;
+        }
+
+        StringBuilder summary = new StringBuilder();
+        summary.append("  shrank a schedule of ").append(original.schedule.size())
+            .append(" turns with ").append(original.preemptions).append(" preemptions to ")
+            .append(smallest.schedule.size()).append(" turns with ").append(smallest.preemptions)
+            .append(" preemptions, in ").append(replays.get()).append(" replays\n");
+        for (String line : smallest.schedule.toTimeline().split("\n"))
+            summary.append("  ").append(line).append('\n');
+        failure = new InterleavingFailureError(
+                new InterleavingFailureError(smallest.schedule.toString(), smallest.failure),
+                summary.toString().trim());
+        return summary.toString();
+    }
+
+    /**
+     * Returns the failure of the smallest failing schedule, or null if the schedule
+     * didn't fail.
+     */
+    InterleavingFailureError getFailure() {
+        return failure;
+    }
+
+    private Run replay(ScheduleExploration.Execution execution, Schedule prefix) {
+        replays.incrementAndGet();
+        SerialScheduler scheduler = new SerialScheduler(prefix.getThreads(), inSubject);
+        Throwable failed = ScheduleExploration.run(execution, scheduler);
+        List<String> names = scheduler.threadNames();
+        List<String> turns = new ArrayList<String>();
+        int preemptions = 0;
+        for (SerialScheduler.Step step : scheduler.steps()) {
+            turns.add(names.get(step.chosen));
+            if (step.isPreemption(step.chosen))
+                preemptions++;
+        }
+        return new Run(new Schedule(turns), preemptions, failed);
+    }
+
+    /**
+     * Replays the given variants, and returns the first, in their order, that fails
+     * and is simpler than the given run, or null if none is.
+     */
+    private Run firstSimpler(final List<Schedule> variants, final Run than,
+            final ScheduleExploration.Execution execution) throws Throwable {
+        final AtomicInteger next = new AtomicInteger(0);
+        final AtomicInteger found = new AtomicInteger(Integer.MAX_VALUE);
+        final Run[] runs = new Run[variants.size()];
+        final Throwable[] errors = new Throwable[1];
+        Thread[] workers = new Thread[Math.min(parallelism, variants.size())];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread("TCRunner-Shrinker-" + i) {
+                @Override
+                public void run() {
+                    try {
+                        for (;;) {
+                            int index = next.getAndIncrement();
+                            if (index >= runs.length || index > found.get())
+                                return;
+                            Run run = replay(execution, variants.get(index));
+                            if (run.failure == null || !run.isSimplerThan(than))
+                                continue;
+                            runs[index] = run;
+                            for (;;) {
+                                int lowest = found.get();
+                                if (lowest < index || found.compareAndSet(lowest, index))
+                                    break;
+                            }
+                        }
+                    } catch (Throwable t) {
+                        synchronized (errors) {
+                            errors[0] = t;
+                        }
+                    }
+                }
+            };
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        for (Thread worker : workers)
+            worker.join();
+        if (errors[0] != null)
+            throw errors[0];
+        return found.get() == Integer.MAX_VALUE ? null : runs[found.get()];
+    }
+
+    /**
+     * Returns the variants of the given schedule, simplest first.
+     */
+    static List<Schedule> variants(Schedule schedule) {
+        List<String> turns = schedule.getThreads();
+        // the turns each run of turns of the same thread starts at, and the end
+        List<Integer> starts = new ArrayList<Integer>();
+        for (int i = 0; i < turns.size(); i++) {
+            if (i == 0 || !turns.get(i).equals(turns.get(i - 1)))
+                starts.add(i);
+        }
+        starts.add(turns.size());
+
+        Set<Schedule> variants = new LinkedHashSet<Schedule>();
+        // stop following it at each switch
+        for (int b = 0; b < starts.size() - 1; b++)
+            variants.add(new Schedule(turns.subList(0, starts.get(b))));
+        // run a thread all at once, where it first ran
+        for (String name : new LinkedHashSet<String>(turns)) {
+            List<String> serialized = new ArrayList<String>(turns.size());
+            int first = turns.indexOf(name);
+            for (int i = 0; i < turns.size(); i++) {
+                if (i == first) {
+                    for (String turn : turns) {
+                        if (turn.equals(name))
+                            serialized.add(turn);
+                    }
+                } else if (!turns.get(i).equals(name)) {
+                    serialized.add(turns.get(i));
+                }
+            }
+            variants.add(new Schedule(serialized));
+        }
+        // take a run of turns along with the previous, or the next, run of its thread
+        for (int b = 0; b < starts.size() - 1; b++) {
+            String name = turns.get(starts.get(b));
+            int previous = b - 1;
+            while (previous >= 0 && !turns.get(starts.get(previous)).equals(name))
+                previous--;
+            if (previous >= 0)
+                variants.add(new Schedule(move(turns, starts.get(b), starts.get(b + 1), starts.get(previous + 1))));
+            int following = b + 1;
+            while (following < starts.size() - 1 && !turns.get(starts.get(following)).equals(name))
+                following++;
+            if (following < starts.size() - 1)
+                variants.add(new Schedule(move(turns, starts.get(b), starts.get(b + 1), starts.get(following))));
+        }
+        variants.remove(schedule);
+
+        List<Schedule> sorted = new ArrayList<Schedule>(variants);
+        Collections.sort(sorted, new Comparator<Schedule>() {
+            public int compare(Schedule a, Schedule b) {
+                if (a.getSwitches() != b.getSwitches())
+                    return a.getSwitches() < b.getSwitches() ? -1 : 1;
+                return a.size() < b.size() ? -1 : a.size() == b.size() ? 0 : 1;
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * Returns the given turns with those from <code>from</code> to <code>to</code>
+     * moved to <code>at</code>, which is outside them.
+     */
+    private static List<String> move(List<String> turns, int from, int to, int at) {
+        List<String> moved = new ArrayList<String>(turns.size());
+        for (int i = 0; i <= turns.size(); i++) {
+            if (i == at)
+                moved.addAll(turns.subList(from, to));
+            if (i < turns.size() && (i < from || i >= to))
+                moved.add(turns.get(i));
+        }
+        return moved;
+    }
+}
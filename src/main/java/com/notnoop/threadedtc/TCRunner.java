@@ -15,85 +15,645 @@
  */
 package com.notnoop.threadedtc;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.internal.runners.model.MultipleFailureException;
 import org.junit.internal.runners.statements.InvokeMethod;
+import org.junit.runner.notification.RunNotifier;
 import org.junit.runners.BlockJUnit4ClassRunner;
 import org.junit.runners.model.FrameworkMethod;
 import org.junit.runners.model.InitializationError;
 import org.junit.runners.model.Statement;
 
+import com.notnoop.threadedtc.exceptions.NotAllowedException;
+import com.notnoop.threadedtc.exceptions.StressFailureError;
+import com.notnoop.threadedtc.internal.IsolatingClassLoader;
+import com.notnoop.threadedtc.internal.SerialScheduler;
+import com.notnoop.threadedtc.internal.ThreadActivity;
+
+/**
+ * Runs the <code>@Threaded</code> methods of a test class as the test threads of a
+ * scenario, conducted before each <code>@Test</code> method.
+ *
+ * <p>
+ * Each scenario has a <code>Conductor</code> of its own, which
+ * <code>RunnerConductor</code> looks up from the calling thread, so test classes
+ * and methods may be run in parallel, e.g. with JUnit's <code>ParallelComputer</code>.
+ * The repetitions of a <code>@MultiThreadedTest</code> may run in parallel too, see
+ * <code>MultiThreadedTest.parallelism</code>, each in a class loader of its own if
+ * need be, see <code>MultiThreadedTest.isolated</code>. Stressed repetitions, see
+ * <code>MultiThreadedTest.stress</code>, run in parallel by default, and so do the
+ * runs exploring the schedules of a test, see <code>Explore</code>, and those
+ * shrinking a failing schedule, see <code>MultiThreadedTest.shrink</code>.
+ * Parallel repetitions each run on an instance of their own, and the
+ * <code>@Test</code> method is evaluated once they are all over, as it is after
+ * repetitions run one after the other.
+ * </p>
+ */
 public class TCRunner extends BlockJUnit4ClassRunner {
 
+    // true for the runners of isolated copies of a test class, whose method blocks
+    // are each one of the parallel repetitions of the original
+    private final boolean singleRepetition;
+
     public TCRunner(Class<?> klass) throws InitializationError {
+        this(klass, false);
+    }
+
+    private TCRunner(Class<?> klass, boolean singleRepetition) throws InitializationError {
         super(klass);
+        this.singleRepetition = singleRepetition;
     }
 
     private int timesToRepeatSetup(FrameworkMethod method) {
         MultiThreadedTest t = method.getAnnotation(MultiThreadedTest.class);
-        return (t == null) ? 1 : t.times();
+        // a replay runs the recorded repetition once
+        return (t == null || !t.replay().isEmpty()) ? 1 : t.times();
+    }
+
+    private int parallelism(FrameworkMethod method) {
+        MultiThreadedTest t = method.getAnnotation(MultiThreadedTest.class);
+        if (singleRepetition || t == null || timesToRepeatSetup(method) <= 1
+                || method.getAnnotation(Explore.class) != null
+                || method.getAnnotation(Benchmark.class) != null
+                || method.getAnnotation(ScalingSweep.class) != null)
+            return 1;
+        int parallelism = t.stress() && t.parallelism() == 1
+                ? Runtime.getRuntime().availableProcessors() : t.parallelism();
+        return Math.min(parallelism, t.times());
+    }
+
+    // the seed of the stressed repetition the current thread is running in parallel
+    // to others, if any, for its TCStatement to pick up
+    private static final ThreadLocal<Long> repetitionSeed = new ThreadLocal<Long>();
+
+    // the repetitions the current thread is running one of in parallel to the others,
+    // if any, and which one, for its TCStatement to pick up
+    private static final ThreadLocal<ParallelRun> parallelRun = new ThreadLocal<ParallelRun>();
+    private static final ThreadLocal<Integer> repetitionIndex = new ThreadLocal<Integer>();
+
+    /*
+     * The repetitions of a test running in parallel, each on an instance of its own.
+     * They record how their scenarios went, and all but the last leave the @Test
+     * method be; the last evaluates it on its own instance once the others are done,
+     * with the stats of all of them, unless one failed.
+     */
+    private static final class ParallelRun {
+        final ConductorStats[] stats;
+        final CountDownLatch othersDone;
+        final AtomicInteger failed = new AtomicInteger(0);
+
+        ParallelRun(int times) {
+            this.stats = new ConductorStats[times];
+            this.othersDone = new CountDownLatch(times - 1);
+        }
+
+        boolean isLast(int index) {
+            return index == stats.length - 1;
+        }
+    }
+
+    /**
+     * Returns the seed of the first repetition of the given stressed test.
+     */
+    private static long firstSeed(MultiThreadedTest t) {
+        if (t.seed() != 0)
+            return t.seed();
+        // far enough from 0 and overflow that no repetition is given either
+        return ThreadLocalRandom.current().nextLong(1L << 32, Long.MAX_VALUE / 2);
+    }
+
+    /**
+     * Returns the failure of a stressed repetition with its seed.
+     */
+    private static StressFailureError withSeed(Throwable failure, long seed) {
+        if (failure instanceof StressFailureError)
+            return (StressFailureError)failure;
+        return new StressFailureError(seed, failure);
+    }
+
+    /**
+     * Returns the failure of a stressed repetition with its seed, and the log of its
+     * schedule, written to the directory named by the <code>threadedtc.scheduleLogs</code>
+     * system property, or else the temporary directory.
+     */
+    private static StressFailureError withSeed(Throwable failure, long seed, String testName, ScheduleLog log) {
+        if (failure instanceof StressFailureError || log == null)
+            return withSeed(failure, seed);
+        File directory = new File(System.getProperty("threadedtc.scheduleLogs",
+                System.getProperty("java.io.tmpdir")));
+        File file = new File(directory, "threadedtc-" + testName + "-" + seed + ".schedule");
+        try {
+            directory.mkdirs();
+            log.write(file);
+        } catch (IOException e) {
+            // the failure matters more than its log
+            return withSeed(failure, seed);
+        }
+        return new StressFailureError(seed, file, failure);
+    }
+
+    @Override
+    protected Statement methodBlock(FrameworkMethod method) {
+        if (!singleRepetition && method.getAnnotation(Explore.class) != null)
+            return new Exploration(method);
+        MultiThreadedTest t = method.getAnnotation(MultiThreadedTest.class);
+        if (!singleRepetition && t != null && t.shrink() && !t.replay().isEmpty())
+            return new Shrinking(method);
+        int parallelism = parallelism(method);
+        if (parallelism > 1)
+            return new ParallelRepetitions(method, timesToRepeatSetup(method), parallelism);
+        return super.methodBlock(method);
+    }
+
+    @Override
+    protected Statement classBlock(RunNotifier notifier) {
+        final Statement statement = super.classBlock(notifier);
+        if (singleRepetition)
+            return statement;
+        return new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                try {
+                    statement.evaluate();
+                } finally {
+                    forgetIsolatedCopies(getTestClass().getJavaClass());
+                }
+            }
+        };
     }
 
     @Override
     protected Statement methodInvoker(FrameworkMethod method, Object test) {
-        int times = timesToRepeatSetup(method);
-        return new TCStatement(method, test, times);
+        // parallel repetitions each run the whole method block once
+        int times = singleRepetition || parallelism(method) > 1
+                || method.getAnnotation(Explore.class) != null ? 1 : timesToRepeatSetup(method);
+        MultiThreadedTest t = method.getAnnotation(MultiThreadedTest.class);
+        Long seed = repetitionSeed.get();
+        if (seed == null)
+            seed = t != null && t.stress() ? firstSeed(t) : 0;
+        return new TCStatement(method, test, times, seed);
+    }
+
+    // the isolated copies of test classes that no repetition is running on, by test
+    // class and isolated packages, kept until the tests of their class are over; there
+    // are no more of them than repetitions ever ran at the same time
+    private static final ConcurrentHashMap<String, ConcurrentLinkedQueue<IsolatedCopy>> isolatedCopies
+        = new ConcurrentHashMap<String, ConcurrentLinkedQueue<IsolatedCopy>>();
+
+    private static ConcurrentLinkedQueue<IsolatedCopy> isolatedCopies(Class<?> klass, String[] packages) {
+        String key = klass.getName() + Arrays.asList(packages);
+        ConcurrentLinkedQueue<IsolatedCopy> copies = isolatedCopies.get(key);
+        if (copies == null) {
+            isolatedCopies.putIfAbsent(key, new ConcurrentLinkedQueue<IsolatedCopy>());
+            copies = isolatedCopies.get(key);
+        }
+        return copies;
+    }
+
+    /**
+     * Drops the isolated copies of the given test class, whatever their packages, so
+     * that their class loaders, and the static state of the subject in them, can be
+     * collected.
+     */
+    private static void forgetIsolatedCopies(Class<?> klass) {
+        String prefix = klass.getName() + "[";
+        for (String key : isolatedCopies.keySet()) {
+            if (key.startsWith(prefix))
+                isolatedCopies.remove(key);
+        }
+    }
+
+    /*
+     * A test class loaded by an IsolatingClassLoader, initialized, and validated by a
+     * runner of its own, ready to run repetitions on.
+     */
+    private static final class IsolatedCopy {
+        final ClassLoader loader;
+        final TCRunner runner;
+
+        IsolatedCopy(Class<?> klass, String[] packages) throws Exception {
+            loader = new IsolatingClassLoader(klass.getClassLoader(), klass.getName(), packages);
+            runner = new TCRunner(Class.forName(klass.getName(), true, loader), true);
+        }
+
+        Statement methodBlock(FrameworkMethod original) {
+            for (FrameworkMethod method : runner.getTestClass().getAnnotatedMethods(Test.class)) {
+                if (method.getName().equals(original.getName()))
+                    return runner.methodBlock(method);
+            }
+            throw new IllegalStateException("noIsolatedCopyOf: " + original.getName());
+        }
+    }
+
+    /**
+     * Runs the whole method block once, on an isolated copy of the test class if the
+     * test is isolated.
+     */
+    private void repetition(FrameworkMethod method) throws Throwable {
+        MultiThreadedTest t = method.getAnnotation(MultiThreadedTest.class);
+        if (t == null || !t.isolated()) {
+            super.methodBlock(method).evaluate();
+            return;
+        }
+
+        Class<?> klass = getTestClass().getJavaClass();
+        ConcurrentLinkedQueue<IsolatedCopy> copies = isolatedCopies(klass, t.isolatedPackages());
+        IsolatedCopy copy = copies.poll();
+        if (copy == null)
+            copy = new IsolatedCopy(klass, t.isolatedPackages());
+        Thread current = Thread.currentThread();
+        ClassLoader contextClassLoader = current.getContextClassLoader();
+        current.setContextClassLoader(copy.loader);
+        try {
+            copy.methodBlock(method).evaluate();
+        } finally {
+            current.setContextClassLoader(contextClassLoader);
+            copies.add(copy);
+        }
+    }
+
+    /*
+     * Runs the method block, test instance, befores and afters included, once per
+     * schedule of its scenario.
+     */
+    private final class Exploration extends Statement {
+        private final FrameworkMethod method;
+
+        Exploration(FrameworkMethod method) {
+            this.method = method;
+        }
+
+        @Override
+        public void evaluate() throws Throwable {
+            MultiThreadedTest t = method.getAnnotation(MultiThreadedTest.class);
+            if (t != null && t.stress())
+                throw new NotAllowedException("cannotStressAnExploredScenario");
+            if (t != null && !t.replay().isEmpty())
+                throw new NotAllowedException("cannotReplayAnExploredScenario");
+            if (method.getAnnotation(Benchmark.class) != null || method.getAnnotation(ScalingSweep.class) != null)
+                throw new NotAllowedException("cannotExploreABenchmark");
+            Explore explore = method.getAnnotation(Explore.class);
+            ScheduleExploration exploration = new ScheduleExploration(explore);
+            String summary = exploration.explore(new ScheduleExploration.Execution() {
+                public void run() throws Throwable {
+                    repetition(method);
+                }
+            });
+            if (explore.verbose())
+                System.out.print(method.getName() + ":\n" + summary);
+        }
+    }
+
+    /*
+     * Runs the method block, test instance, befores and afters included, once per
+     * variant of the replayed schedule tried while shrinking it.
+     */
+    private final class Shrinking extends Statement {
+        private final FrameworkMethod method;
+
+        Shrinking(FrameworkMethod method) {
+            this.method = method;
+        }
+
+        @Override
+        public void evaluate() throws Throwable {
+            MultiThreadedTest t = method.getAnnotation(MultiThreadedTest.class);
+            if (method.getAnnotation(Benchmark.class) != null || method.getAnnotation(ScalingSweep.class) != null)
+                throw new NotAllowedException("cannotShrinkABenchmark");
+            ScheduleLog log = ScheduleLog.read(new File(t.replay()));
+            int parallelism = t.parallelism() > 1 ? t.parallelism() : Runtime.getRuntime().availableProcessors();
+            ScheduleShrinking shrinking = new ScheduleShrinking(parallelism, log.hasSubjectPoints());
+            String summary = shrinking.shrink(log.getSchedule(), new ScheduleExploration.Execution() {
+                public void run() throws Throwable {
+                    repetition(method);
+                }
+            });
+            if (t.verbose())
+                System.out.print(method.getName() + ":\n" + summary);
+            if (shrinking.getFailure() != null)
+                throw shrinking.getFailure();
+        }
+    }
+
+    /*
+     * Runs the method block, test instance, befores and afters included, once per
+     * repetition, on up to parallelism threads at a time. The @Test method is only
+     * evaluated by the block of the last repetition, once the others are done; as
+     * the repetitions are started in order, the others always have a thread to run on.
+     */
+    private final class ParallelRepetitions extends Statement {
+        private final FrameworkMethod method;
+        private final int times;
+        private final int parallelism;
+
+        ParallelRepetitions(FrameworkMethod method, int times, int parallelism) {
+            this.method = method;
+            this.times = times;
+            this.parallelism = parallelism;
+        }
+
+        @Override
+        public void evaluate() throws Throwable {
+            final MultiThreadedTest annotation = method.getAnnotation(MultiThreadedTest.class);
+            final boolean stressed = annotation.stress();
+            final long firstSeed = stressed ? firstSeed(annotation) : 0;
+            final Throwable[] failures = new Throwable[times];
+            final ParallelRun run = new ParallelRun(times);
+            ExecutorService executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger(0);
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "TCRunner-Repetition-" + count.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            try {
+                List<Future<?>> repetitions = new ArrayList<Future<?>>(times);
+                for (int i = 0; i < times; ++i) {
+                    final int index = i;
+                    repetitions.add(executor.submit(new Runnable() {
+                        public void run() {
+                            if (stressed)
+                                repetitionSeed.set(firstSeed + index);
+                            parallelRun.set(run);
+                            repetitionIndex.set(index);
+                            try {
+                                if (run.failed.get() == 0)
+                                    repetition(method);
+                            } catch (Throwable e) {
+                                failures[index] = stressed ? withSeed(e, firstSeed + index) : e;
+                                run.failed.incrementAndGet();
+                            } finally {
+                                repetitionSeed.remove();
+                                parallelRun.remove();
+                                repetitionIndex.remove();
+                                if (!run.isLast(index))
+                                    run.othersDone.countDown();
+                            }
+                        }
+                    }));
+                }
+                for (Future<?> repetition : repetitions) {
+                    try {
+                        repetition.get();
+                    } catch (ExecutionException e) {
+                        throw e.getCause();
+                    }
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+
+            List<Throwable> errors = new ArrayList<Throwable>();
+            for (Throwable t : failures) {
+                if (t != null)
+                    errors.add(t);
+            }
+            MultipleFailureException.assertEmpty(errors);
+        }
     }
 
     private static final class TCStatement extends InvokeMethod {
-        private final Object target;
+        private final String[] threadNames;
+        private final Runnable[] threadBodies;
         private final int times;
+        private final String testName;
+        private final Benchmark benchmark;
+        private final ScalingSweep sweep;
+        private final Object target;
+        private final boolean cpuTimeProgress;
+        private final boolean pooledThreads;
+        private final boolean virtualThreads;
+        private final boolean stressed;
+        private final int subjectNoise;
+        private final long firstSeed;
+        private final String replay;
+        // the repetitions this is one of, running in parallel, if it is, and which one
+        private final ParallelRun run;
+        private final int index;
         boolean ignored;
 
-        public TCStatement(FrameworkMethod testMethod, Object target, int count) {
+        public TCStatement(FrameworkMethod testMethod, Object target, int count, long firstSeed) {
             super(testMethod, target);
+            ScenarioDescriptor.Threads threads = ScenarioDescriptor.of(target.getClass()).bind(target);
+            this.threadNames = threads.names;
+            this.threadBodies = threads.bodies;
+            this.testName = testMethod.getName();
+            this.benchmark = testMethod.getAnnotation(Benchmark.class);
+            this.sweep = testMethod.getAnnotation(ScalingSweep.class);
             this.target = target;
-            this.times = count;
+            // a benchmark already calls the methods over and over
+            this.times = benchmark == null ? count : 1;
+            MultiThreadedTest t = testMethod.getAnnotation(MultiThreadedTest.class);
+            this.cpuTimeProgress = t != null && t.cpuTimeProgress();
+            this.pooledThreads = t != null && t.pooledThreads();
+            this.virtualThreads = t != null && t.virtualThreads();
+            this.replay = t == null ? "" : t.replay();
+            // a replay runs one at a time, without noise
+            this.stressed = t != null && t.stress() && replay.isEmpty();
+            this.subjectNoise = t == null ? 0 : t.subjectNoise();
+            this.firstSeed = firstSeed;
+            this.run = parallelRun.get();
+            this.index = run == null ? 0 : repetitionIndex.get();
             ignored = testMethod.getAnnotation(Ignore.class) != null;
         }
 
-        private String name(String n1, String n2) {
-            return n1.isEmpty() ? n2 : n1;
+        private Conductor newConductor() {
+            Conductor c = new Conductor();
+            c.setCpuTimeProgress(cpuTimeProgress);
+            if (pooledThreads)
+                c.setThreadPool(TestThreadPool.shared());
+            if (virtualThreads)
+                c.setVirtualThreads(true);
+            RunnerConductor.bind(c);
+            return c;
         }
 
-        private void prepareAndConduct() {
-            Conductor c = new Conductor();
-            RunnerConductor.conductor = c;
+        private Conductor prepareAndConduct(int repetition) throws IOException {
+            Conductor c = newConductor();
 
-            Class<?> clazz = target.getClass();
-            for (final Method method : clazz.getMethods()) {
-                if (method.getAnnotation(Threaded.class) == null)
-                    continue;
+            if (benchmark != null) {
+                BenchmarkResult result = new BenchmarkScenario(benchmark).conduct(c, threadNames, threadBodies);
+                System.out.print(testName + ":\n" + result);
+                RunnerConductor.bindBenchmarkResult(result);
+                return c;
+            }
 
-                Threaded threaded = method.getAnnotation(Threaded.class);
-                String name = name(threaded.value(), method.getName());
-                c.thread(name, new TCRunnable() {
-
-                    public void run() throws Throwable {
-                        try {
-                            method.invoke(target);
-                        } catch (InvocationTargetException e) {
-                            if (e.getCause() != null)
-                                throw e.getCause();
-                            else
-                                throw e;
-                        }
-                    }
-                });
+            if (stressed) {
+                c.setScheduleRecording(true);
+                c.setStressSeed(firstSeed + repetition);
+                c.setSubjectNoise(subjectNoise);
+            }
+            // explored, or shrunk, rather than replayed as it is
+            SerialScheduler scheduler = ScheduleExploration.schedulerOfThisThread();
+            if (scheduler != null)
+                c.setScheduler(scheduler);
+            else if (!replay.isEmpty())
+                c.setReplayedSchedule(ScheduleLog.read(new File(replay)));
+            for (int i = 0; i < threadBodies.length; i++)
+                c.thread(threadNames[i], threadBodies[i]);
+            try {
+                c.conduct();
+            } catch (Throwable e) {
+                if (!stressed)
+                    throw e;
+                throw withSeed(e, firstSeed + repetition, testName, c.getScheduleLog());
             }
-            c.conduct();
+            return c;
         }
 
         @Override
         public void evaluate() throws Throwable {
-            if (!ignored) {
+            // the @Test method sees the conductor of the last repetition
+            Conductor previous = RunnerConductor.bind(null);
+            BenchmarkResult previousResult = RunnerConductor.bindBenchmarkResult(null);
+            ScalingReport previousReport = RunnerConductor.bindScalingReport(null);
+            List<ConductorStats> previousStats = RunnerConductor.bindRepetitionStats(null);
+            try {
+                if (!ignored && sweep != null) {
+                    ScalingReport report = sweep();
+                    System.out.print(testName + ":\n" + report);
+                    RunnerConductor.bindScalingReport(report);
+                } else if (!ignored) {
+                    Conductor last = null;
+                    List<ConductorStats> stats = new ArrayList<ConductorStats>(times);
+                    for (int i = 0; i < times; ++i) {
+                        last = prepareAndConduct(i);
+                        stats.add(last.getStats());
+                    }
+                    if (run != null) {
+                        run.stats[index] = last.getStats();
+                        if (!run.isLast(index))
+                            return;
+                        run.othersDone.await();
+                        // their failures are reported instead
+                        if (run.failed.get() != 0)
+                            return;
+                        stats = Arrays.asList(run.stats);
+                    }
+                    RunnerConductor.bindRepetitionStats(stats);
+                    try {
+                        super.evaluate();
+                    } catch (Throwable e) {
+                        if (!stressed || last == null)
+                            throw e;
+                        throw withSeed(e, firstSeed + times - 1, testName, last.getScheduleLog());
+                    }
+                    return;
+                }
+                super.evaluate();
+            } finally {
+                RunnerConductor.bind(previous);
+                RunnerConductor.bindBenchmarkResult(previousResult);
+                RunnerConductor.bindScalingReport(previousReport);
+                RunnerConductor.bindRepetitionStats(previousStats);
+            }
+        }
+
+        /**
+         * Runs the scenario, or the benchmark, at each thread count of the sweep.
+         */
+        private ScalingReport sweep() {
+            ThreadActivity activity = new ThreadActivity();
+            boolean measured = activity.enableContentionMonitoring();
+            try {
+                return sweep(activity, measured);
+            } finally {
+                if (measured)
+                    activity.restoreContentionMonitoring();
+            }
+        }
+
+        private ScalingReport sweep(ThreadActivity activity, boolean measured) {
+            ScalingReport report = new ScalingReport(benchmark == null ? "beat" : "op");
+            ScenarioDescriptor scenario = ScenarioDescriptor.of(target.getClass());
+            for (int count : threadCounts()) {
+                ScenarioDescriptor.Threads threads = scenario.bind(target, count);
+                int n = threads.bodies.length;
+                if (benchmark != null) {
+                    BenchmarkScenario bench = new BenchmarkScenario(benchmark);
+                    BenchmarkResult result = bench.conduct(newConductor(), threads.names, threads.bodies);
+                    double throughput = result.getTotalOpsPerSecond();
+                    long blocked = result.getBlockedTime(TimeUnit.NANOSECONDS);
+                    report.add(n, throughput,
+                            throughput == 0 ? 0 : (long)(n * 1e9 / throughput),
+                            blocked < 0 ? -1 : blocked / ((double)n * bench.getMeasurementNanos()));
+                    continue;
+                }
+
+                AtomicLong blocked = new AtomicLong();
+                long beats = 0;
+                long elapsed = 0;
                 for (int i = 0; i < times; ++i) {
-                    prepareAndConduct();
+                    Conductor c = newConductor();
+                    for (int j = 0; j < n; j++)
+                        c.thread(threads.names[j], measuringBlockedTime(threads.bodies[j], c, activity, blocked));
+                    // the beats run from the green light to the end, leaving out the
+                    // starting of the threads
+                    for (ConductorStats.Beat beat : c.conduct().getBeats())
+                        elapsed += beat.getDuration(TimeUnit.NANOSECONDS);
+                    // a scenario that never waits for a beat still takes one
+                    beats += Math.max(1, c.beat());
                 }
+                elapsed = Math.max(1, elapsed);
+                report.add(n, (double)n * times * TimeUnit.SECONDS.toNanos(1) / elapsed, elapsed / beats,
+                        measured ? Math.min(1, blocked.get() / ((double)n * elapsed)) : -1);
             }
-            super.evaluate();
+            return report;
+        }
+
+        private int[] threadCounts() {
+            if (sweep.threads().length != 0)
+                return sweep.threads();
+            int processors = Runtime.getRuntime().availableProcessors();
+            List<Integer> counts = new ArrayList<Integer>();
+            for (int count = 1; count < processors; count *= 2)
+                counts.add(count);
+            counts.add(processors);
+            int[] result = new int[counts.size()];
+            for (int i = 0; i < result.length; i++)
+                result[i] = counts.get(i);
+            return result;
+        }
+
+        private Runnable measuringBlockedTime(final Runnable body, final Conductor c,
+                final ThreadActivity activity, final AtomicLong blocked) {
+            return new Runnable() {
+                public void run() {
+                    Thread self = Thread.currentThread();
+                    long before = activity.blockedOrWaitingTime(self);
+                    long parkedBefore = c.parkedTime();
+                    try {
+                        body.run();
+                    } finally {
+                        long after = activity.blockedOrWaitingTime(self);
+                        // the conductor parking the thread isn't contention
+                        long parked = c.parkedTime() - parkedBefore;
+                        if (before >= 0 && after >= 0)
+                            blocked.addAndGet(Math.max(0, after - before - parked));
+                    }
+                }
+            };
         }
     }
 }
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A pool of threads that run the test threads of one <code>Conductor</code>
+ * after another, so that scenarios run over and over, e.g. with
+ * <code>@MultiThreadedTest(times = 10000)</code>, don't spend most of their time
+ * creating and tearing down threads.
+ *
+ * <p>
+ * A pooled thread is renamed after the test thread it runs for the length of the
+ * scenario, and reset once its function is done: its name, priority, context
+ * class loader, uncaught exception handler and interrupted status go back to what
+ * they were. A <code>Conductor</code> keeps track of the state of the test threads
+ * of its scenario as usual. Unlike a thread of its own, though, a pooled thread
+ * stays alive after the scenario, and belongs to the thread group of the pool, as
+ * do the threads it starts. Thread locals set by the subject aren't cleared either.
+ * A pooled thread is only bound to a conductor, see <code>RunnerConductor</code>,
+ * while it runs a test thread of its scenario, rather than to the conductor of
+ * the thread that created it.
+ * </p>
+ *
+ * <p>
+ * When a scenario fails, the threads its test threads were running on are stopped
+ * and aren't returned to the pool.
+ * </p>
+ *
+ * <p>
+ * Pooled threads are daemon threads, which go away after they have been idle for
+ * the keep alive time of the pool.
+ * </p>
+ *
+ * @see Conductor#setThreadPool(TestThreadPool)
+ */
+public final class TestThreadPool {
+    private static final TestThreadPool shared = new TestThreadPool();
+
+    private final ThreadGroup group = new ThreadGroup("Orchestra-Pool");
+    private final long keepAliveNanos;
+
+    private final ConcurrentLinkedQueue<Carrier> idle = new ConcurrentLinkedQueue<Carrier>();
+    private final AtomicInteger alive = new AtomicInteger(0);
+    private final AtomicLong created = new AtomicLong(0);
+
+    /**
+     * Creates a pool whose threads go away after they have been idle for a minute.
+     */
+    public TestThreadPool() {
+        this(60, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Creates a pool whose threads go away after they have been idle for the given time.
+     */
+    public TestThreadPool(long keepAlive, TimeUnit unit) {
+        this.keepAliveNanos = unit.toNanos(keepAlive);
+    }
+
+    /**
+     * The pool <code>TCRunner</code> uses for <code>@MultiThreadedTest(pooledThreads = true)</code>.
+     */
+    public static TestThreadPool shared() {
+        return shared;
+    }
+
+    /**
+     * The number of threads of the pool that are alive, idle or not.
+     */
+    public int getPoolSize() {
+        return alive.get();
+    }
+
+    /**
+     * The number of threads the pool has ever created.
+     */
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    ThreadGroup group() {
+        return group;
+    }
+
+    /**
+     * Takes an idle thread out of the pool, or creates one if none is idle, and
+     * names it as given. It should be handed a function to run right away.
+     */
+    Thread acquire(String name) {
+        Carrier carrier;
+        while ((carrier = idle.poll()) != null && !carrier.isAlive())
+            ;
+        if (carrier == null) {
+            carrier = new Carrier(group, "Conductor-Pool-Thread-" + created.getAndIncrement());
+            alive.incrementAndGet();
+        }
+        carrier.setName(name);
+        return carrier;
+    }
+
+    /**
+     * Makes the given thread, just acquired from a pool, run the given function.
+     */
+    static void hand(Thread t, Runnable fun) {
+        Carrier carrier = (Carrier)t;
+        carrier.hand(fun);
+        if (carrier.getState() == Thread.State.NEW)
+            carrier.start();
+    }
+
+    /**
+     * Returns true if the given thread is one of the threads of a pool.
+     */
+    static boolean isPooled(Thread t) {
+        return t instanceof Carrier;
+    }
+
+    /**
+     * Stops the given pooled thread if it is still running the given function,
+     * and keeps it from going back to the pool, where the stop could hit it while
+     * it is running the function of another scenario.
+     *
+     * @return true if the thread was stopped
+     */
+    static boolean stopIfRunning(Thread t, Runnable fun) {
+        return ((Carrier)t).stopIfRunning(fun);
+    }
+
+    /*
+     * A pooled thread. It parks until it is handed a function, runs it, resets itself
+     * and goes back to the idle threads of its pool.
+     */
+    private final class Carrier extends Thread {
+        private final String idleName;
+        private final ClassLoader contextClassLoader;
+
+        // guarded by this
+        private Runnable task;
+        private boolean stopped = false;
+
+        Carrier(ThreadGroup group, String idleName) {
+            super(group, idleName);
+            this.idleName = idleName;
+            this.contextClassLoader = getContextClassLoader();
+            setDaemon(true);
+        }
+
+        synchronized void hand(Runnable fun) {
+            task = fun;
+            LockSupport.unpark(this);
+        }
+
+        @SuppressWarnings("deprecation")
+        synchronized boolean stopIfRunning(Runnable fun) {
+            if (task != fun)
+                return false;
+            stopped = true;
+            stop();
+            return true;
+        }
+
+        @Override
+        public void run() {
+            // it inherited the conductor of the thread that created it, if any, which
+            // doesn't outlive that scenario
+            RunnerConductor.bind(null);
+            try {
+                for (;;) {
+                    Runnable fun = awaitTask();
+                    if (fun == null)
+                        return;
+                    try {
+                        fun.run();
+                    } catch (Throwable t) {
+                        // the function reports its own failures
+                    }
+                    if (finishTask())
+                        return;
+                    reset();
+                    idle.add(this);
+                }
+            } finally {
+                alive.decrementAndGet();
+            }
+        }
+
+        /**
+         * Waits to be handed a function, and returns it, or returns null if none
+         * came for the keep alive time, and this thread has left the pool.
+         */
+        private Runnable awaitTask() {
+            long deadline = System.nanoTime() + keepAliveNanos;
+            for (;;) {
+                synchronized (this) {
+                    if (task != null)
+                        return task;
+                }
+                long left = deadline - System.nanoTime();
+                // once out of the idle queue, it can't be handed anything more
+                if (left <= 0 && idle.remove(this))
+                    return null;
+                LockSupport.parkNanos(this, Math.max(left, 0) + 1);
+            }
+        }
+
+        /**
+         * Forgets the function that was run, and returns true if the thread was stopped
+         * while running it. The stop may arrive at any point, even after the function is
+         * done, so it is caught here until the function is known to be forgotten, and a
+         * stopped thread doesn't go back to the pool.
+         */
+        private boolean finishTask() {
+            for (;;) {
+                try {
+                    synchronized (this) {
+                        task = null;
+                        return stopped;
+                    }
+                } catch (ThreadDeath late) {
+                    // stopped after the function was done
+                }
+            }
+        }
+
+        private void reset() {
+            Thread.interrupted();
+            setName(idleName);
+            setPriority(Thread.NORM_PRIORITY);
+            setContextClassLoader(contextClassLoader);
+            setUncaughtExceptionHandler(null);
+            RunnerConductor.bind(null);
+        }
+    }
+}
@@ -17,9 +17,36 @@ package com.notnoop.threadedtc;
 
 import java.lang.annotation.*;
 
+/**
+ * Makes <code>TCRunner</code> run the annotated method in a test thread of the
+ * scenario, named after the value, or the method if there is none.
+ *
+ * <p>
+ * With more than one instance, the method runs in that many test threads, named
+ * after the method followed by <code>-0</code>, <code>-1</code> and so on. A method
+ * that takes an <code>int</code> is passed the index of the instance running it.
+ * </p>
+ */
 @Documented
 @Target(ElementType.METHOD)
 @Retention(RetentionPolicy.RUNTIME)
 public @interface Threaded {
     String value() default "";
+
+    /**
+     * The number of test threads running the method.
+     */
+    int instances() default 1;
+
+    /**
+     * The name of a system property which, when set, overrides the number of
+     * instances, so that the same scenario can be run with more or fewer threads.
+     */
+    String instancesProperty() default "";
+
+    /**
+     * Whether a <code>@ScalingSweep</code> sets the number of instances of the method.
+     * If no method of the class is scaled, a sweep scales all of them.
+     */
+    boolean scaled() default false;
 }
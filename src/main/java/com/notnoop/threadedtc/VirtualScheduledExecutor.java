@@ -0,0 +1,296 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * The ScheduledExecutorService of VirtualTime. It runs its tasks one at a time, in
+ * a service thread of the conductor, which parks in virtual time until the next
+ * task is due. Like ScheduledThreadPoolExecutor, it still runs delayed tasks after
+ * shutdown, but not periodic ones.
+ */
+class VirtualScheduledExecutor extends AbstractExecutorService implements ScheduledExecutorService {
+    private final VirtualTime time;
+    private final Thread worker;
+
+    // guarded by this
+    private final PriorityQueue<Task<?>> queue = new PriorityQueue<Task<?>>();
+    private long sequence = 0;
+    private boolean shutdown = false;
+
+    private volatile boolean terminated = false;
+    private final ConcurrentLinkedQueue<Thread> terminationWaiters = new ConcurrentLinkedQueue<Thread>();
+
+    VirtualScheduledExecutor(VirtualTime time, String name) {
+        this.time = time;
+        this.worker = time.serviceThread(name, new Runnable() {
+            public void run() {
+                work();
+            }
+        });
+    }
+
+    private void work() {
+        try {
+            Task<?> task;
+            while ((task = take()) != null)
+                task.run();
+        } finally {
+            terminated = true;
+            Thread waiter;
+            while ((waiter = terminationWaiters.poll()) != null)
+                time.unpark(waiter);
+        }
+    }
+
+    /**
+     * Waits for the next task to be due, and returns it, or returns null once the
+     * executor has been shut down and there is nothing left to run.
+     */
+    private Task<?> take() {
+        // the worker may start before the constructor has set worker
+        final Thread self = Thread.currentThread();
+        for (;;) {
+            Task<?> first;
+            final long submitted;
+            synchronized (this) {
+                while ((first = queue.peek()) != null && first.isCancelled())
+                    queue.poll();
+                if (first == null && shutdown)
+                    return null;
+                if (first != null && first.due <= time.nanoTime()) {
+                    queue.poll();
+                    time.setServiceThreadIdle(self, false);
+                    return first;
+                }
+                // idle until a virtual time only once the conductor knows which one;
+                // until then, busy, and no longer woken unless a task is submitted
+                time.setServiceThreadIdle(self, first == null);
+                submitted = sequence;
+            }
+            if (first == null) {
+                LockSupport.park(this);
+            } else {
+                time.parkUntil(this, first.due, new Runnable() {
+                    public void run() {
+                        synchronized (VirtualScheduledExecutor.this) {
+                            // unless a task was submitted in the meantime
+                            if (sequence == submitted)
+                                time.setServiceThreadIdle(self, true);
+                        }
+                    }
+                });
+            }
+            // an interrupt is only meant for the task running at the time
+            Thread.interrupted();
+        }
+    }
+
+    private <V> Task<V> enqueue(Task<V> task) {
+        synchronized (this) {
+            if (shutdown)
+                throw new RejectedExecutionException("executorHasBeenShutDown");
+            task.sequence = sequence++;
+            queue.add(task);
+            // the worker may be parked until a later task, or for good
+            time.setServiceThreadIdle(worker, false);
+        }
+        time.unpark(worker);
+        return task;
+    }
+
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return enqueue(new Task<Object>(Executors.callable(command), time.deadlineAfter(unit.toNanos(delay)), 0));
+    }
+
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        return enqueue(new Task<V>(callable, time.deadlineAfter(unit.toNanos(delay)), 0));
+    }
+
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0)
+            throw new IllegalArgumentException();
+        return enqueue(new Task<Object>(Executors.callable(command),
+                time.deadlineAfter(unit.toNanos(initialDelay)), unit.toNanos(period)));
+    }
+
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        if (delay <= 0)
+            throw new IllegalArgumentException();
+        return enqueue(new Task<Object>(Executors.callable(command),
+                time.deadlineAfter(unit.toNanos(initialDelay)), -unit.toNanos(delay)));
+    }
+
+    public void execute(Runnable command) {
+        schedule(command, 0, TimeUnit.NANOSECONDS);
+    }
+
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            for (Iterator<Task<?>> i = queue.iterator(); i.hasNext(); ) {
+                Task<?> task = i.next();
+                if (task.period != 0) {
+                    task.cancel(false);
+                    i.remove();
+                }
+            }
+            time.setServiceThreadIdle(worker, false);
+        }
+        time.unpark(worker);
+    }
+
+    public List<Runnable> shutdownNow() {
+        List<Runnable> pending;
+        synchronized (this) {
+            shutdown = true;
+            pending = new ArrayList<Runnable>(queue);
+            queue.clear();
+            time.setServiceThreadIdle(worker, false);
+        }
+        worker.interrupt();
+        time.unpark(worker);
+        return pending;
+    }
+
+    public synchronized boolean isShutdown() {
+        return shutdown;
+    }
+
+    public boolean isTerminated() {
+        return terminated;
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = time.deadlineAfter(unit.toNanos(timeout));
+        Thread current = Thread.currentThread();
+        terminationWaiters.add(current);
+        try {
+            while (!terminated) {
+                if (time.nanoTime() >= deadline)
+                    return false;
+                time.parkUntil(this, deadline);
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+            }
+            return true;
+        } finally {
+            terminationWaiters.remove(current);
+        }
+    }
+
+    /*
+     * A task due at a virtual time. A positive period repeats it at a fixed rate,
+     * and a negative one with a fixed delay.
+     */
+    private class Task<V> extends FutureTask<V> implements RunnableScheduledFuture<V> {
+        private long due;
+        private final long period;
+        private long sequence;
+
+        private final ConcurrentLinkedQueue<Thread> getters = new ConcurrentLinkedQueue<Thread>();
+
+        Task(Callable<V> callable, long due, long period) {
+            super(callable);
+            this.due = due;
+            this.period = period;
+        }
+
+        public boolean isPeriodic() {
+            return period != 0;
+        }
+
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(due - VirtualScheduledExecutor.this.time.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        public int compareTo(Delayed other) {
+            if (other == this)
+                return 0;
+            if (other instanceof Task<?>) {
+                Task<?> task = (Task<?>)other;
+                if (due != task.due)
+                    return due < task.due ? -1 : 1;
+                return sequence < task.sequence ? -1 : 1;
+            }
+            long diff = getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+            return diff == 0 ? 0 : (diff < 0 ? -1 : 1);
+        }
+
+        @Override
+        public void run() {
+            if (!isPeriodic()) {
+                super.run();
+            } else if (runAndReset()) {
+                VirtualTime clock = VirtualScheduledExecutor.this.time;
+                due = period > 0 ? due + period : clock.deadlineAfter(-period);
+                synchronized (VirtualScheduledExecutor.this) {
+                    if (!shutdown) {
+                        queue.add(this);
+                        return;
+                    }
+                }
+                cancel(false);
+            }
+        }
+
+        @Override
+        public V get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            VirtualTime clock = VirtualScheduledExecutor.this.time;
+            long deadline = clock.deadlineAfter(unit.toNanos(timeout));
+            Thread current = Thread.currentThread();
+            getters.add(current);
+            try {
+                while (!isDone()) {
+                    if (clock.nanoTime() >= deadline)
+                        throw new TimeoutException();
+                    clock.parkUntil(this, deadline);
+                    if (Thread.interrupted())
+                        throw new InterruptedException();
+                }
+            } finally {
+                getters.remove(current);
+            }
+            return get();
+        }
+
+        @Override
+        protected void done() {
+            Thread getter;
+            while ((getter = getters.poll()) != null)
+                VirtualScheduledExecutor.this.time.unpark(getter);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.notnoop.threadedtc.internal.WaiterBuckets;
+
+/**
+ * A clock that only moves when a <code>Conductor</code> moves it, so that
+ * timed waits in a multi-threaded scenario don't take any real time.
+ *
+ * <p>
+ * Subjects that take a time source, a <code>ScheduledExecutorService</code>, or a
+ * way to sleep can be handed the ones of the <code>VirtualTime</code> of the
+ * <code>Conductor</code> running the scenario:
+ * </p>
+ *
+ * <ul>
+ * <li><code>nanoTime</code> and <code>currentTimeMillis</code> tell the virtual time.</li>
+ * <li><code>sleep</code> and <code>parkNanos</code> wait until a virtual time.</li>
+ * <li><code>newScheduledExecutor</code> runs tasks at virtual times.</li>
+ * </ul>
+ *
+ * <p>
+ * Virtual time starts at 0 nanoseconds, and stands still while any thread of the
+ * scenario is doing something. Once every thread is either blocked or parked until
+ * a virtual time, and none is waiting for a beat, the <code>Conductor</code> moves
+ * virtual time straight to the earliest time a thread is parked until, and wakes up
+ * the threads parked until then. A scenario whose threads sleep for an hour in
+ * virtual time therefore finishes in milliseconds. Beats take precedence: while a
+ * thread is waiting for a beat, the beat advances first, as it would while a thread
+ * sleeps in real time. Virtual time doesn't move while the conductor is frozen, nor
+ * while a thread is in a timed wait in real time.
+ * </p>
+ *
+ * <p>
+ * The methods of this class may be safely called by any thread.
+ * </p>
+ *
+ * @see Conductor#getVirtualTime()
+ */
+public final class VirtualTime {
+    private final Conductor conductor;
+
+    // the virtual time since the start, in nanoseconds
+    private final AtomicLong now = new AtomicLong(0);
+
+    // the wall clock time virtual time started at, in milliseconds
+    private final long epochMillis = System.currentTimeMillis();
+
+    // the threads parked until a virtual time, bucketed by that time
+    private final WaiterBuckets waiters = new WaiterBuckets();
+
+    private final CopyOnWriteArrayList<VirtualScheduledExecutor> executors
+        = new CopyOnWriteArrayList<VirtualScheduledExecutor>();
+
+    VirtualTime(Conductor conductor) {
+        this.conductor = conductor;
+    }
+
+    /**
+     * The virtual time, in nanoseconds since it started. Like
+     * <code>System.nanoTime</code>, it is only meaningful relative to other
+     * values returned by this method.
+     */
+    public long nanoTime() {
+        return now.get();
+    }
+
+    /**
+     * The virtual time, in milliseconds since the epoch, taking virtual time
+     * to have started at the wall clock time the conductor was created.
+     */
+    public long currentTimeMillis() {
+        return epochMillis + TimeUnit.NANOSECONDS.toMillis(now.get());
+    }
+
+    /**
+     * Sleeps for the given number of milliseconds of virtual time.
+     *
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public void sleep(long millis) throws InterruptedException {
+        sleep(millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sleeps for the given duration of virtual time.
+     *
+     * @throws InterruptedException if the current thread is interrupted
+     */
+    public void sleep(long duration, TimeUnit unit) throws InterruptedException {
+        if (Thread.interrupted())
+            throw new InterruptedException();
+        long deadline = deadlineAfter(unit.toNanos(duration));
+        while (now.get() < deadline) {
+            parkUntil(this, deadline);
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Disables the current thread until the given number of nanoseconds of virtual
+     * time have passed, it is unparked or interrupted, or for no reason at all, as
+     * <code>LockSupport.parkNanos</code> does in real time. Like that method, it
+     * doesn't report which; callers should check again what they are waiting for.
+     *
+     * @param blocker the object the thread is parking on, for diagnostics
+     * @param nanos the longest to wait, in nanoseconds of virtual time
+     */
+    public void parkNanos(Object blocker, long nanos) {
+        if (nanos > 0)
+            parkUntil(blocker, deadlineAfter(nanos));
+    }
+
+    /**
+     * Returns a <code>ScheduledExecutorService</code> that runs its tasks at the
+     * virtual times they are scheduled for, one at a time, in a thread of its own.
+     *
+     * <p>
+     * The thread of the executor takes part in the scenario while it runs a task,
+     * so the beat won't advance, and virtual time won't move, until the task is
+     * done or blocked. The scenario doesn't wait for the executor otherwise, and
+     * the executor is shut down once <code>conduct</code> returns. A timed
+     * <code>get</code> on a future it returns, and <code>awaitTermination</code>,
+     * wait in virtual time; the timed <code>invokeAll</code> and <code>invokeAny</code>
+     * wait in real time.
+     * </p>
+     */
+    public ScheduledExecutorService newScheduledExecutor() {
+        VirtualScheduledExecutor executor = new VirtualScheduledExecutor(this,
+                "Conductor-Scheduler-" + executors.size());
+        executors.add(executor);
+        return executor;
+    }
+
+    /**
+     * Parks the current thread once, unless the given virtual time has passed.
+     */
+    void parkUntil(Object blocker, long deadline) {
+        parkUntil(blocker, deadline, null);
+    }
+
+    /**
+     * Parks the current thread once, unless the given virtual time has passed, and
+     * runs the given function, if any, once the conductor knows what the thread is
+     * waiting for, before it parks.
+     */
+    void parkUntil(Object blocker, long deadline, Runnable parking) {
+        Thread current = Thread.currentThread();
+        waiters.add(deadline, current);
+        conductor.virtualWaitStarted(deadline);
+        try {
+            if (parking != null)
+                parking.run();
+            if (now.get() < deadline)
+                LockSupport.park(blocker);
+        } finally {
+            waiters.remove(deadline, current);
+            conductor.virtualWaitEnded();
+        }
+    }
+
+    /**
+     * Unparks the given thread, which may be parked in virtual time, and lets the
+     * conductor know right away that it no longer is, rather than once it has run
+     * again, so that the clock doesn't take it for waiting in the meantime.
+     */
+    void unpark(Thread thread) {
+        conductor.virtualWaiterWoken(thread);
+        LockSupport.unpark(thread);
+    }
+
+    long deadlineAfter(long nanos) {
+        long current = now.get();
+        // Long.MAX_VALUE stands for no deadline in WaiterBuckets
+        if (nanos >= Long.MAX_VALUE - 1 - current)
+            return Long.MAX_VALUE - 1;
+        return current + Math.max(nanos, 0);
+    }
+
+    Thread serviceThread(String name, Runnable fun) {
+        return conductor.serviceThread(name, fun);
+    }
+
+    void setServiceThreadIdle(Thread service, boolean idle) {
+        conductor.setServiceThreadIdle(service, idle);
+    }
+
+    /**
+     * Returns the earliest virtual time a thread is parked until, or
+     * <code>Long.MAX_VALUE</code> if none is.
+     */
+    long nextDeadline() {
+        return waiters.lowestWaitedFor(now.get());
+    }
+
+    /**
+     * Moves virtual time forward to the given time. Only the clock thread should be
+     * calling this, followed by <code>release</code>.
+     */
+    void moveTo(long time) {
+        now.set(time);
+    }
+
+    /**
+     * Unparks the threads parked until the given virtual time, or earlier.
+     */
+    void release(long time) {
+        waiters.release(time);
+    }
+
+    /**
+     * Shuts down all the executors, once the scenario is over.
+     */
+    void shutdownExecutors() {
+        for (VirtualScheduledExecutor executor : executors)
+            executor.shutdownNow();
+    }
+}
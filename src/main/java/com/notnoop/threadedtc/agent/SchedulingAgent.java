@@ -0,0 +1,226 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc.agent;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.security.ProtectionDomain;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * A java agent making the classes of the subject call <code>SchedulingPoints</code>
+ * before every field access, <code>monitorenter</code> and <code>monitorexit</code>,
+ * call to a lock or condition of <code>java.util.concurrent.locks</code>, and at the
+ * start of every synchronized method. Stressed scenarios with subject noise (see
+ * <code>Conductor.setSubjectNoise</code>) then inject noise at those points too, and
+ * explored scenarios (see <code>Explore</code>) switch threads there, so that they
+ * reach races inside the subject rather than only at the calls its test threads make
+ * to the <code>Conductor</code>.
+ *
+ * <p>
+ * The agent is passed the packages of the subject, subpackages included, separated
+ * by commas:
+ * </p>
+ *
+ * <pre>
+ * -javaagent:threadedtc.jar=com.example.cache,com.example.queue
+ * </pre>
+ *
+ * <p>
+ * Only classes loaded after the agent is installed are instrumented. A constructor
+ * has no points for the fields of its own class, as the object isn't shared yet. The
+ * agent needs ASM on the class path.
+ * </p>
+ */
+public final class SchedulingAgent {
+    private static final String Points = "com/notnoop/threadedtc/agent/SchedulingPoints";
+    private static final String Locks = "java/util/concurrent/locks/";
+
+    private SchedulingAgent() {
+    }
+
+    public static void premain(String args, Instrumentation instrumentation) {
+        instrumentation.addTransformer(new Transformer(packages(args)));
+        SchedulingPoints.install();
+    }
+
+    private static String[] packages(String args) {
+        if (args == null || args.trim().isEmpty())
+            throw new IllegalArgumentException("schedulingAgentNeedsSubjectPackages");
+        String[] packages = args.split(",");
+        for (int i = 0; i < packages.length; i++)
+            packages[i] = packages[i].trim().replace('.', '/') + "/";
+        return packages;
+    }
+
+    /**
+     * Returns the given class file with calls to the scheduling points added.
+     */
+    public static byte[] instrument(byte[] classfile) {
+        ClassReader reader = new ClassReader(classfile);
+        // the points are passed copies of what is on the stack, which takes up to two
+        // more slots, but leave it as it was, so the stack map frames stay the same
+        ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+        reader.accept(new PointsAdder(writer), 0);
+        return writer.toByteArray();
+    }
+
+    private static final class Transformer implements ClassFileTransformer {
+        private final String[] packages;
+
+        Transformer(String[] packages) {
+            this.packages = packages;
+        }
+
+        public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                ProtectionDomain protectionDomain, byte[] classfile) {
+            if (className == null || className.startsWith("com/notnoop/threadedtc/"))
+                return null;
+            try {
+                for (String prefix : packages) {
+                    if (className.startsWith(prefix))
+                        return instrument(classfile);
+                }
+                return null;
+            } catch (RuntimeException e) {
+                // the JVM would swallow it and load the class as it is anyway
+                e.printStackTrace();
+                return null;
+            }
+        }
+    }
+
+    private static final class PointsAdder extends ClassVisitor {
+        private String className;
+
+        PointsAdder(ClassVisitor next) {
+            super(Opcodes.ASM9, next);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature,
+                String superName, String[] interfaces) {
+            this.className = name;
+            super.visit(version, access, name, signature, superName, interfaces);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor,
+                String signature, String[] exceptions) {
+            MethodVisitor next = super.visitMethod(access, name, descriptor, signature, exceptions);
+            if (next == null || name.equals("<clinit>"))
+                return next;
+            return new MethodPointsAdder(next, className, access, name.equals("<init>"));
+        }
+    }
+
+    private static final class MethodPointsAdder extends MethodVisitor {
+        private final String className;
+        private final int access;
+        private final boolean constructor;
+
+        MethodPointsAdder(MethodVisitor next, String className, int access, boolean constructor) {
+            super(Opcodes.ASM9, next);
+            this.className = className;
+            this.access = access;
+            this.constructor = constructor;
+        }
+
+        private void point(String name, String descriptor) {
+            super.visitMethodInsn(Opcodes.INVOKESTATIC, Points, name, descriptor, false);
+        }
+
+        @Override
+        public void visitCode() {
+            super.visitCode();
+            if ((access & Opcodes.ACC_SYNCHRONIZED) == 0)
+                return;
+            if ((access & Opcodes.ACC_STATIC) == 0)
+                super.visitVarInsn(Opcodes.ALOAD, 0);
+            else
+                super.visitLdcInsn(Type.getObjectType(className));
+            point("monitor", "(Ljava/lang/Object;)V");
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name, String descriptor) {
+            String member = owner + "." + name;
+            // the object may not be initialized yet, and can't be passed anywhere
+            if (constructor && owner.equals(className)) {
+                super.visitFieldInsn(opcode, owner, name, descriptor);
+                return;
+            }
+            switch (opcode) {
+            case Opcodes.GETFIELD:
+                super.visitInsn(Opcodes.DUP);
+                super.visitLdcInsn(member);
+                point("read", "(Ljava/lang/Object;Ljava/lang/String;)V");
+                break;
+            case Opcodes.PUTFIELD:
+                // copy the object from under the value
+                if (Type.getType(descriptor).getSize() == 2) {
+                    super.visitInsn(Opcodes.DUP2_X1);
+                    super.visitInsn(Opcodes.POP2);
+                    super.visitInsn(Opcodes.DUP_X2);
+                } else {
+                    super.visitInsn(Opcodes.DUP2);
+                    super.visitInsn(Opcodes.POP);
+                }
+                super.visitLdcInsn(member);
+                point("write", "(Ljava/lang/Object;Ljava/lang/String;)V");
+                break;
+            case Opcodes.GETSTATIC:
+                super.visitLdcInsn(member);
+                point("readStatic", "(Ljava/lang/String;)V");
+                break;
+            default:
+                super.visitLdcInsn(member);
+                point("writeStatic", "(Ljava/lang/String;)V");
+            }
+            super.visitFieldInsn(opcode, owner, name, descriptor);
+        }
+
+        @Override
+        public void visitInsn(int opcode) {
+            if (opcode == Opcodes.MONITORENTER || opcode == Opcodes.MONITOREXIT) {
+                super.visitInsn(Opcodes.DUP);
+                point("monitor", "(Ljava/lang/Object;)V");
+            }
+            super.visitInsn(opcode);
+        }
+
+        @Override
+        public void visitMethodInsn(int opcode, String owner, String name, String descriptor,
+                boolean isInterface) {
+            if (opcode != Opcodes.INVOKESTATIC && owner.startsWith(Locks) && !name.equals("<init>")) {
+                // only the lock of a call without arguments is on top of the stack
+                if (Type.getArgumentTypes(descriptor).length == 0) {
+                    super.visitInsn(Opcodes.DUP);
+                    point("monitor", "(Ljava/lang/Object;)V");
+                } else {
+                    point("global", "()V");
+                }
+            }
+            super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+        }
+    }
+}
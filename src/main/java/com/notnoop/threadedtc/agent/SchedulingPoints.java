@@ -0,0 +1,163 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc.agent;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The points the <code>SchedulingAgent</code> makes the subject call, before its
+ * field accesses, monitor operations and lock calls. At these points, the test
+ * threads of a stressed scenario inject noise into their schedules, and those of an
+ * explored scenario wait for their turn. The class is public for the sake of the
+ * instrumented classes, and not meant to be called by tests.
+ *
+ * <p>
+ * Each point names what is about to be accessed: an object and a field, a static
+ * field, a monitor or a lock. Points that can't tell, such as calls to a lock that
+ * take arguments, are global, as if they accessed everything.
+ * </p>
+ *
+ * <p>
+ * Only threads registered while running a scenario do anything at the points.
+ * While there are none, in any scenario, a point only reads a volatile count, so
+ * instrumented classes run at nearly full speed in the other tests of the JVM.
+ * </p>
+ */
+public final class SchedulingPoints {
+    // set by the agent once it is installed
+    private static volatile boolean installed = false;
+
+    // the number of threads registered, in any scenario
+    private static final AtomicInteger registered = new AtomicInteger(0);
+
+    private static final ThreadLocal<Listener> current = new ThreadLocal<Listener>();
+
+    private SchedulingPoints() {
+    }
+
+    static void install() {
+        installed = true;
+    }
+
+    /**
+     * Returns true if the agent is installed, so that the points are called.
+     */
+    public static boolean isInstalled() {
+        return installed;
+    }
+
+    /**
+     * Makes the given listener hear about the points the calling thread reaches,
+     * until it unregisters.
+     */
+    public static void register(Listener listener) {
+        if (current.get() != null)
+            return;
+        current.set(listener);
+        registered.incrementAndGet();
+    }
+
+    /**
+     * Stops the calling thread from calling its listener, if it was registered.
+     */
+    public static void unregister() {
+        if (current.get() == null)
+            return;
+        current.remove();
+        registered.decrementAndGet();
+    }
+
+    /**
+     * Called before a read of the given field of the given object.
+     */
+    public static void read(Object target, String member) {
+        if (registered.get() != 0)
+            reached(target, member, false);
+    }
+
+    /**
+     * Called before a write of the given field of the given object.
+     */
+    public static void write(Object target, String member) {
+        if (registered.get() != 0)
+            reached(target, member, true);
+    }
+
+    /**
+     * Called before a read of the given static field.
+     */
+    public static void readStatic(String member) {
+        if (registered.get() != 0)
+            reached(null, member, false);
+    }
+
+    /**
+     * Called before a write of the given static field.
+     */
+    public static void writeStatic(String member) {
+        if (registered.get() != 0)
+            reached(null, member, true);
+    }
+
+    /**
+     * Called before entering or leaving the monitor of the given object, or
+     * calling a method of the given lock or condition.
+     */
+    public static void monitor(Object target) {
+        if (registered.get() != 0)
+            reached(target, null, true);
+    }
+
+    /**
+     * Called before anything that might access anything.
+     */
+    public static void global() {
+        if (registered.get() != 0)
+            reached(null, null, true);
+    }
+
+    private static void reached(Object target, String member, boolean write) {
+        Listener listener = current.get();
+        if (listener != null)
+            listener.point(target, member, write);
+    }
+
+    /**
+     * What a registered thread does at the points it reaches.
+     */
+    public abstract static class Listener {
+        // set while at a point, in case the listener itself runs instrumented code
+        private boolean reaching = false;
+
+        final void point(Object target, String member, boolean write) {
+            if (reaching)
+                return;
+            reaching = true;
+            try {
+                reached(target, member, write);
+            } finally {
+                reaching = false;
+            }
+        }
+
+        /**
+         * Called on the registered thread before it accesses the given field of the
+         * given object, the given static field (with no target), the monitor or lock
+         * that is the target (with no member), or anything (with neither).
+         */
+        protected abstract void reached(Object target, String member, boolean write);
+    }
+}
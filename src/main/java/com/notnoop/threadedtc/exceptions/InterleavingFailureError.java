@@ -0,0 +1,45 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc.exceptions;
+
+/**
+ * The failure of an explored scenario, or of a shrunk schedule, along with the
+ * schedule its threads ran in, written as <code>Schedule.toString</code> writes it.
+ */
+public class InterleavingFailureError extends Error {
+    private static final long serialVersionUID = 3318925207317846271L;
+
+    private final String schedule;
+
+    public InterleavingFailureError(String schedule, Throwable cause) {
+        super("failingSchedule: " + schedule + ": " + cause, cause);
+        this.schedule = schedule;
+    }
+
+    /**
+     * The same failure, with a summary of the exploration that found it, or of the
+     * shrinking that led to it, appended to the message.
+     */
+    public InterleavingFailureError(InterleavingFailureError failure, String summary) {
+        super(failure.getMessage() + "\n" + summary, failure.getCause());
+        this.schedule = failure.schedule;
+        setStackTrace(failure.getStackTrace());
+    }
+
+    public String getSchedule() {
+        return schedule;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc.exceptions;
+
+import java.io.File;
+
+/**
+ * The failure of a stressed repetition, along with the seed its noise was drawn
+ * from, so that it can be run again with the same noise, and the log of its
+ * schedule, if it was written, so that it can be replayed.
+ */
+public class StressFailureError extends Error {
+    private static final long serialVersionUID = -5327419084436193378L;
+
+    private final long seed;
+    private final File scheduleLog;
+
+    public StressFailureError(long seed, Throwable cause) {
+        this(seed, null, cause);
+    }
+
+    public StressFailureError(long seed, File scheduleLog, Throwable cause) {
+        super("stressedRunFailed: seed=" + seed
+                + (scheduleLog == null ? "" : ", schedule=" + scheduleLog) + ": " + cause, cause);
+        this.seed = seed;
+        this.scheduleLog = scheduleLog;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Returns the file the schedule of the failed repetition was written to, or
+     * null if it wasn't.
+     */
+    public File getScheduleLog() {
+        return scheduleLog;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc.internal;
+
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MonitorInfo;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Asks the JVM, through its ThreadMXBean, whether threads are deadlocked, and
+ * describes what they are waiting for. Deadlocks on both monitors and ownable
+ * synchronizers (such as ReentrantLock) are found, where the JVM supports it.
+ */
+public class DeadlockFinder {
+    private final ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+    private final boolean synchronizers = mx.isSynchronizerUsageSupported();
+    private final boolean monitors = mx.isObjectMonitorUsageSupported();
+
+    /**
+     * Returns a description of the wait-for cycle the given threads are part of,
+     * or null if none of them is deadlocked.
+     *
+     * The description starts with one of the given threads, and follows each
+     * thread to the owner of the lock it waits for, until it gets back to the
+     * start. Threads that are stuck waiting on the cycle without being part of it
+     * are listed after it.
+     */
+    public String findDeadlock(List<? extends Thread> threads) {
+        long[] deadlocked = synchronizers
+            ? mx.findDeadlockedThreads() : mx.findMonitorDeadlockedThreads();
+        if (deadlocked == null)
+            return null;
+
+        ThreadInfo[] infos = mx.getThreadInfo(deadlocked, monitors, synchronizers);
+        Map<Long, ThreadInfo> byId = new HashMap<Long, ThreadInfo>();
+        for (ThreadInfo info : infos) {
+            if (info != null)
+                byId.put(info.getThreadId(), info);
+        }
+
+        ThreadInfo start = null;
+        for (Thread t : threads) {
+            start = byId.get(t.getId());
+            if (start != null)
+                break;
+        }
+        if (start == null)
+            return null;
+
+        // walk to the cycle: a thread waiting on the cycle isn't necessarily in it
+        ThreadInfo current = start;
+        for (int i = 0; i < byId.size(); i++)
+            current = owner(current, byId);
+
+        Set<ThreadInfo> cycle = new LinkedHashSet<ThreadInfo>();
+        while (cycle.add(current))
+            current = owner(current, byId);
+
+        StringBuilder out = new StringBuilder();
+        out.append("Wait-for cycle:\n");
+        for (ThreadInfo info : cycle)
+            describe(info, out);
+        List<ThreadInfo> rest = new ArrayList<ThreadInfo>(byId.values());
+        rest.removeAll(cycle);
+        if (!rest.isEmpty()) {
+            out.append("Also waiting on it:\n");
+            for (ThreadInfo info : rest)
+                describe(info, out);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Describes the state, the lock waited for and the stack of each of the given
+     * threads that is still alive. The JVM doesn't know about virtual threads, so
+     * only their state and stack are described.
+     */
+    public String describe(List<? extends Thread> threads) {
+        StringBuilder out = new StringBuilder();
+        for (Thread t : threads) {
+            ThreadInfo info = mx.getThreadInfo(new long[] { t.getId() }, monitors, synchronizers)[0];
+            if (info != null)
+                describe(info, out);
+            else if (t.isAlive())
+                describe(t, out);
+        }
+        return out.toString();
+    }
+
+    private static ThreadInfo owner(ThreadInfo info, Map<Long, ThreadInfo> byId) {
+        ThreadInfo owner = byId.get(info.getLockOwnerId());
+        return owner == null ? info : owner;
+    }
+
+    private static void describe(Thread t, StringBuilder out) {
+        out.append('"').append(t.getName()).append("\" ").append(t.getState()).append('\n');
+        for (StackTraceElement element : t.getStackTrace())
+            out.append("\tat ").append(element).append('\n');
+    }
+
+    private static void describe(ThreadInfo info, StringBuilder out) {
+        out.append('"').append(info.getThreadName()).append("\" ").append(info.getThreadState());
+        if (info.getLockName() != null)
+            out.append(" on ").append(info.getLockName());
+        if (info.getLockOwnerName() != null)
+            out.append(" owned by \"").append(info.getLockOwnerName()).append('"');
+        out.append('\n');
+
+        StackTraceElement[] stack = info.getStackTrace();
+        MonitorInfo[] locked = info.getLockedMonitors();
+        for (int depth = 0; depth < stack.length; depth++) {
+            out.append("\tat ").append(stack[depth]).append('\n');
+            for (MonitorInfo monitor : locked) {
+                if (monitor.getLockedStackDepth() == depth)
+                    out.append("\t- locked ").append(monitor).append('\n');
+            }
+        }
+        LockInfo[] synchronizers = info.getLockedSynchronizers();
+        for (LockInfo synchronizer : synchronizers)
+            out.append("\t- holds ").append(synchronizer).append('\n');
+    }
+}
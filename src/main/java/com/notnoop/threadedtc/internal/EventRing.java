@@ -0,0 +1,105 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * A bounded queue of events, preallocated, with a single producer and a single
+ * consumer. An event is a kind, a value and the time it happened at. The producer
+ * writes an event in place, then publishes it by moving the tail; the consumer reads
+ * it, then frees its slot by moving the head. Neither ever takes a lock, and the
+ * producer only reads the head again when the ring looks full.
+ */
+public final class EventRing {
+    private final long[] events;
+    private final long[] times;
+    private final int mask;
+
+    // the next event to consume, and the next to publish
+    private final AtomicLong head = new AtomicLong(0);
+    private final AtomicLong tail = new AtomicLong(0);
+
+    // the producer's last reading of head
+    private long knownHead = 0;
+
+    /**
+     * Creates a ring holding up to <code>capacity</code> events, rounded up to a
+     * power of two.
+     */
+    public EventRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.events = new long[size];
+        this.times = new long[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Adds an event, unless the ring is full. Only called by the producer.
+     *
+     * @return false if the ring is full
+     */
+    public boolean offer(int kind, int value, long time) {
+        long t = tail.get();
+        if (t - knownHead > mask) {
+            knownHead = head.get();
+            if (t - knownHead > mask)
+                return false;
+        }
+        int index = (int)t & mask;
+        events[index] = (long)kind << 32 | (value & 0xFFFFFFFFL);
+        times[index] = time;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Returns true if there is no event to consume. Only called by the consumer.
+     */
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    /**
+     * Returns the time of the next event. Only called by the consumer, if the ring
+     * isn't empty.
+     */
+    public long peekTime() {
+        return times[(int)head.get() & mask];
+    }
+
+    /**
+     * Returns the kind of the next event, as for <code>peekTime</code>.
+     */
+    public int peekKind() {
+        return (int)(events[(int)head.get() & mask] >>> 32);
+    }
+
+    /**
+     * Returns the value of the next event, as for <code>peekTime</code>.
+     */
+    public int peekValue() {
+        return (int)events[(int)head.get() & mask];
+    }
+
+    /**
+     * Frees the slot of the next event. Only called by the consumer, once it is
+     * done with it.
+     */
+    public void remove() {
+        head.lazySet(head.get() + 1);
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc.internal;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * Commits Java Flight Recorder events for what a conductor does, on JVMs whose JFR
+ * can define events at run time (Java 12 and later), through reflection, so that the
+ * library still builds for, and runs on, older JVMs.
+ *
+ * The events are only defined once a recording is running, and until then each of
+ * the methods below only reads a volatile flag, kept up to date by a listener of the
+ * recorder. An event is committed by the thread it happened on, so that a recording
+ * lines it up with what that thread did around it.
+ *
+ * All events are in the "ThreadedTC" category, and named com.notnoop.threadedtc.*.
+ */
+public class FlightEvents {
+    private static final int BeatAdvanced = 0;
+    private static final int ThreadRegistered = 1;
+    private static final int ClockFrozen = 2;
+    private static final int DeadlockSuspected = 3;
+    private static final int TimeoutFired = 4;
+    private static final int ScenarioFinished = 5;
+
+    // the name, label, and fields (type, name, label) of each event
+    private static final Object[][] Definitions = {
+        { "BeatAdvanced", "Beat Advanced", int.class, "beat", "Beat" },
+        { "ThreadRegistered", "Thread Registered", String.class, "thread", "Test Thread",
+                int.class, "beat", "Beat" },
+        { "ClockFrozen", "Clock Frozen", String.class, "thread", "Test Thread",
+                int.class, "beat", "Beat" },
+        { "DeadlockSuspected", "Deadlock Suspected", int.class, "suspicions", "Suspicions",
+                int.class, "beat", "Beat" },
+        { "TimeoutFired", "Timeout Fired", int.class, "beat", "Beat" },
+        { "ScenarioFinished", "Scenario Finished", int.class, "beat", "Beat",
+                int.class, "threads", "Test Threads", boolean.class, "failed", "Failed" },
+    };
+
+    private static final Method getState;
+    private static final Method begin;
+    private static final Method set;
+    private static final Method commit;
+
+    // true while a recording is running
+    private static volatile boolean recording = false;
+    // guarded by the class
+    private static final Set<Object> runningRecordings
+        = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    // the factory of each event, once defined; null if they couldn't be
+    private static volatile Object[] factories;
+    private static Method newEvent;
+    private static boolean defined = false;
+
+    static {
+        Method[] methods = null;
+        Class<?> listener = null;
+        try {
+            Class<?> recorder = Class.forName("jdk.jfr.FlightRecorder");
+            Class<?> event = Class.forName("jdk.jfr.Event");
+            listener = Class.forName("jdk.jfr.FlightRecorderListener");
+            // defining events at run time came with Java 12
+            Class.forName("jdk.jfr.EventFactory");
+            methods = new Method[] {
+                Class.forName("jdk.jfr.Recording").getMethod("getState"),
+                event.getMethod("begin"),
+                event.getMethod("set", int.class, Object.class),
+                event.getMethod("commit"),
+                recorder.getMethod("addListener", listener),
+                recorder.getMethod("isInitialized"),
+                recorder.getMethod("getFlightRecorder"),
+                recorder.getMethod("getRecordings"),
+            };
+        } catch (Exception e) {
+            methods = null;
+        } catch (LinkageError e) {
+            methods = null;
+        }
+        getState = methods == null ? null : methods[0];
+        begin = methods == null ? null : methods[1];
+        set = methods == null ? null : methods[2];
+        commit = methods == null ? null : methods[3];
+        if (methods != null)
+            watchRecordings(listener, methods[4], methods[5], methods[6], methods[7]);
+    }
+
+    /*
+     * Keeps track of the recordings that are running, from now on, and those
+     * started before, e.g. with -XX:StartFlightRecording. Doesn't initialize JFR.
+     */
+    private static void watchRecordings(Class<?> listener, Method addListener, Method isInitialized,
+            Method getFlightRecorder, Method getRecordings) {
+        Object stateListener = Proxy.newProxyInstance(FlightEvents.class.getClassLoader(),
+                new Class<?>[] { listener }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("recordingStateChanged"))
+                    recordingStateChanged(args[0]);
+                else if (method.getName().equals("equals"))
+                    return proxy == args[0];
+                else if (method.getName().equals("hashCode"))
+                    return System.identityHashCode(proxy);
+                else if (method.getName().equals("toString"))
+                    return "FlightEvents";
+                return null;
+            }
+        });
+        try {
+            addListener.invoke(null, stateListener);
+            if ((Boolean)isInitialized.invoke(null)) {
+                for (Object r : (List<?>)getRecordings.invoke(getFlightRecorder.invoke(null)))
+                    recordingStateChanged(r);
+            }
+        } catch (Exception e) {
+            // then the events are never committed
+        }
+    }
+
+    public static boolean isSupported() {
+        return commit != null;
+    }
+
+    /**
+     * Returns true while a recording is running, and the events could be defined.
+     */
+    public static boolean isRecording() {
+        return recording && define();
+    }
+
+    private static void recordingStateChanged(Object r) {
+        boolean running;
+        try {
+            running = String.valueOf(getState.invoke(r)).equals("RUNNING");
+        } catch (Exception e) {
+            return;
+        }
+        synchronized (FlightEvents.class) {
+            if (running)
+                runningRecordings.add(r);
+            else
+                runningRecordings.remove(r);
+            recording = !runningRecordings.isEmpty();
+        }
+    }
+
+    /*
+     * Defines the events, the first time a recording is running, and returns false
+     * if they couldn't be.
+     */
+    private static boolean define() {
+        if (factories != null)
+            return true;
+        synchronized (FlightEvents.class) {
+            if (defined)
+                return factories != null;
+            defined = true;
+            try {
+                Class<?> factory = Class.forName("jdk.jfr.EventFactory");
+                Class<?> annotation = Class.forName("jdk.jfr.AnnotationElement");
+                Class<?> descriptor = Class.forName("jdk.jfr.ValueDescriptor");
+                Constructor<?> newAnnotation = annotation.getConstructor(Class.class, Object.class);
+                Constructor<?> newDescriptor = descriptor.getConstructor(Class.class, String.class, List.class);
+                Method create = factory.getMethod("create", List.class, List.class);
+                Class<?> name = Class.forName("jdk.jfr.Name");
+                Class<?> label = Class.forName("jdk.jfr.Label");
+                Class<?> category = Class.forName("jdk.jfr.Category");
+
+                Object[] created = new Object[Definitions.length];
+                for (int i = 0; i < Definitions.length; i++) {
+                    Object[] definition = Definitions[i];
+                    List<Object> annotations = Arrays.asList(
+                            newAnnotation.newInstance(name, "com.notnoop.threadedtc." + definition[0]),
+                            newAnnotation.newInstance(label, definition[1]),
+                            newAnnotation.newInstance(category, new String[] { "ThreadedTC" }));
+                    List<Object> fields = new ArrayList<Object>();
+                    for (int j = 2; j < definition.length; j += 3) {
+                        List<Object> fieldLabel = Collections.singletonList(
+                                newAnnotation.newInstance(label, definition[j + 2]));
+                        fields.add(newDescriptor.newInstance(definition[j], definition[j + 1], fieldLabel));
+                    }
+                    created[i] = create.invoke(null, annotations, fields);
+                }
+                newEvent = factory.getMethod("newEvent");
+                factories = created;
+                return true;
+            } catch (Exception e) {
+                return false;
+            } catch (LinkageError e) {
+                return false;
+            }
+        }
+    }
+
+    /*
+     * Returns a new event of the given type, begun, or null if the JVM can't
+     * record it.
+     */
+    private static Object begin(int type) {
+        try {
+            Object event = newEvent.invoke(factories[type]);
+            begin.invoke(event);
+            return event;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static void commit(Object event, Object... values) {
+        if (event == null)
+            return;
+        try {
+            for (int i = 0; i < values.length; i++)
+                set.invoke(event, i, values[i]);
+            commit.invoke(event);
+        } catch (Exception e) {
+            // the recording goes on without it
+        }
+    }
+
+    public static void beatAdvanced(int beat) {
+        if (isRecording())
+            commit(begin(BeatAdvanced), beat);
+    }
+
+    public static void threadRegistered(String thread, int beat) {
+        if (isRecording())
+            commit(begin(ThreadRegistered), thread, beat);
+    }
+
+    /**
+     * Begins a ClockFrozen event, which lasts until it is passed to clockUnfrozen,
+     * and returns it, or null if there is no recording.
+     */
+    public static Object clockFrozen() {
+        return isRecording() ? begin(ClockFrozen) : null;
+    }
+
+    public static void clockUnfrozen(Object frozen, String thread, int beat) {
+        if (frozen != null)
+            commit(frozen, thread, beat);
+    }
+
+    public static void deadlockSuspected(int suspicions, int beat) {
+        if (isRecording())
+            commit(begin(DeadlockSuspected), suspicions, beat);
+    }
+
+    public static void timeoutFired(int beat) {
+        if (isRecording())
+            commit(begin(TimeoutFired), beat);
+    }
+
+    /**
+     * Begins a ScenarioFinished event, which lasts until it is passed to
+     * scenarioFinished, and returns it, or null if there is no recording.
+     */
+    public static Object scenarioStarted() {
+        return isRecording() ? begin(ScenarioFinished) : null;
+    }
+
+    public static void scenarioFinished(Object started, int beat, int threads, boolean failed) {
+        if (started != null)
+            commit(started, beat, threads, failed);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/*
+ * Loads a test class, its nested classes, and the classes of the given packages
+ * (and their subpackages) itself, from the class files its parent would load them
+ * from, so that they get static state of their own. Every other class, the JDK,
+ * JUnit and this library included, comes from the parent as usual.
+ */
+public class IsolatingClassLoader extends ClassLoader {
+    private final String testClassName;
+    private final String[] packagePrefixes;
+
+    public IsolatingClassLoader(ClassLoader parent, String testClassName, String[] packages) {
+        super(parent);
+        this.testClassName = testClassName;
+        this.packagePrefixes = new String[packages.length];
+        for (int i = 0; i < packages.length; i++)
+            packagePrefixes[i] = packages[i] + ".";
+    }
+
+    /**
+     * Returns true if the class of the given name is loaded by this loader.
+     */
+    public boolean isIsolated(String name) {
+        if (name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.")
+                || name.startsWith("org.junit.") || name.startsWith("junit.")
+                || name.startsWith("com.notnoop.threadedtc."))
+            return false;
+        if (name.equals(testClassName) || name.startsWith(testClassName + "$"))
+            return true;
+        for (String prefix : packagePrefixes) {
+            if (name.startsWith(prefix))
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (!isIsolated(name))
+            return super.loadClass(name, resolve);
+
+        Class<?> c = findLoadedClass(name);
+        if (c == null)
+            c = findClass(name);
+        if (resolve)
+            resolveClass(c);
+        return c;
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class");
+        if (in == null)
+            throw new ClassNotFoundException(name);
+        try {
+            byte[] bytes = readFully(in);
+            return defineClass(name, bytes, 0, bytes.length);
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // nothing was written
+            }
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1)
+            out.write(buffer, 0, read);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc.internal;
+
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Seeded noise one thread injects into its own schedule: at each point it is
+ * asked to, it either goes on, yields, spins or parks for a few microseconds.
+ * The choices only depend on the seed and the name of the thread, so a thread
+ * makes the same ones whenever a scenario is run again with the same seed.
+ *
+ * An instance belongs to one thread, and isn't thread safe.
+ */
+public final class ScheduleNoise {
+    private static final int MaxYields = 4;
+    private static final int MaxSpins = 1 << 14;
+    private static final long MaxParkNanos = 200L * 1000L;
+
+    // the state of a SplitMix64 generator
+    private long state;
+
+    // written by spin, so the JIT can't drop the loop
+    private long sink;
+
+    public ScheduleNoise(long seed, String threadName) {
+        this.state = seed ^ mix(threadName.hashCode());
+    }
+
+    /**
+     * Returns the next value of the generator, for callers that make choices of
+     * their own from the same seed.
+     */
+    public long next() {
+        return mix(state += 0x9E3779B97F4A7C15L);
+    }
+
+    /**
+     * Goes on, yields, spins or parks, as the seed says.
+     */
+    public void perturb() {
+        long r = next();
+        switch ((int)(r & 3)) {
+        case 0:
+            return;
+        case 1:
+            for (int i = (int)((r >>> 2) % MaxYields); i >= 0; i--)
+                Thread.yield();
+            return;
+        case 2:
+            spin((int)((r >>> 2) % MaxSpins));
+            return;
+        default:
+            LockSupport.parkNanos(1000L + (r >>> 2) % MaxParkNanos);
+        }
+    }
+
+    /**
+     * Perturbs at one in <code>oneIn</code> of the calls, as the seed says.
+     */
+    public void perturbOneIn(int oneIn) {
+        if ((next() & Long.MAX_VALUE) % oneIn == 0)
+            perturb();
+    }
+
+    private void spin(int spins) {
+        long x = sink;
+        for (int i = 0; i < spins; i++)
+            x = x * 31 + i;
+        sink = x;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,514 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.notnoop.threadedtc.agent.SchedulingPoints;
+
+/*
+ * Runs the test threads of a scenario one at a time, switching between them only
+ * at scheduling points: as they start, as they return from waitForBeat, as they
+ * leave withConductorFrozen, and at the points the scheduling agent added to the
+ * subject. The thread that runs next is the one the given prefix of a schedule says,
+ * and after the prefix, the thread that ran last, if it can, or else the first one
+ * that can. Each choice is recorded as a Step, along with the threads that could
+ * have run instead, for the explorer to try other schedules.
+ *
+ * A thread blocking outside a scheduling point, e.g. on a lock another thread holds,
+ * or in waitForBeat, can't go on until some other thread runs, so it gives up its
+ * turn. A supervising thread notices threads blocking in the subject. Before each
+ * choice, the scheduler waits for the threads that aren't at a scheduling point to
+ * either block, or reach one, so that the threads to choose from only depend on the
+ * schedule so far.
+ */
+public final class SerialScheduler {
+    // what the slot of a thread is doing
+    private static final int Starting = 0;
+    private static final int AtPoint = 1;
+    private static final int Running = 2;
+    private static final int Blocked = 3;
+    private static final int WaitingForBeat = 4;
+    private static final int Finished = 5;
+
+    // values of holder other than a slot
+    private static final int Nobody = -1;
+    private static final int Choosing = -2;
+
+    // how long to wait for threads outside scheduling points to settle before a choice
+    private static final long MaxSettleNanos = TimeUnit.MILLISECONDS.toNanos(20);
+    private static final long SupervisorPeriodNanos = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private int[] prefix;
+    private final boolean inSubject;
+    // the names of the threads of the prefix, until start resolves them to indexes
+    private List<String> namedPrefix;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<Slot> slots = new ArrayList<Slot>();
+    private final List<Step> steps = new ArrayList<Step>();
+    private final TraceHash trace = new TraceHash();
+
+    // the slot whose turn it is, or Nobody or Choosing
+    private volatile int holder = Nobody;
+    // the slot that made the last step, or Nobody
+    private int last = Nobody;
+    private boolean diverged = false;
+
+    private volatile Beat beat;
+    private volatile Thread supervisor;
+
+    /*
+     * Tells the scheduler what beat the clock is at, so that it knows which threads
+     * in waitForBeat are about to be released.
+     */
+    public interface Beat {
+        int currentBeat();
+    }
+
+    /**
+     * Creates a scheduler following the given prefix of thread indexes, in the
+     * order the threads were registered.
+     */
+    public SerialScheduler(int[] prefix) {
+        this.prefix = prefix.clone();
+        this.inSubject = true;
+    }
+
+    /**
+     * Creates a scheduler following the given prefix of thread names, as when
+     * replaying a recorded schedule. A name no thread has is a turn that can't be
+     * taken. Unless <code>inSubject</code> is true, the threads only switch at the
+     * points of the conductor, as when the schedule was recorded without the others.
+     */
+    public SerialScheduler(List<String> prefix, boolean inSubject) {
+        this.prefix = new int[0];
+        this.namedPrefix = new ArrayList<String>(prefix);
+        this.inSubject = inSubject;
+    }
+
+    /**
+     * Returns true if the threads also switch at the points the scheduling agent
+     * added to the subject.
+     */
+    public boolean isInSubject() {
+        return inSubject;
+    }
+
+    /**
+     * A thread taking part in a serialized scenario.
+     */
+    public final class Slot extends SchedulingPoints.Listener {
+        final int index;
+        final String name;
+        final Thread thread;
+
+        volatile int status = Starting;
+        // true while the thread is in the scheduler, where it may block on its lock
+        volatile boolean inScheduler = false;
+        volatile int beatWaitedFor = 0;
+
+        // the access the thread is about to make, while at a point
+        Object target;
+        String member;
+        boolean write;
+        int stepCount = 0;
+
+        Slot(int index, String name, Thread thread) {
+            this.index = index;
+            this.name = name;
+            this.thread = thread;
+        }
+
+        /**
+         * Returns true while the thread waits for its turn at a scheduling point, so
+         * that it is really runnable, whatever its thread state says.
+         */
+        public boolean isHeldBack() {
+            return status == AtPoint;
+        }
+
+        @Override
+        protected void reached(Object target, String member, boolean write) {
+            arrive(this, target, member, write);
+        }
+    }
+
+    /**
+     * What was chosen at a scheduling point.
+     */
+    public static final class Step {
+        // the slots that could run, in order, and which one did
+        public final int[] enabled;
+        public final int chosen;
+        // the slot that made the step before, or -1
+        public final int previous;
+        // the hash of the run once each of the enabled slots had made its access, and
+        // once the chosen one did
+        public final long[] hashes;
+        public final long hash;
+
+        Step(int[] enabled, int chosen, int previous, long[] hashes, long hash) {
+            this.enabled = enabled;
+            this.chosen = chosen;
+            this.previous = previous;
+            this.hashes = hashes;
+            this.hash = hash;
+        }
+
+        /**
+         * Returns true if running the given slot at this step would be a preemption:
+         * switching away from the slot that made the step before, while it could
+         * have gone on.
+         */
+        public boolean isPreemption(int slot) {
+            return slot != previous && previous >= 0 && contains(enabled, previous);
+        }
+    }
+
+    /**
+     * Registers a test thread, before it starts.
+     */
+    public Slot register(String name, Thread thread) {
+        lock.lock();
+        try {
+            Slot slot = new Slot(slots.size(), name, thread);
+            slots.add(slot);
+            return slot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts supervising the threads, once they are about to get the green light.
+     */
+    public void start(Beat clock) {
+        this.beat = clock;
+        if (namedPrefix != null) {
+            lock.lock();
+            try {
+                int[] resolved = new int[namedPrefix.size()];
+                for (int i = 0; i < resolved.length; i++) {
+                    resolved[i] = Nobody;
+                    for (Slot slot : slots) {
+                        if (slot.name.equals(namedPrefix.get(i)))
+                            resolved[i] = slot.index;
+                    }
+                }
+                prefix = resolved;
+                namedPrefix = null;
+            } finally {
+                lock.unlock();
+            }
+        }
+        Thread t = new Thread("Conductor-Scheduler") {
+            @Override
+            public void run() {
+                supervise();
+            }
+        };
+        t.setDaemon(true);
+        supervisor = t;
+        t.start();
+    }
+
+    /**
+     * Stops supervising the threads, once they are all done.
+     */
+    public void stop() {
+        Thread t = supervisor;
+        supervisor = null;
+        if (t != null)
+            LockSupport.unpark(t);
+    }
+
+    /**
+     * Returns the names of the registered threads, in the order they were registered.
+     */
+    public List<String> threadNames() {
+        lock.lock();
+        try {
+            List<String> names = new ArrayList<String>();
+            for (Slot slot : slots)
+                names.add(slot.name);
+            return names;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the steps made so far.
+     */
+    public List<Step> steps() {
+        lock.lock();
+        try {
+            return new ArrayList<Step>(steps);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns true if a thread of the prefix couldn't run when its turn came, as
+     * happens when the scenario doesn't behave the same from run to run.
+     */
+    public boolean hasDiverged() {
+        lock.lock();
+        try {
+            return diverged;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called by a thread at a scheduling point, before it makes the given access
+     * (see SchedulingPoints.Listener). Returns once it is its turn.
+     */
+    public void arrive(Slot slot, Object target, String member, boolean write) {
+        slot.inScheduler = true;
+        lock.lock();
+        try {
+            slot.target = target;
+            slot.member = member;
+            slot.write = write;
+            slot.status = AtPoint;
+            if (holder == slot.index || holder == Nobody)
+                choose(slot.index);
+            while (holder != slot.index) {
+                lock.unlock();
+                try {
+                    LockSupport.park(this);
+                } finally {
+                    lock.lock();
+                }
+            }
+            slot.status = Running;
+        } finally {
+            lock.unlock();
+            slot.inScheduler = false;
+        }
+    }
+
+    /**
+     * Called by a thread about to wait for the given beat, which it can't reach
+     * without the others.
+     */
+    public void waitForBeat(Slot slot, int beat) {
+        slot.beatWaitedFor = beat;
+        leave(slot, WaitingForBeat);
+    }
+
+    /**
+     * Called by a thread once its function has returned or thrown.
+     */
+    public void finish(Slot slot) {
+        leave(slot, Finished);
+    }
+
+    private void leave(Slot slot, int status) {
+        slot.inScheduler = true;
+        lock.lock();
+        try {
+            slot.status = status;
+            if (holder == slot.index)
+                choose(slot.index);
+        } finally {
+            lock.unlock();
+            slot.inScheduler = false;
+        }
+    }
+
+    /**
+     * Hands the turn to the next thread. Called with the lock held, by the thread
+     * whose turn it is, or by a thread or the supervisor finding it is nobody's.
+     */
+    private void choose(int chooser) {
+        holder = Choosing;
+        lock.unlock();
+        try {
+            settle(chooser);
+        } finally {
+            lock.lock();
+        }
+
+        // the chooser left to wait for a beat that has come since, so it is about to
+        // be at a point too, and will choose once there
+        Beat clock = beat;
+        if (chooser >= 0 && slots.get(chooser).status == WaitingForBeat
+                && clock != null && clock.currentBeat() >= slots.get(chooser).beatWaitedFor) {
+            holder = Nobody;
+            return;
+        }
+
+        int count = 0;
+        for (Slot slot : slots) {
+            if (slot.status == AtPoint)
+                count += 1;
+        }
+        if (count == 0) {
+            holder = Nobody;
+            return;
+        }
+        int[] enabled = new int[count];
+        count = 0;
+        for (Slot slot : slots) {
+            if (slot.status == AtPoint)
+                enabled[count++] = slot.index;
+        }
+
+        int chosen = contains(enabled, last) ? last : enabled[0];
+        if (steps.size() < prefix.length) {
+            if (contains(enabled, prefix[steps.size()]))
+                chosen = prefix[steps.size()];
+            else
+                diverged = true;
+        }
+
+        long[] hashes = new long[enabled.length];
+        for (int i = 0; i < enabled.length; i++) {
+            Slot slot = slots.get(enabled[i]);
+            hashes[i] = trace.valueAfter(slot.index, slot.stepCount, slot.target, slot.member, slot.write);
+        }
+        Slot next = slots.get(chosen);
+        trace.add(next.index, next.stepCount, next.target, next.member, next.write);
+        steps.add(new Step(enabled, chosen, last, hashes, trace.value()));
+        next.stepCount += 1;
+        next.target = null;
+        next.member = null;
+
+        last = chosen;
+        holder = chosen;
+        LockSupport.unpark(next.thread);
+    }
+
+    /**
+     * Waits, for a little while at most, for every thread but the given one to
+     * either be at a scheduling point, blocked, waiting for a beat that hasn't come,
+     * or finished.
+     */
+    private void settle(int chooser) {
+        long deadline = System.nanoTime() + MaxSettleNanos;
+        while (!isSettled(chooser) && System.nanoTime() < deadline)
+            Thread.yield();
+    }
+
+    private boolean isSettled(int chooser) {
+        Beat clock = beat;
+        for (int i = 0, n = slotCount(); i < n; i++) {
+            Slot slot = slot(i);
+            if (slot.index == chooser)
+                continue;
+            switch (slot.status) {
+            case Starting:
+                return false;
+            case WaitingForBeat:
+                if (clock != null && clock.currentBeat() >= slot.beatWaitedFor)
+                    return false;
+                if (isRunning(slot))
+                    return false;
+                break;
+            case Blocked:
+                if (isRunning(slot))
+                    return false;
+                break;
+            default:
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the thread of the given slot, which should be parked, is still
+     * on its way there.
+     */
+    private static boolean isRunning(Slot slot) {
+        return slot.thread.getState() == Thread.State.RUNNABLE;
+    }
+
+    private int slotCount() {
+        lock.lock();
+        try {
+            return slots.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Slot slot(int index) {
+        lock.lock();
+        try {
+            return slots.get(index);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hands the turn on when the thread whose turn it is blocks outside a scheduling
+     * point, once it has been seen blocked twice in a row.
+     */
+    private void supervise() {
+        int suspect = Nobody;
+        int suspectSteps = -1;
+        while (supervisor != null) {
+            LockSupport.parkNanos(this, SupervisorPeriodNanos);
+            int h = holder;
+            if (h < 0) {
+                suspect = Nobody;
+                continue;
+            }
+            Slot slot = slot(h);
+            Thread.State state = slot.thread.getState();
+            boolean blocked = slot.status == Running && !slot.inScheduler
+                    && (state == Thread.State.BLOCKED || state == Thread.State.WAITING
+                        || state == Thread.State.TIMED_WAITING);
+            if (!blocked) {
+                suspect = Nobody;
+                continue;
+            }
+            if (suspect != h || suspectSteps != slot.stepCount) {
+                suspect = h;
+                suspectSteps = slot.stepCount;
+                continue;
+            }
+            suspect = Nobody;
+            lock.lock();
+            try {
+                if (holder == h && slot.status == Running && slot.stepCount == suspectSteps) {
+                    slot.status = Blocked;
+                    choose(Nobody);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value)
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc.internal;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Asks the JVM, through its ThreadMXBean, how much a thread has done so far: the
+ * CPU time it has used, and how many times it has blocked on a monitor or waited.
+ * Neither ever goes down, so a thread has done something between two readings if
+ * either of them went up. It can also tell how long a thread has been blocked on
+ * monitors or waiting, once contention monitoring is on.
+ */
+public class ThreadActivity {
+    // the callers that have turned contention monitoring on and not yet restored it,
+    // and whether it was on before the first of them
+    private static final Object monitoring = new Object();
+    private static int monitors = 0;
+    private static boolean wasMonitoring;
+
+    private final ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+    private final boolean cpuTime = mx.isThreadCpuTimeSupported() && mx.isThreadCpuTimeEnabled();
+
+    /**
+     * The CPU time the given thread has used, in nanoseconds, or -1 if the JVM
+     * doesn't measure it or the thread has died.
+     */
+    public long cpuTime(Thread t) {
+        return cpuTime ? mx.getThreadCpuTime(t.getId()) : -1;
+    }
+
+    /**
+     * The number of times the given thread has blocked on a monitor or waited,
+     * or -1 if the thread has died.
+     */
+    public long blockedAndWaited(Thread t) {
+        ThreadInfo info = mx.getThreadInfo(t.getId());
+        return info == null ? -1 : info.getBlockedCount() + info.getWaitedCount();
+    }
+
+    /**
+     * Turns on the measurement of the time threads spend blocked or waiting, for the
+     * whole JVM, and returns true, or returns false if the JVM can't measure it. Each
+     * call that returns true must be followed by one of
+     * <code>restoreContentionMonitoring</code>.
+     */
+    public boolean enableContentionMonitoring() {
+        if (!mx.isThreadContentionMonitoringSupported())
+            return false;
+        synchronized (monitoring) {
+            if (monitors++ == 0) {
+                wasMonitoring = mx.isThreadContentionMonitoringEnabled();
+                if (!wasMonitoring)
+                    mx.setThreadContentionMonitoringEnabled(true);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Undoes a call of <code>enableContentionMonitoring</code> that returned true: once
+     * they all have been undone, contention monitoring is turned off again, unless it
+     * was already on before.
+     */
+    public void restoreContentionMonitoring() {
+        synchronized (monitoring) {
+            if (--monitors == 0 && !wasMonitoring)
+                mx.setThreadContentionMonitoringEnabled(false);
+        }
+    }
+
+    /**
+     * The time the given thread has spent blocked on monitors, or waiting, parked or
+     * sleeping, since contention monitoring was turned on, in nanoseconds, or -1 if it
+     * isn't on or the thread has died. A thread parked on a lock, as those of
+     * <code>java.util.concurrent</code> are, is waiting rather than blocked. The JVM
+     * only measures it to the millisecond.
+     */
+    public long blockedOrWaitingTime(Thread t) {
+        ThreadInfo info = mx.getThreadInfo(t.getId());
+        if (info == null || info.getBlockedTime() < 0 || info.getWaitedTime() < 0)
+            return -1;
+        return TimeUnit.MILLISECONDS.toNanos(info.getBlockedTime() + info.getWaitedTime());
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc.internal;
+
+import java.util.Arrays;
+
+/*
+ * The number of threads taking part in a scenario in each Thread.State, as seen
+ * by the clock thread in one pass over them. The clock thread keeps one instance
+ * and refills it every tick, so taking a snapshot doesn't allocate anything.
+ *
+ * Threads waiting for a beat, or parked until a virtual time, are counted as
+ * WAITING, and also counted on their own.
+ */
+public class ThreadStateSnapshot {
+    private static final int StateCount = Thread.State.values().length;
+
+    private final int[] counts = new int[StateCount];
+    private int waitingForBeat = 0;
+    private int waitingInVirtualTime = 0;
+
+    public void clear() {
+        Arrays.fill(counts, 0);
+        waitingForBeat = 0;
+        waitingInVirtualTime = 0;
+    }
+
+    public void add(Thread.State state) {
+        counts[state.ordinal()] += 1;
+    }
+
+    public void addWaitingForBeat() {
+        counts[Thread.State.WAITING.ordinal()] += 1;
+        waitingForBeat += 1;
+    }
+
+    public void addWaitingInVirtualTime() {
+        counts[Thread.State.WAITING.ordinal()] += 1;
+        waitingInVirtualTime += 1;
+    }
+
+    public int count(Thread.State state) {
+        return counts[state.ordinal()];
+    }
+
+    public int alive() {
+        int alive = 0;
+        for (int i = 0; i < StateCount; i++)
+            alive += counts[i];
+        return alive - count(Thread.State.NEW) - count(Thread.State.TERMINATED);
+    }
+
+    public int waitingForBeat() {
+        return waitingForBeat;
+    }
+
+    public int waitingInVirtualTime() {
+        return waitingInVirtualTime;
+    }
+
+    public boolean areAnyThreadsAlive() {
+        return alive() > 0;
+    }
+
+    public boolean areAnyThreadsRunning() {
+        return count(Thread.State.RUNNABLE) > 0;
+    }
+
+    public boolean areAnyThreadsInTimedWaiting() {
+        return count(Thread.State.TIMED_WAITING) > 0;
+    }
+
+    /**
+     * Returns true if every live thread is either waiting for a beat, or parked
+     * until a virtual time, and there is at least one.
+     */
+    public boolean areAllThreadsWaitingForTheConductor() {
+        int waiting = waitingForBeat + waitingInVirtualTime;
+        return waiting > 0 && waiting == alive();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc.internal;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/*
+ * A hash of the order of the accesses of a run, up to the order of independent
+ * ones, so that runs which only differ by swapping independent accesses, and end
+ * up in the same state, hash the same.
+ *
+ * An access is identified by the thread making it and the number of accesses that
+ * thread made before it. Accesses to different keys are independent, and so are
+ * reads of the same key. The hash of a key is therefore ordered over its writes, but
+ * sums up the reads in between. Global accesses are dependent on everything: they
+ * seal the hash of the run so far, and start over.
+ *
+ * An object is identified by the first access to it, since its identity changes
+ * from run to run. Runs which reach an object first through different independent
+ * accesses end up with different hashes, which only costs some pruning.
+ */
+public final class TraceHash {
+    private long sealed = 0;
+    private long total = 0;
+    private final Map<Long, long[]> keys = new HashMap<Long, long[]>();
+    private final Map<Object, Long> objects = new IdentityHashMap<Object, Long>();
+
+    /**
+     * Returns the hash of the run so far.
+     */
+    public long value() {
+        return mix(sealed ^ mix(total));
+    }
+
+    /**
+     * Returns the hash the run would have once the given access was made.
+     */
+    public long valueAfter(int thread, int step, Object target, String member, boolean write) {
+        long event = event(thread, step, write);
+        if (target == null && member == null)
+            return mix(mix(sealed ^ mix(total) ^ event) ^ mix(0));
+        long key = key(target, member, event, false);
+        long[] state = keys.get(key);
+        long ordered = state == null ? 0 : state[0];
+        long reads = state == null ? 0 : state[1];
+        long before = state == null ? 0 : hash(key, ordered, reads);
+        long after = write ? hash(key, mix(ordered ^ mix(reads) ^ event), 0) : hash(key, ordered, reads + event);
+        return mix(sealed ^ mix(total - before + after));
+    }
+
+    /**
+     * Adds the given access to the run.
+     */
+    public void add(int thread, int step, Object target, String member, boolean write) {
+        long event = event(thread, step, write);
+        if (target == null && member == null) {
+            sealed = mix(sealed ^ mix(total) ^ event);
+            total = 0;
+            keys.clear();
+            return;
+        }
+        long key = key(target, member, event, true);
+        long[] state = keys.get(key);
+        if (state == null) {
+            state = new long[2];
+            keys.put(key, state);
+        } else {
+            total -= hash(key, state[0], state[1]);
+        }
+        if (write) {
+            state[0] = mix(state[0] ^ mix(state[1]) ^ event);
+            state[1] = 0;
+        } else {
+            state[1] += event;
+        }
+        total += hash(key, state[0], state[1]);
+    }
+
+    private long key(Object target, String member, long event, boolean remember) {
+        long object = 0;
+        if (target != null) {
+            Long id = objects.get(target);
+            if (id == null) {
+                id = event;
+                if (remember)
+                    objects.put(target, id);
+            }
+            object = id;
+        }
+        return mix(object ^ (member == null ? 0 : member.hashCode()));
+    }
+
+    private static long event(int thread, int step, boolean write) {
+        return mix(((long)thread << 33) ^ ((long)step << 1) ^ (write ? 1 : 0));
+    }
+
+    private static long hash(long key, long ordered, long reads) {
+        return mix(key ^ mix(ordered ^ mix(reads + 0x9E3779B97F4A7C15L)));
+    }
+
+    public static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
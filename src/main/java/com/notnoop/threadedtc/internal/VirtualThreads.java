@@ -0,0 +1,88 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc.internal;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/*
+ * Creates virtual threads, on JVMs that have them (Java 21 and later), through
+ * reflection, so that the library still builds for, and runs on, older JVMs.
+ */
+public class VirtualThreads {
+    private static final Method ofVirtual;
+    private static final Method name;
+    private static final Method unstarted;
+    private static final Method isVirtual;
+
+    static {
+        Method[] methods = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            methods = new Method[] {
+                Thread.class.getMethod("ofVirtual"),
+                builder.getMethod("name", String.class),
+                builder.getMethod("unstarted", Runnable.class),
+                Thread.class.getMethod("isVirtual")
+            };
+            // a preview feature on Java 19 and 20, which throws unless enabled
+            methods[0].invoke(null);
+        } catch (Exception e) {
+            methods = null;
+        } catch (LinkageError e) {
+            methods = null;
+        }
+        ofVirtual = methods == null ? null : methods[0];
+        name = methods == null ? null : methods[1];
+        unstarted = methods == null ? null : methods[2];
+        isVirtual = methods == null ? null : methods[3];
+    }
+
+    public static boolean isSupported() {
+        return ofVirtual != null;
+    }
+
+    /**
+     * Returns a new virtual thread with the given name, that will run the given
+     * function once it is started.
+     *
+     * @throws UnsupportedOperationException if the JVM has no virtual threads
+     */
+    public static Thread newThread(String threadName, Runnable fun) {
+        if (!isSupported())
+            throw new UnsupportedOperationException("virtualThreadsNeedJava21");
+        try {
+            Object builder = name.invoke(ofVirtual.invoke(null), threadName);
+            return (Thread)unstarted.invoke(builder, fun);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public static boolean isVirtual(Thread t) {
+        if (!isSupported())
+            return false;
+        try {
+            return (Boolean)isVirtual.invoke(t);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
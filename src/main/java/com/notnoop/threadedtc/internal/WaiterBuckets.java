@@ -0,0 +1,94 @@
+/*
+ * Copyright 2009 Mahmood Ali
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.notnoop.threadedtc.internal;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Threads parked until some monotonic counter (a beat, a point in time) reaches
+ * the value they are waiting for. Waiters are bucketed by that value, so that
+ * releasing the waiters of one value doesn't wake up any of the others.
+ *
+ * A waiter must add itself before checking the counter and parking, and the
+ * releasing thread must update the counter before calling release. Either the
+ * waiter then sees the new value and doesn't park, or release finds it in its
+ * bucket and unparks it. A bucket is only ever taken out of the map by release,
+ * so a waiter that finds its bucket gone after adding itself knows that release
+ * may have missed it, and adds itself again.
+ */
+public class WaiterBuckets {
+    private final ConcurrentSkipListMap<Long, ConcurrentLinkedQueue<Thread>> buckets
+        = new ConcurrentSkipListMap<Long, ConcurrentLinkedQueue<Thread>>();
+
+    public void add(long value, Thread waiter) {
+        Long key = value;
+        for (;;) {
+            ConcurrentLinkedQueue<Thread> bucket = buckets.get(key);
+            if (bucket == null) {
+                ConcurrentLinkedQueue<Thread> fresh = new ConcurrentLinkedQueue<Thread>();
+                bucket = buckets.putIfAbsent(key, fresh);
+                if (bucket == null)
+                    bucket = fresh;
+            }
+            bucket.add(waiter);
+            if (buckets.get(key) == bucket)
+                return;
+            bucket.remove(waiter);
+        }
+    }
+
+    /**
+     * Removes a waiter that stopped waiting before being released, e.g. because
+     * it was interrupted. Its bucket stays until it is released, even if empty.
+     */
+    public void remove(long value, Thread waiter) {
+        ConcurrentLinkedQueue<Thread> bucket = buckets.get(value);
+        if (bucket != null)
+            bucket.remove(waiter);
+    }
+
+    /**
+     * Unparks all the threads waiting for a value less than or equal to the given one.
+     */
+    public void release(long upTo) {
+        for (;;) {
+            Map.Entry<Long, ConcurrentLinkedQueue<Thread>> first = buckets.firstEntry();
+            if (first == null || first.getKey() > upTo)
+                return;
+            if (!buckets.remove(first.getKey(), first.getValue()))
+                continue;
+            Thread waiter;
+            while ((waiter = first.getValue().poll()) != null)
+                LockSupport.unpark(waiter);
+        }
+    }
+
+    /**
+     * Returns the lowest value greater than <code>after</code> that a thread is
+     * waiting for, or <code>Long.MAX_VALUE</code> if there is none.
+     */
+    public long lowestWaitedFor(long after) {
+        for (Map.Entry<Long, ConcurrentLinkedQueue<Thread>> e
+                : buckets.tailMap(after, false).entrySet()) {
+            if (!e.getValue().isEmpty())
+                return e.getKey();
+        }
+        return Long.MAX_VALUE;
+    }
+}
@@ -1,37 +1,47 @@
-package mtc.sanity;
-
-
-import static org.junit.Assert.assertEquals;
-import org.junit.Test;
-import org.junit.runner.RunWith;
-
-import com.notnoop.threadedtc.*;
-import static com.notnoop.threadedtc.RunnerConductor.*;
-
-@RunWith(TCRunner.class)
-public class TestFrameworkTests
-{
-
-    int i = 0;
-
-    @Threaded("1")
-    public void thisWillRunInThread1()
-    {
-        i++;
-    }
-
-    @Threaded("2")
-    public void thisWillRunInThread2()
-    {
-        waitForBeat(1);
-        i++;
-    }
-
-    @Test
-    @MultiThreadedTest(times = 3)
-    public void testRunThreeTimes() throws Throwable
-    {
-        assertEquals(i, 6);
-    }
-
-}
+package mtc.sanity;
+
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.notnoop.threadedtc.*;
+import static com.notnoop.threadedtc.RunnerConductor.*;
+
+@RunWith(TCRunner.class)
+public class TestFrameworkTests
+{
+
+    int i = 0;
+
+    @Threaded("1")
+    public void thisWillRunInThread1()
+    {
+        i++;
+    }
+
+    @Threaded("2")
+    public void thisWillRunInThread2()
+    {
+        waitForBeat(1);
+        i++;
+    }
+
+    @Test
+    @MultiThreadedTest(times = 3)
+    public void testRunThreeTimes() throws Throwable
+    {
+        assertEquals(i, 6);
+        assertEquals(3, getRepetitionStats().size());
+    }
+
+    @Test
+    @MultiThreadedTest(times = 3, parallelism = 3)
+    public void testRunThreeTimesInParallel() throws Throwable
+    {
+        // each repetition has an instance of its own, this one the last's
+        assertEquals(i, 2);
+        assertEquals(3, getRepetitionStats().size());
+    }
+
+}
@@ -0,0 +1,182 @@
+package mtc.sanity.basictests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import com.notnoop.threadedtc.Conductor;
+import com.notnoop.threadedtc.ConductorListener;
+import com.notnoop.threadedtc.exceptions.DeadlockSuspectedError;
+import com.notnoop.threadedtc.exceptions.TimeoutError;
+
+/**
+ * Listeners hear about the threads, the beats, the frozen clock, suspected deadlocks
+ * and timeouts, by the time <code>conduct</code> returns.
+ */
+public class TestSanityConductorListener
+{
+    // only touched by the delivery thread until conduct returns
+    static class Recorder extends ConductorListener
+    {
+        final List<String> events = new ArrayList<String>();
+        int suspicions = 0;
+        boolean timedOut = false;
+
+        @Override
+        public void threadRegistered(String thread, long nanoTime) {
+            events.add(thread + " registered");
+        }
+
+        @Override
+        public void threadStarted(String thread, long nanoTime) {
+            events.add(thread + " started");
+        }
+
+        @Override
+        public void threadFinished(String thread, long nanoTime) {
+            events.add(thread + " finished");
+        }
+
+        @Override
+        public void beatAdvanced(int beat, long nanoTime) {
+            events.add("beat " + beat);
+        }
+
+        @Override
+        public void clockFrozen(String thread, long nanoTime) {
+            events.add(thread + " froze");
+        }
+
+        @Override
+        public void clockUnfrozen(String thread, long nanoTime) {
+            events.add(thread + " unfroze");
+        }
+
+        @Override
+        public void deadlockSuspected(int suspicions, long nanoTime) {
+            assertEquals(this.suspicions + 1, suspicions);
+            this.suspicions = suspicions;
+        }
+
+        @Override
+        public void timedOut(long nanoTime) {
+            timedOut = true;
+        }
+
+        void assertInOrder(String... expected) {
+            int last = -1;
+            for (String event : expected) {
+                int index = events.indexOf(event);
+                assertTrue(events + " lacks " + event, index != -1);
+                assertTrue(events + " has " + event + " out of order", index > last);
+                last = index;
+            }
+        }
+    }
+
+    @Test
+    public void threadsBeatsAndFrozenClock()
+    {
+        final Conductor c = new Conductor();
+        c.thread("waiter", new Runnable() {
+            public void run() {
+                c.waitForBeat(1);
+            }
+        });
+        // a listener added late still hears about the threads created before it
+        Recorder recorder = new Recorder();
+        c.addListener(recorder);
+        c.thread("freezer", new Runnable() {
+            public void run() {
+                c.withConductorFrozen(new Runnable() {
+                    public void run() {
+                    }
+                });
+                c.waitForBeat(2);
+            }
+        });
+        c.conduct();
+
+        recorder.assertInOrder("waiter registered", "waiter started", "beat 1", "waiter finished");
+        recorder.assertInOrder("freezer registered", "freezer started", "freezer froze", "freezer unfroze",
+                "beat 1", "beat 2", "freezer finished");
+        assertEquals(10, recorder.events.size());
+    }
+
+    @Test
+    public void suspectedDeadlock()
+    {
+        final Conductor c = new Conductor();
+        final CountDownLatch never = new CountDownLatch(1);
+        Recorder recorder = new Recorder();
+        c.addListener(recorder);
+        c.thread("stuck", new Runnable() {
+            public void run() {
+                try {
+                    never.await();
+                } catch (InterruptedException e) {
+                    // stopped
+                }
+            }
+        });
+        try {
+            c.conduct(1, 5);
+            fail("the thread never finishes");
+        } catch (DeadlockSuspectedError e) {
+            // expected
+        }
+        assertTrue("" + recorder.suspicions, recorder.suspicions > 1);
+    }
+
+    @Test
+    public void timeout()
+    {
+        final Conductor c = new Conductor();
+        Recorder recorder = new Recorder();
+        c.addListener(recorder);
+        c.thread("spinner", new Runnable() {
+            public void run() {
+                long end = System.nanoTime() + 3000L * 1000L * 1000L;
+                while (System.nanoTime() < end && !Thread.currentThread().isInterrupted())
+                    Thread.yield();
+            }
+        });
+        try {
+            c.conduct(10, 1);
+            fail("the thread runs for longer than the timeout");
+        } catch (TimeoutError e) {
+            // expected
+        }
+        assertTrue(recorder.timedOut);
+    }
+
+    @Test
+    public void failingListenerFailsTheScenario()
+    {
+        final IllegalStateException failure = new IllegalStateException("listener");
+        Conductor c = new Conductor();
+        c.addListener(new ConductorListener() {
+            @Override
+            public void threadFinished(String thread, long nanoTime) {
+                throw failure;
+            }
+        });
+        c.thread(new Runnable() {
+            public void run() {
+            }
+        });
+        try {
+            c.conduct();
+            fail("the listener threw");
+        } catch (IllegalStateException e) {
+            assertSame(failure, e);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package mtc.sanity.basictests;
+
+import com.notnoop.threadedtc.*;
+
+import static com.notnoop.threadedtc.RunnerConductor.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * In beat 1 the holder keeps a lock the blocked thread wants for a while, so the
+ * stats the <code>@Test</code> method sees put the blocked time there, and the
+ * waiting before that in beat 0.
+ */
+@RunWith(TCRunner.class)
+public class TestSanityConductorStats
+{
+    private final Object lock = new Object();
+
+    @Threaded
+    public void holder() throws InterruptedException {
+        synchronized (lock) {
+            waitForBeat(1);
+            Thread.sleep(200);
+        }
+    }
+
+    @Threaded
+    public void blocked() {
+        waitForBeat(1);
+        synchronized (lock) {
+            waitForBeat(2);
+        }
+    }
+
+    @Test
+    public void statsOfEachBeat() {
+        ConductorStats stats = getStats();
+        List<ConductorStats.Beat> beats = stats.getBeats();
+        assertEquals(3, beats.size());
+        for (int i = 0; i < beats.size(); i++)
+            assertEquals(i, beats.get(i).getBeat());
+
+        ConductorStats.Beat first = stats.getBeat(0);
+        assertTrue(first.getTicks() > 0);
+        assertTrue(first.getQuiescenceTicks() > 0);
+        assertTrue(first.getWaitingTime(TimeUnit.NANOSECONDS) > 0);
+
+        ConductorStats.Beat contended = stats.getBeat(1);
+        assertSame(contended, stats.getMostBlockedBeat());
+        assertTrue(contended.getDuration(TimeUnit.MILLISECONDS) >= 200);
+        assertTrue("" + contended, contended.getBlockedTime("blocked", TimeUnit.MILLISECONDS) >= 100);
+        assertEquals(0, contended.getBlockedTime("holder", TimeUnit.NANOSECONDS));
+        assertTrue("" + contended, contended.getWaitingTime("holder", TimeUnit.MILLISECONDS) >= 100);
+        assertTrue(contended.getQuiescenceTicks() > 0);
+
+        assertEquals(0, stats.getBeat(2).getQuiescenceTicks());
+    }
+}
@@ -0,0 +1,144 @@
+package mtc.sanity.basictests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import com.notnoop.threadedtc.Conductor;
+import com.notnoop.threadedtc.TCRunnable;
+import com.notnoop.threadedtc.exceptions.DeadlockSuspectedError;
+import com.notnoop.threadedtc.internal.FlightEvents;
+
+/**
+ * A flight recording of a scenario has its events, committed by the threads they
+ * happened on, and a stuck one only has its deadlock suspected once before it is
+ * reported. JFR is reached through reflection, as the tests build for Java 8.
+ */
+public class TestSanityFlightEvents
+{
+    @Test
+    public void eventsOfAScenario() throws Exception
+    {
+        assumeTrue(FlightEvents.isSupported());
+        assertTrue(!FlightEvents.isRecording());
+
+        List<String> events = record(new Runnable() {
+            public void run() {
+                final Conductor c = new Conductor();
+                c.thread("waiter", new Runnable() {
+                    public void run() {
+                        c.waitForBeat(1);
+                    }
+                });
+                c.thread("freezer", new Runnable() {
+                    public void run() {
+                        c.withConductorFrozen(new Runnable() {
+                            public void run() {
+                            }
+                        });
+                        c.waitForBeat(2);
+                    }
+                });
+                c.conduct();
+            }
+        });
+
+        assertTrue(events.toString(), events.contains("ThreadRegistered waiter 0 on main"));
+        assertTrue(events.toString(), events.contains("ThreadRegistered freezer 0 on main"));
+        assertTrue(events.toString(), events.contains("ClockFrozen freezer 0 on freezer"));
+        assertTrue(events.toString(), events.contains("BeatAdvanced 1 on Conductor-Clock"));
+        assertTrue(events.toString(), events.contains("BeatAdvanced 2 on Conductor-Clock"));
+        assertTrue(events.toString(), events.contains("ScenarioFinished 2 2 false on main"));
+        assertEquals(events.toString(), 6, events.size());
+    }
+
+    @Test
+    public void deadlockIsSuspectedOnceAndReported() throws Exception
+    {
+        assumeTrue(FlightEvents.isSupported());
+
+        List<String> events = record(new Runnable() {
+            public void run() {
+                Conductor c = new Conductor();
+                c.thread("stuck", new TCRunnable() {
+                    public void run() throws InterruptedException {
+                        new CountDownLatch(1).await();
+                    }
+                });
+                try {
+                    c.conduct();
+                    fail("should have thrown");
+                } catch (DeadlockSuspectedError e) {
+                }
+            }
+        });
+
+        List<String> suspected = new ArrayList<String>();
+        for (String event : events) {
+            if (event.startsWith("DeadlockSuspected "))
+                suspected.add(event);
+        }
+        // rather than one a tick, for as long as the thread is stuck
+        assertEquals(events.toString(), 2, suspected.size());
+        assertEquals("DeadlockSuspected 1 0 on Conductor-Clock", suspected.get(0));
+        assertTrue(suspected.toString(), !suspected.get(1).startsWith("DeadlockSuspected 1 "));
+    }
+
+    /**
+     * Runs the given scenario while recording, and returns the ThreadedTC events
+     * recorded, in order.
+     */
+    private static List<String> record(Runnable scenario) throws Exception
+    {
+        Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+        Object recording = recordingClass.getConstructor().newInstance();
+        recordingClass.getMethod("start").invoke(recording);
+        try {
+            scenario.run();
+        } finally {
+            recordingClass.getMethod("stop").invoke(recording);
+        }
+
+        List<String> events = new ArrayList<String>();
+        File file = File.createTempFile("TestSanityFlightEvents", ".jfr");
+        try {
+            recordingClass.getMethod("dump", Class.forName("java.nio.file.Path")).invoke(recording, file.toPath());
+            Class<?> recordingFile = Class.forName("jdk.jfr.consumer.RecordingFile");
+            List<?> recorded = (List<?>)recordingFile.getMethod("readAllEvents", Class.forName("java.nio.file.Path"))
+                .invoke(null, file.toPath());
+            for (Object event : recorded) {
+                Object type = event.getClass().getMethod("getEventType").invoke(event);
+                String name = (String)type.getClass().getMethod("getName").invoke(type);
+                if (name.startsWith("com.notnoop.threadedtc."))
+                    events.add(describe(name.substring("com.notnoop.threadedtc.".length()), event));
+            }
+        } finally {
+            recordingClass.getMethod("close").invoke(recording);
+            file.delete();
+        }
+        return events;
+    }
+
+    private static String describe(String name, Object event) throws Exception
+    {
+        StringBuilder sb = new StringBuilder(name);
+        List<?> fields = (List<?>)event.getClass().getMethod("getFields").invoke(event);
+        for (Object field : fields) {
+            String fieldName = (String)field.getClass().getMethod("getName").invoke(field);
+            if (fieldName.equals("startTime") || fieldName.equals("duration")
+                    || fieldName.equals("eventThread") || fieldName.equals("stackTrace"))
+                continue;
+            sb.append(' ').append(event.getClass().getMethod("getValue", String.class).invoke(event, fieldName));
+        }
+        Object thread = event.getClass().getMethod("getValue", String.class).invoke(event, "eventThread");
+        return sb.append(" on ").append(thread.getClass().getMethod("getJavaName").invoke(thread)).toString();
+    }
+}
@@ -0,0 +1,122 @@
+package mtc.sanity.basictests;
+
+import static com.notnoop.threadedtc.RunnerConductor.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+
+import com.notnoop.threadedtc.*;
+import com.notnoop.threadedtc.internal.IsolatingClassLoader;
+
+/**
+ * Isolated repetitions running in parallel each have the static state of the test
+ * class to themselves, in a class loader that is reused from one repetition to the
+ * next, and let go of once the tests of the class are over.
+ */
+public class TestSanityIsolatedRepetitions
+{
+    // the singleton each loader the repetitions ran in had
+    public static final Map<ClassLoader, Object> singletons = Collections.synchronizedMap(
+            new IdentityHashMap<ClassLoader, Object>());
+
+    @RunWith(TCRunner.class)
+    public static class Isolated
+    {
+        // a static singleton, as subjects often have
+        static class Registry
+        {
+            static final Registry instance = new Registry();
+        }
+
+        static Object owner;
+
+        @Threaded
+        public void claim()
+        {
+            owner = this;
+            waitForBeat(1);
+            assertSame(this, owner);
+        }
+
+        @Threaded
+        public void check()
+        {
+            waitForBeat(2);
+            assertSame(this, owner);
+        }
+
+        @After
+        public void recordSingleton()
+        {
+            assertSame(this, owner);
+            ClassLoader loader = getClass().getClassLoader();
+            Object previous = singletons.put(loader, Registry.instance);
+            assertTrue(previous == null || previous == Registry.instance);
+        }
+
+        @Test
+        @MultiThreadedTest(times = 200, parallelism = 4, isolated = true)
+        public void staticStateIsNotShared()
+        {
+            assertSame(this, owner);
+        }
+    }
+
+    @Test
+    public void repetitionsHaveLoadersOfTheirOwn() throws InterruptedException
+    {
+        Result result = JUnitCore.runClasses(Isolated.class);
+        assertTrue(result.getFailures().toString(), result.wasSuccessful());
+
+        List<WeakReference<ClassLoader>> loaders = checkSingletons();
+        for (int i = 0; i < 50 && !collected(loaders); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertTrue(collected(loaders));
+    }
+
+    /**
+     * Checks that every loader had a singleton of its own, and returns the loaders,
+     * forgotten but for weak references.
+     */
+    private static List<WeakReference<ClassLoader>> checkSingletons()
+    {
+        List<WeakReference<ClassLoader>> loaders = new ArrayList<WeakReference<ClassLoader>>();
+        synchronized (singletons) {
+            assertTrue(singletons.toString(), singletons.size() >= 1 && singletons.size() <= 4);
+            Map<Object, Boolean> distinct = new IdentityHashMap<Object, Boolean>();
+            for (Map.Entry<ClassLoader, Object> e : singletons.entrySet()) {
+                assertTrue(e.getKey().toString(), e.getKey() instanceof IsolatingClassLoader);
+                assertSame(e.getKey(), e.getValue().getClass().getClassLoader());
+                distinct.put(e.getValue(), true);
+                loaders.add(new WeakReference<ClassLoader>(e.getKey()));
+            }
+            assertEquals(singletons.size(), distinct.size());
+            singletons.clear();
+        }
+        return loaders;
+    }
+
+    private static boolean collected(List<WeakReference<ClassLoader>> loaders)
+    {
+        for (WeakReference<ClassLoader> loader : loaders) {
+            if (loader.get() != null)
+                return false;
+        }
+        return true;
+    }
+}
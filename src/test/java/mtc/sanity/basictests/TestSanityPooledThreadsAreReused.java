@@ -0,0 +1,136 @@
+package mtc.sanity.basictests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.ref.WeakReference;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import com.notnoop.threadedtc.*;
+
+/**
+ * Scenarios run one after the other on a pool reuse its threads, which still look
+ * like the test threads of each scenario while it runs, and hold on to none of them
+ * once it is over.
+ */
+public class TestSanityPooledThreadsAreReused
+{
+    @Test
+    public void threadsAreReusedAcrossConductors()
+    {
+        TestThreadPool pool = new TestThreadPool();
+        final Set<Thread> seen = new HashSet<Thread>();
+
+        for (int i = 0; i < 20; i++) {
+            final Conductor c = new Conductor();
+            c.setThreadPool(pool);
+            final StringBuffer s = new StringBuffer();
+
+            c.thread("first", new TCRunnable() {
+                public void run() {
+                    assertEquals("first", Thread.currentThread().getName());
+                    assertSame(c.getThread("first"), Thread.currentThread());
+                    s.append("A");
+                    c.waitForBeat(1);
+                    s.append("C");
+                }
+            });
+
+            c.thread("second", new TCRunnable() {
+                public void run() {
+                    assertEquals("second", Thread.currentThread().getName());
+                    s.append("B");
+                    c.waitForBeat(2);
+                    s.append("D");
+                }
+            });
+
+            seen.add(c.getThread("first"));
+            seen.add(c.getThread("second"));
+            c.conduct();
+
+            assertTrue(s.toString(), s.toString().equals("ABCD") || s.toString().equals("BACD"));
+        }
+
+        // a scenario may start before the threads of the last one are back in the pool
+        assertTrue("created " + pool.getCreatedCount(), pool.getCreatedCount() < 20);
+        assertEquals(seen.size(), pool.getCreatedCount());
+    }
+
+    @Test
+    public void threadsOfAFailedScenarioAreNotReused() throws InterruptedException
+    {
+        TestThreadPool pool = new TestThreadPool();
+        final Conductor c = new Conductor();
+        c.setThreadPool(pool);
+
+        c.thread("failing", new TCRunnable() {
+            public void run() {
+                c.waitForBeat(1);
+                throw new IllegalStateException("failed");
+            }
+        });
+
+        final Thread stuck = c.thread("stuck", new TCRunnable() {
+            public void run() throws InterruptedException {
+                new CountDownLatch(1).await();
+            }
+        });
+
+        try {
+            c.conduct();
+            fail("should have thrown");
+        } catch (IllegalStateException e) {
+        }
+
+        stuck.join(1000);
+        assertFalse(stuck.isAlive());
+
+        final Conductor next = new Conductor();
+        next.setThreadPool(pool);
+        Thread t = next.thread(new TCRunnable() {
+            public void run() {
+                next.waitForBeat(1);
+            }
+        });
+        assertTrue(t != stuck);
+        next.conduct();
+    }
+
+    @Test
+    public void idleThreadsAreNotBoundToAnyScenario() throws InterruptedException
+    {
+        final TestThreadPool pool = new TestThreadPool();
+        Conductor outer = new Conductor();
+        // the pooled thread is created by a test thread of the outer scenario, bound to it
+        outer.thread("outer", new TCRunnable() {
+            public void run() {
+                final Conductor inner = new Conductor();
+                inner.setThreadPool(pool);
+                inner.thread("inner", new TCRunnable() {
+                    public void run() {
+                        assertSame(inner, RunnerConductor.current());
+                    }
+                });
+                inner.conduct();
+            }
+        });
+        outer.conduct();
+        assertEquals(1, pool.getPoolSize());
+
+        WeakReference<Conductor> ref = new WeakReference<Conductor>(outer);
+        outer = null;
+        for (int i = 0; i < 50 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(null, ref.get());
+    }
+}
@@ -0,0 +1,142 @@
+package mtc.sanity.basictests;
+
+import static com.notnoop.threadedtc.RunnerConductor.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import org.junit.runner.notification.Failure;
+
+import com.notnoop.threadedtc.*;
+
+/**
+ * With a parallelism above 1, the repetitions of a test run at the same time, each on
+ * an instance of its own, and the test method is evaluated once they are all over,
+ * with how each of them went.
+ */
+public class TestSanityRepetitionsRunInParallel
+{
+    @RunWith(TCRunner.class)
+    public static class Repeated
+    {
+        static final Set<Object> instances = Collections.synchronizedSet(
+                Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>()));
+        static final Set<String> repetitionThreads = Collections.newSetFromMap(
+                new ConcurrentHashMap<String, Boolean>());
+        static final AtomicInteger running = new AtomicInteger();
+        static final AtomicInteger mostRunning = new AtomicInteger();
+        static final AtomicInteger evaluated = new AtomicInteger();
+
+        int setUp = 0;
+        final AtomicInteger count = new AtomicInteger();
+
+        @Before
+        public void setUp()
+        {
+            setUp++;
+            instances.add(this);
+            repetitionThreads.add(Thread.currentThread().getName());
+            int now = running.incrementAndGet();
+            while (now > mostRunning.get())
+                mostRunning.compareAndSet(mostRunning.get(), now);
+        }
+
+        @After
+        public void tearDown()
+        {
+            running.decrementAndGet();
+        }
+
+        @Threaded
+        public void first()
+        {
+            count.incrementAndGet();
+            waitForBeat(1);
+            count.incrementAndGet();
+        }
+
+        @Threaded
+        public void second()
+        {
+            waitForBeat(2);
+            count.incrementAndGet();
+        }
+
+        @Test
+        @MultiThreadedTest(times = 200, parallelism = 4)
+        public void evaluatedOnceOverAllRepetitions()
+        {
+            evaluated.incrementAndGet();
+            // the instance of the last repetition
+            assertEquals(1, setUp);
+            assertEquals(3, count.get());
+            assertEquals(2, beat());
+
+            List<ConductorStats> repetitions = getRepetitionStats();
+            assertEquals(200, repetitions.size());
+            Set<ConductorStats> distinct = Collections.newSetFromMap(new IdentityHashMap<ConductorStats, Boolean>());
+            int threads = 0;
+            for (ConductorStats stats : repetitions) {
+                distinct.add(stats);
+                threads += stats.getThreads().size();
+                List<ConductorStats.Beat> beats = stats.getBeats();
+                assertEquals(2, beats.get(beats.size() - 1).getBeat());
+            }
+            assertEquals(200, distinct.size());
+            assertEquals(400, threads);
+        }
+    }
+
+    @RunWith(TCRunner.class)
+    public static class Failing
+    {
+        @Threaded
+        public void thread()
+        {
+            waitForBeat(1);
+            throw new IllegalStateException("failed at beat " + beat());
+        }
+
+        @Test
+        @MultiThreadedTest(times = 100, parallelism = 4)
+        public void alwaysFails()
+        {
+            fail("evaluated although repetitions failed");
+        }
+    }
+
+    @Test
+    public void repetitionsRunInParallel()
+    {
+        Result result = JUnitCore.runClasses(Repeated.class);
+        assertTrue(result.getFailures().toString(), result.wasSuccessful());
+        assertEquals(200, Repeated.instances.size());
+        assertTrue(Repeated.repetitionThreads.toString(), Repeated.repetitionThreads.size() <= 4);
+        assertTrue("at most " + Repeated.mostRunning + " ran at once", Repeated.mostRunning.get() > 1);
+        assertEquals(1, Repeated.evaluated.get());
+    }
+
+    @Test
+    public void failuresOfAllRepetitionsAreReported()
+    {
+        Result result = JUnitCore.runClasses(Failing.class);
+        assertTrue(result.getFailureCount() >= 1);
+        // repetitions that hadn't started when the first one failed don't run
+        assertTrue(result.getFailureCount() < 100);
+        for (Failure failure : result.getFailures())
+            assertEquals("failed at beat 1", failure.getMessage());
+    }
+}
@@ -0,0 +1,63 @@
+package mtc.sanity.basictests;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import mtc.sanity.TestFrameworkTests;
+
+import org.junit.Test;
+import org.junit.experimental.ParallelComputer;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+
+import com.notnoop.threadedtc.*;
+
+/**
+ * Every scenario has a conductor of its own, which test threads, and the threads
+ * they start, find through RunnerConductor, so TCRunner tests can run in parallel.
+ */
+public class TestSanityRunnersRunInParallel
+{
+    @Test
+    public void testClassesAndMethodsRunInParallel()
+    {
+        List<Class<?>> classes = new ArrayList<Class<?>>();
+        for (int i = 0; i < 16; i++) {
+            classes.add(TestSanityMetronomeOrder.class);
+            classes.add(TestFrameworkTests.class);
+            classes.add(TestSanityGetThreadByNameReturnsCorrectThread.class);
+        }
+
+        Result result = JUnitCore.runClasses(new ParallelComputer(true, true),
+                classes.toArray(new Class<?>[classes.size()]));
+        assertTrue(result.getFailures().toString(), result.wasSuccessful());
+        assertTrue(result.getRunCount() >= classes.size());
+    }
+
+    @Test
+    public void threadsStartedByTestThreadsFindTheirConductor() throws InterruptedException
+    {
+        final Conductor c = new Conductor();
+        final AtomicReference<Conductor> found = new AtomicReference<Conductor>();
+
+        c.thread(new TCRunnable() {
+            public void run() throws InterruptedException {
+                assertSame(c, RunnerConductor.current());
+                Thread started = new Thread() {
+                    public void run() {
+                        found.set(RunnerConductor.current());
+                    }
+                };
+                started.start();
+                started.join();
+            }
+        });
+        c.conduct();
+
+        assertSame(c, found.get());
+    }
+}
@@ -0,0 +1,124 @@
+package mtc.sanity.basictests;
+
+import static com.notnoop.threadedtc.RunnerConductor.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+
+import com.notnoop.threadedtc.*;
+import com.notnoop.threadedtc.exceptions.StressFailureError;
+
+/**
+ * A recorded scenario keeps the order its test threads passed their scheduling
+ * points in, through a log file, and replaying it makes them pass them in that
+ * order again.
+ */
+public class TestSanityScheduleReplay
+{
+    private static Conductor scenario(Conductor c, final AtomicInteger count)
+    {
+        for (int i = 0; i < 3; i++) {
+            c.thread("thread" + i, new Runnable() {
+                public void run() {
+                    count.incrementAndGet();
+                    c.withConductorFrozen(new Runnable() {
+                        public void run() {
+                            count.incrementAndGet();
+                        }
+                    });
+                    c.waitForBeat(1);
+                    count.incrementAndGet();
+                    c.withConductorFrozen(new Runnable() {
+                        public void run() {
+                        }
+                    });
+                }
+            });
+        }
+        return c;
+    }
+
+    @Test
+    public void replayFollowsTheRecordedSchedule() throws Exception
+    {
+        Conductor recorded = new Conductor();
+        recorded.setScheduleRecording(true);
+        recorded.setStressSeed(42);
+        AtomicInteger count = new AtomicInteger();
+        scenario(recorded, count).conduct();
+        assertEquals(9, count.get());
+
+        ScheduleLog log = recorded.getScheduleLog();
+        // each thread starts, freezes and unfreezes the clock twice, passes three points
+        // and finishes, and the clock advances once
+        assertEquals(3 * 9 + 1, log.size());
+        assertEquals(3 * 4, log.getSchedule().size());
+
+        File file = File.createTempFile("threadedtc", ".schedule");
+        file.deleteOnExit();
+        log.write(file);
+        ScheduleLog read = ScheduleLog.read(file);
+        assertEquals(log.toString(), read.toString());
+
+        for (int i = 0; i < 10; i++) {
+            Conductor replayed = new Conductor();
+            replayed.setReplayedSchedule(read);
+            replayed.setScheduleRecording(true);
+            count.set(0);
+            scenario(replayed, count).conduct();
+            assertEquals(9, count.get());
+            assertEquals(log.getSchedule(), replayed.getScheduleLog().getSchedule());
+        }
+    }
+
+    @RunWith(TCRunner.class)
+    public static class Failing
+    {
+        @Threaded
+        public void thread()
+        {
+            waitForBeat(1);
+            throw new IllegalStateException("seed " + current().getStressSeed());
+        }
+
+        @Test
+        @MultiThreadedTest(times = 2, stress = true, seed = 1000, parallelism = 2)
+        public void alwaysFails()
+        {
+        }
+    }
+
+    @Test
+    public void failuresComeWithTheirScheduleLog() throws Exception
+    {
+        File directory = File.createTempFile("threadedtc", "");
+        directory.delete();
+        System.setProperty("threadedtc.scheduleLogs", directory.getPath());
+        try {
+            Result result = JUnitCore.runClasses(Failing.class);
+            assertEquals(2, result.getFailureCount());
+            StressFailureError error = (StressFailureError)result.getFailures().get(0).getException();
+            assertNotNull(error.getScheduleLog());
+            assertTrue(error.getMessage(), error.getMessage().contains(error.getScheduleLog().getPath()));
+            assertEquals(directory, error.getScheduleLog().getParentFile());
+            ScheduleLog log = ScheduleLog.read(error.getScheduleLog());
+            assertEquals("thread thread", log.getSchedule().toString().replace("*2", " thread"));
+        } finally {
+            System.clearProperty("threadedtc.scheduleLogs");
+            File[] logs = directory.listFiles();
+            if (logs != null) {
+                for (File log : logs)
+                    log.delete();
+            }
+            directory.delete();
+        }
+    }
+}
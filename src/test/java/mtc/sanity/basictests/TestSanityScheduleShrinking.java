@@ -0,0 +1,96 @@
+package mtc.sanity.basictests;
+
+import static com.notnoop.threadedtc.RunnerConductor.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+
+import com.notnoop.threadedtc.*;
+import com.notnoop.threadedtc.exceptions.InterleavingFailureError;
+
+/**
+ * Shrinking a failing schedule that switches threads at every turn finds one that
+ * still fails with a single preemption, and reports it with a timeline of its threads.
+ */
+public class TestSanityScheduleShrinking
+{
+    static final String LogFile = "target/TestSanityScheduleShrinking.schedule";
+
+    @RunWith(TCRunner.class)
+    public static class LostUpdate
+    {
+        int count = 0;
+
+        private void increment()
+        {
+            for (int i = 0; i < 5; i++)
+                withConductorFrozen(nothing);
+            int value = count;
+            withConductorFrozen(nothing);
+            count = value + 1;
+            for (int i = 0; i < 5; i++)
+                withConductorFrozen(nothing);
+        }
+
+        @Threaded
+        public void first()
+        {
+            increment();
+        }
+
+        @Threaded
+        public void second()
+        {
+            increment();
+        }
+
+        @Test
+        @MultiThreadedTest(replay = LogFile, shrink = true, parallelism = 2)
+        public void bothIncrementsCount()
+        {
+            assertEquals(2, count);
+        }
+    }
+
+    static final Runnable nothing = new Runnable() {
+        public void run() {
+        }
+    };
+
+    @Test
+    public void shrinksToOnePreemption() throws Exception
+    {
+        // each thread starts and leaves withConductorFrozen 11 times, in turns
+        List<String> turns = new ArrayList<String>();
+        for (int i = 0; i < 12; i++) {
+            turns.add("first");
+            turns.add("second");
+        }
+        Schedule alternating = new Schedule(turns);
+        File file = new File(LogFile);
+        file.getParentFile().mkdirs();
+        ScheduleLog.of(alternating, false).write(file);
+
+        Result result = JUnitCore.runClasses(LostUpdate.class);
+        assertEquals(1, result.getFailureCount());
+        InterleavingFailureError error = (InterleavingFailureError)result.getFailures().get(0).getException();
+        assertTrue(error.getCause().getMessage(), error.getCause().getMessage().contains("expected:<2> but was:<1>"));
+        Schedule shrunk = Schedule.parse(error.getSchedule());
+        // one thread runs up to its read, the other reads and writes, and the first writes
+        assertTrue(shrunk.toString(), shrunk.getSwitches() <= 3);
+        assertEquals(alternating.size(), shrunk.size());
+        // the message tells what became of the schedule, with a timeline of the threads
+        assertTrue(error.getMessage(), error.getMessage().contains("shrank a schedule of 24 turns"));
+        for (String line : shrunk.toTimeline().split("\n"))
+            assertTrue(error.getMessage(), error.getMessage().contains(line));
+        file.delete();
+    }
+}
@@ -0,0 +1,120 @@
+package mtc.sanity.basictests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import com.notnoop.threadedtc.*;
+import com.notnoop.threadedtc.agent.SchedulingAgent;
+import com.notnoop.threadedtc.exceptions.NotAllowedException;
+
+/**
+ * The scheduling agent adds a scheduling point before every field access, monitor
+ * operation and lock call of the subject, and the instrumented subject still runs
+ * as before.
+ */
+public class TestSanitySchedulingAgent
+{
+    public static class Subject
+    {
+        private int count = 0;
+        private final ReentrantLock lock = new ReentrantLock();
+
+        public synchronized void increment()
+        {
+            count++;
+        }
+
+        public int lockedCount()
+        {
+            lock.lock();
+            try {
+                synchronized (this) {
+                    return count;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Test
+    public void pointsAreAddedAndTheSubjectStillRuns() throws Exception
+    {
+        final String name = Subject.class.getName();
+        final byte[] instrumented = SchedulingAgent.instrument(read(name));
+        // the constructor has no points for the two fields it initializes
+        assertEquals(points(read(name)) + 13, points(instrumented));
+
+        ClassLoader loader = new ClassLoader(getClass().getClassLoader()) {
+            @Override
+            protected Class<?> loadClass(String className, boolean resolve) throws ClassNotFoundException {
+                if (!className.equals(name))
+                    return super.loadClass(className, resolve);
+                Class<?> c = findLoadedClass(className);
+                if (c == null)
+                    c = defineClass(className, instrumented, 0, instrumented.length);
+                return c;
+            }
+        };
+        Object subject = loader.loadClass(name).newInstance();
+        subject.getClass().getMethod("increment").invoke(subject);
+        assertEquals(1, subject.getClass().getMethod("lockedCount").invoke(subject));
+    }
+
+    @Test
+    public void subjectNoiseNeedsTheAgent()
+    {
+        Conductor c = new Conductor();
+        c.setStressSeed(42);
+        try {
+            c.setSubjectNoise(8);
+            fail("the agent isn't installed");
+        } catch (NotAllowedException e) {
+            assertEquals("subjectNoiseNeedsTheSchedulingAgent", e.getMessage());
+        }
+    }
+
+    private static int points(byte[] classfile)
+    {
+        final int[] points = { 0 };
+        new ClassReader(classfile).accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor,
+                    String signature, String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM9) {
+                    @Override
+                    public void visitMethodInsn(int opcode, String owner, String name,
+                            String descriptor, boolean isInterface) {
+                        if (owner.equals("com/notnoop/threadedtc/agent/SchedulingPoints"))
+                            points[0]++;
+                    }
+                };
+            }
+        }, 0);
+        return points[0];
+    }
+
+    private static byte[] read(String name) throws IOException
+    {
+        InputStream in = TestSanitySchedulingAgent.class.getClassLoader()
+                .getResourceAsStream(name.replace('.', '/') + ".class");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1)
+            out.write(buffer, 0, read);
+        in.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,94 @@
+package mtc.sanity.basictests;
+
+import static com.notnoop.threadedtc.RunnerConductor.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import org.junit.runner.notification.Failure;
+
+import com.notnoop.threadedtc.*;
+import com.notnoop.threadedtc.exceptions.StressFailureError;
+
+/**
+ * Stressed repetitions run with noise drawn from a seed of their own, and their
+ * failures are reported along with it.
+ */
+public class TestSanityStressedRepetitions
+{
+    @RunWith(TCRunner.class)
+    public static class Stressed
+    {
+        final AtomicInteger count = new AtomicInteger();
+
+        @Threaded
+        public void first()
+        {
+            count.incrementAndGet();
+            waitForBeat(1);
+            count.incrementAndGet();
+        }
+
+        @Threaded
+        public void second()
+        {
+            waitForBeat(2);
+            withConductorFrozen(new Runnable() {
+                public void run() {
+                    count.incrementAndGet();
+                }
+            });
+        }
+
+        @Test
+        @MultiThreadedTest(times = 100, stress = true, parallelism = 4)
+        public void scenarioStillHoldsUnderNoise()
+        {
+            Conductor c = current();
+            assertTrue(c.isStressed());
+            assertEquals(3, count.get());
+            assertEquals(2, c.beat());
+        }
+    }
+
+    @RunWith(TCRunner.class)
+    public static class Failing
+    {
+        @Threaded
+        public void thread()
+        {
+            waitForBeat(1);
+            throw new IllegalStateException("seed " + current().getStressSeed());
+        }
+
+        @Test
+        @MultiThreadedTest(times = 20, stress = true, seed = 1000)
+        public void alwaysFails()
+        {
+        }
+    }
+
+    @Test
+    public void stressedRepetitionsPass()
+    {
+        Result result = JUnitCore.runClasses(Stressed.class);
+        assertTrue(result.getFailures().toString(), result.wasSuccessful());
+    }
+
+    @Test
+    public void failuresAreReportedWithTheirSeed()
+    {
+        Result result = JUnitCore.runClasses(Failing.class);
+        assertTrue(result.getFailureCount() >= 1);
+        for (Failure failure : result.getFailures()) {
+            StressFailureError error = (StressFailureError)failure.getException();
+            assertTrue("seed " + error.getSeed(), error.getSeed() >= 1000 && error.getSeed() < 1020);
+            assertEquals("seed " + error.getSeed(), error.getCause().getMessage());
+        }
+    }
+}
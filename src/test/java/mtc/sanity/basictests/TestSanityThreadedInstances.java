@@ -0,0 +1,63 @@
+package mtc.sanity.basictests;
+
+import static com.notnoop.threadedtc.RunnerConductor.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.notnoop.threadedtc.*;
+
+/**
+ * A @Threaded method with several instances runs in that many test threads, each
+ * passed its index, and the number of instances may come from a system property.
+ */
+@RunWith(TCRunner.class)
+public class TestSanityThreadedInstances
+{
+    private static final String Property = "mtc.sanity.checkerInstances";
+
+    final AtomicIntegerArray workers = new AtomicIntegerArray(8);
+    final AtomicInteger checkers = new AtomicInteger();
+
+    @BeforeClass
+    public static void setInstances()
+    {
+        System.setProperty(Property, "3");
+    }
+
+    @AfterClass
+    public static void clearInstances()
+    {
+        System.clearProperty(Property);
+    }
+
+    @Threaded(instances = 8)
+    public void worker(int index)
+    {
+        assertEquals("worker-" + index, Thread.currentThread().getName());
+        workers.incrementAndGet(index);
+        waitForBeat(1);
+    }
+
+    @Threaded(value = "checker", instancesProperty = Property)
+    public void check()
+    {
+        checkers.incrementAndGet();
+    }
+
+    @Test
+    public void everyInstanceRuns()
+    {
+        for (int i = 0; i < 8; i++)
+            assertEquals(1, workers.get(i));
+        assertEquals(3, checkers.get());
+        assertNotNull(getThread("checker-2"));
+    }
+}
@@ -0,0 +1,78 @@
+package mtc.sanity.basictests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.notnoop.threadedtc.*;
+import com.notnoop.threadedtc.exceptions.NotAllowedException;
+import com.notnoop.threadedtc.internal.VirtualThreads;
+
+/**
+ * Test threads may run on virtual threads, on JVMs that have them, so that a
+ * scenario can have thousands of them.
+ */
+public class TestSanityVirtualThreads
+{
+    @Test
+    public void thousandsOfThreadsWaitForTheirBeats()
+    {
+        assumeTrue(VirtualThreads.isSupported());
+
+        final Conductor c = new Conductor();
+        c.setVirtualThreads(true);
+        final AtomicInteger[] arrived = { new AtomicInteger(), new AtomicInteger(), new AtomicInteger() };
+
+        for (int i = 0; i < 10000; i++) {
+            final int beat = 1 + i % 3;
+            c.thread(new TCRunnable() {
+                public void run() {
+                    assertTrue(VirtualThreads.isVirtual(Thread.currentThread()));
+                    c.waitForBeat(beat);
+                    assertEquals(beat, c.beat());
+                    // everybody waiting for an earlier beat is done by now
+                    if (beat > 1)
+                        assertEquals(3334 - (beat == 3 ? 1 : 0), arrived[beat - 2].get());
+                    arrived[beat - 1].incrementAndGet();
+                }
+            });
+        }
+        c.conduct();
+
+        assertEquals(3334, arrived[0].get());
+        assertEquals(3333, arrived[1].get());
+        assertEquals(3333, arrived[2].get());
+    }
+
+    @Test
+    public void virtualThreadsNeedAJvmThatHasThem()
+    {
+        Conductor c = new Conductor();
+        try {
+            c.setVirtualThreads(true);
+            assertTrue(VirtualThreads.isSupported());
+        } catch (NotAllowedException e) {
+            assertEquals("virtualThreadsNeedJava21", e.getMessage());
+            assertTrue(!VirtualThreads.isSupported());
+        }
+    }
+
+    @Test
+    public void virtualThreadsAreNotPooled()
+    {
+        assumeTrue(VirtualThreads.isSupported());
+
+        Conductor c = new Conductor();
+        c.setThreadPool(new TestThreadPool());
+        try {
+            c.setVirtualThreads(true);
+            fail("should have thrown");
+        } catch (NotAllowedException e) {
+        }
+    }
+}
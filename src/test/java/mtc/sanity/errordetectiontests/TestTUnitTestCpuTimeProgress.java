@@ -0,0 +1,63 @@
+package mtc.sanity.errordetectiontests;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+import org.junit.Test;
+
+import com.notnoop.threadedtc.*;
+import com.notnoop.threadedtc.exceptions.TimeoutError;
+
+/**
+ * Measuring progress by CPU time lets a computation run past the timeout, but
+ * still times out a thread that is RUNNABLE without doing anything.
+ */
+public class TestTUnitTestCpuTimeProgress
+{
+    @Test
+    public void computationRunsPastTheTimeout()
+    {
+        final Conductor c = new Conductor();
+        c.setCpuTimeProgress(true);
+
+        c.thread(new TCRunnable() {
+            public void run() {
+                long end = System.currentTimeMillis() + 1500;
+                double x = 0;
+                while (System.currentTimeMillis() < end)
+                    x += Math.sqrt(x + 1);
+                assertTrue(x > 0);
+            }
+        });
+
+        c.conduct(10, 1);
+    }
+
+    @Test
+    public void threadStuckInBlockingIOTimesOut() throws IOException
+    {
+        final Conductor c = new Conductor();
+        c.setCpuTimeProgress(true);
+        final ServerSocket server = new ServerSocket(0);
+
+        c.thread(new TCRunnable() {
+            public void run() throws IOException {
+                server.accept();
+            }
+        });
+
+        long start = System.currentTimeMillis();
+        try {
+            c.conduct(10, 1);
+            fail("should have timed out");
+        } catch (TimeoutError e) {
+            long elapsed = System.currentTimeMillis() - start;
+            assertTrue("took " + elapsed + "ms", elapsed < 3000);
+        } finally {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package mtc.sanity.errordetectiontests;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.Test;
+
+import com.notnoop.threadedtc.*;
+import com.notnoop.threadedtc.exceptions.DeadlockSuspectedError;
+
+/**
+ * A lock cycle is reported as soon as the clock notices all threads are blocked,
+ * rather than after 50 clock periods, and the error says who waits for whom.
+ */
+public class TestTUnitTestDeadlockCycleReported
+{
+    @Test
+    public void cycleIsReportedRightAway()
+    {
+        final Conductor c = new Conductor();
+        final ReentrantLock lockA = new ReentrantLock();
+        final ReentrantLock lockB = new ReentrantLock();
+
+        c.thread("threadA", new TCRunnable() {
+            public void run() {
+                lockA.lock();
+                c.waitForBeat(1);
+                lockB.lock();
+            }
+        });
+
+        c.thread("threadB", new TCRunnable() {
+            public void run() {
+                lockB.lock();
+                c.waitForBeat(1);
+                lockA.lock();
+            }
+        });
+
+        long start = System.currentTimeMillis();
+        try {
+            c.conduct(20, 5);
+            fail("deadlock should have been detected");
+        } catch (DeadlockSuspectedError e) {
+            long elapsed = System.currentTimeMillis() - start;
+            assertTrue("took " + elapsed + "ms", elapsed < 20 * 50);
+
+            String message = e.getMessage();
+            assertTrue(message, message.contains("\"threadA\" WAITING"));
+            assertTrue(message, message.contains("owned by \"threadB\""));
+            assertTrue(message, message.contains("\"threadB\" WAITING"));
+            assertTrue(message, message.contains("owned by \"threadA\""));
+        }
+    }
+}
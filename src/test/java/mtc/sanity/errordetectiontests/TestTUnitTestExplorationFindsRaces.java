@@ -0,0 +1,311 @@
+package mtc.sanity.errordetectiontests;
+
+import static com.notnoop.threadedtc.RunnerConductor.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+
+import com.notnoop.threadedtc.*;
+import com.notnoop.threadedtc.agent.SchedulingAgent;
+import com.notnoop.threadedtc.exceptions.InterleavingFailureError;
+
+/**
+ * Exploring the schedules of a scenario finds the one interleaving that loses an
+ * update, whether the threads switch at the points of the conductor or at those the
+ * scheduling agent added to the subject, and passes when there is none. Schedules
+ * that only reorder writes to different fields are pruned.
+ */
+public class TestTUnitTestExplorationFindsRaces
+{
+    @RunWith(TCRunner.class)
+    public static class LostUpdate
+    {
+        int count = 0;
+
+        private void increment()
+        {
+            int value = count;
+            withConductorFrozen(new Runnable() {
+                public void run() {
+                }
+            });
+            count = value + 1;
+        }
+
+        @Threaded
+        public void first()
+        {
+            increment();
+        }
+
+        @Threaded
+        public void second()
+        {
+            increment();
+        }
+
+        @Test
+        @Explore(parallelism = 2)
+        public void bothIncrementsCount()
+        {
+            assertEquals(2, count);
+        }
+    }
+
+    @RunWith(TCRunner.class)
+    public static class AtomicUpdate
+    {
+        final AtomicInteger count = new AtomicInteger();
+
+        private void increment()
+        {
+            withConductorFrozen(new Runnable() {
+                public void run() {
+                }
+            });
+            count.incrementAndGet();
+            waitForBeat(1);
+        }
+
+        @Threaded
+        public void first()
+        {
+            increment();
+        }
+
+        @Threaded
+        public void second()
+        {
+            increment();
+        }
+
+        @Threaded
+        public void third()
+        {
+            increment();
+        }
+
+        @Test
+        @Explore(preemptionBound = 3, parallelism = 2)
+        public void everyIncrementCounts()
+        {
+            assertEquals(3, count.get());
+        }
+    }
+
+    public static class Counter
+    {
+        private int count = 0;
+
+        public void increment()
+        {
+            count++;
+        }
+
+        public int get()
+        {
+            return count;
+        }
+    }
+
+    @RunWith(TCRunner.class)
+    public static class LostUpdateInSubject
+    {
+        static final Class<?> counterClass = instrumented(Counter.class);
+
+        Object counter;
+        Method increment;
+
+        @Before
+        public void setUp() throws Exception
+        {
+            counter = counterClass.newInstance();
+            increment = counterClass.getMethod("increment");
+        }
+
+        @Threaded
+        public void first() throws Exception
+        {
+            increment.invoke(counter);
+        }
+
+        @Threaded
+        public void second() throws Exception
+        {
+            increment.invoke(counter);
+        }
+
+        @Test
+        @Explore(preemptionBound = 1)
+        public void bothIncrementsCount() throws Exception
+        {
+            assertEquals(2, counterClass.getMethod("get").invoke(counter));
+        }
+    }
+
+    public static class Cells
+    {
+        private static int left = 0;
+        private static int right = 0;
+
+        public static void setLeft(int value)
+        {
+            left = value;
+        }
+
+        public static void setRight(int value)
+        {
+            right = value;
+        }
+    }
+
+    @RunWith(TCRunner.class)
+    public static class IndependentWrites
+    {
+        static final Class<?> cellsClass = instrumented(Cells.class);
+
+        void write(String setter) throws Exception
+        {
+            Method method = cellsClass.getMethod(setter, int.class);
+            for (int i = 1; i <= 3; i++)
+                method.invoke(null, i);
+        }
+
+        @Threaded
+        public void first() throws Exception
+        {
+            write("setLeft");
+        }
+
+        @Threaded
+        public void second() throws Exception
+        {
+            write("setRight");
+        }
+
+        @Test
+        @Explore(preemptionBound = 4, parallelism = 1, verbose = true)
+        public void bothWrite()
+        {
+        }
+    }
+
+    public static class DependentWrites extends IndependentWrites
+    {
+        @Threaded
+        @Override
+        public void second() throws Exception
+        {
+            write("setLeft");
+        }
+    }
+
+    @Test
+    public void lostUpdateIsFound()
+    {
+        Result result = JUnitCore.runClasses(LostUpdate.class);
+        assertEquals(1, result.getFailureCount());
+        InterleavingFailureError error = (InterleavingFailureError)result.getFailures().get(0).getException();
+        Schedule schedule = Schedule.parse(error.getSchedule());
+        assertTrue(error.getSchedule(), schedule.getThreads().contains("first"));
+        assertTrue(error.getSchedule(), schedule.getThreads().contains("second"));
+        assertTrue(error.getCause().getMessage(), error.getCause().getMessage().contains("expected:<2> but was:<1>"));
+        assertTrue(error.getMessage(), error.getMessage().contains("\nexplored "));
+    }
+
+    @Test
+    public void independentAccessesArePruned()
+    {
+        int[] independent = explore(IndependentWrites.class);
+        // writing the same field, every order is a state of its own, so that all
+        // the schedules are run
+        int[] dependent = explore(DependentWrites.class);
+        assertTrue(independent[1] > 0);
+        assertTrue(independent[0] + " < " + dependent[0], independent[0] < dependent[0]);
+    }
+
+    /**
+     * Returns how many schedules exploring the given class ran, and how many it pruned.
+     */
+    private static int[] explore(Class<?> klass)
+    {
+        PrintStream out = System.out;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(printed, true));
+        Result result;
+        try {
+            result = JUnitCore.runClasses(klass);
+        } finally {
+            System.setOut(out);
+        }
+        assertTrue(result.getFailures().toString(), result.wasSuccessful());
+        Matcher m = Pattern.compile("explored (\\d+) schedules with up to \\d+ preemptions, pruned (\\d+)")
+            .matcher(printed.toString());
+        assertTrue(printed.toString(), m.find());
+        return new int[] { Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)) };
+    }
+
+    @Test
+    public void correctScenarioPasses()
+    {
+        Result result = JUnitCore.runClasses(AtomicUpdate.class);
+        assertTrue(result.getFailures().toString(), result.wasSuccessful());
+    }
+
+    @Test
+    public void lostUpdateInSubjectIsFound()
+    {
+        Result result = JUnitCore.runClasses(LostUpdateInSubject.class);
+        assertEquals(1, result.getFailureCount());
+        InterleavingFailureError error = (InterleavingFailureError)result.getFailures().get(0).getException();
+        assertTrue(error.getCause().getMessage(), error.getCause().getMessage().contains("expected:<2> but was:<1>"));
+    }
+
+    static Class<?> instrumented(Class<?> klass)
+    {
+        final String name = klass.getName();
+        final byte[] classfile;
+        try {
+            InputStream in = klass.getClassLoader().getResourceAsStream(name.replace('.', '/') + ".class");
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                out.write(buffer, 0, read);
+            in.close();
+            classfile = SchedulingAgent.instrument(out.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        ClassLoader loader = new ClassLoader(klass.getClassLoader()) {
+            @Override
+            protected Class<?> loadClass(String className, boolean resolve) throws ClassNotFoundException {
+                if (!className.equals(name))
+                    return super.loadClass(className, resolve);
+                Class<?> c = findLoadedClass(className);
+                if (c == null)
+                    c = defineClass(className, classfile, 0, classfile.length);
+                return c;
+            }
+        };
+        try {
+            return loader.loadClass(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
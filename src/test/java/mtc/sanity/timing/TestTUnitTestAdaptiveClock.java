@@ -0,0 +1,83 @@
+package mtc.sanity.timing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.notnoop.threadedtc.*;
+import com.notnoop.threadedtc.exceptions.NotAllowedException;
+
+/**
+ * An adaptive clock backs off while a thread keeps running, but never beyond
+ * its maximum period, and goes back to its minimum period after each beat.
+ */
+public class TestTUnitTestAdaptiveClock
+{
+    @Test
+    public void clockBacksOffWhileThreadsRun()
+    {
+        final Conductor c = new Conductor();
+        c.setAdaptiveClock(100, 20000, TimeUnit.MICROSECONDS);
+
+        c.thread(new TCRunnable() {
+            public void run() {
+                long end = System.currentTimeMillis() + 200;
+                while (System.currentTimeMillis() < end)
+                    Thread.yield();
+                c.waitForBeat(1);
+            }
+        });
+
+        c.thread(new TCRunnable() {
+            public void run() {
+                c.waitForBeat(2);
+            }
+        });
+
+        c.conduct();
+        assertEquals(2, c.beat());
+
+        ClockStatistics stats = c.getClockStatistics();
+        assertEquals(100, stats.getShortestPeriod(TimeUnit.MICROSECONDS));
+        assertEquals(20000, stats.getLongestPeriod(TimeUnit.MICROSECONDS));
+        // backing off, the clock needs far fewer checks than 200ms at the minimum period
+        assertTrue(stats.toString(), stats.getTicks() < 200);
+    }
+
+    @Test
+    public void fixedClockReportsItsPeriod()
+    {
+        final Conductor c = new Conductor();
+        c.setQuiescenceDriven(false);
+        c.setFastForward(false);
+
+        // the clock sleeps between beats 1 and 2
+        c.thread(new TCRunnable() {
+            public void run() {
+                c.waitForBeat(2);
+            }
+        });
+
+        c.conduct(5, 5);
+        ClockStatistics stats = c.getClockStatistics();
+        assertEquals(stats.toString(), 5, stats.getShortestPeriod(TimeUnit.MILLISECONDS));
+        assertEquals(5, stats.getLongestPeriod(TimeUnit.MILLISECONDS));
+        assertEquals(0, stats.getSpins());
+    }
+
+    @Test
+    public void maxPeriodMustNotBeLessThanMinPeriod()
+    {
+        Conductor c = new Conductor();
+        try {
+            c.setAdaptiveClock(10, 1, TimeUnit.MILLISECONDS);
+            fail("should have thrown");
+        } catch (NotAllowedException e) {
+        }
+        c.conduct();
+    }
+}
@@ -0,0 +1,64 @@
+package mtc.sanity.timing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.notnoop.threadedtc.*;
+
+/**
+ * With a clock period of one second, a scenario stepping through five beats only
+ * finishes quickly if the beat advances as soon as all threads wait for it.
+ */
+public class TestTUnitTestBeatAdvancesOnQuiescence
+{
+    @Test
+    public void beatsDoNotWaitForTheClockPeriod()
+    {
+        final Conductor c = new Conductor();
+        final StringBuffer s = new StringBuffer();
+
+        c.thread(new TCRunnable() {
+            public void run() {
+                for (int beat = 1; beat <= 5; beat += 2) {
+                    c.waitForBeat(beat);
+                    s.append(beat);
+                }
+            }
+        });
+
+        c.thread(new TCRunnable() {
+            public void run() {
+                for (int beat = 2; beat <= 4; beat += 2) {
+                    c.waitForBeat(beat);
+                    s.append(beat);
+                }
+            }
+        });
+
+        long start = System.currentTimeMillis();
+        c.conduct(1000, 5);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals("12345", s.toString());
+        assertEquals(5, c.beat());
+        assertTrue("took " + elapsed + "ms", elapsed < 1000);
+    }
+
+    @Test
+    public void pollingClockStillWorks()
+    {
+        final Conductor c = new Conductor();
+        c.setQuiescenceDriven(false);
+
+        c.thread(new TCRunnable() {
+            public void run() {
+                c.waitForBeat(2);
+            }
+        });
+
+        c.conduct();
+        assertEquals(2, c.beat());
+    }
+}
@@ -0,0 +1,54 @@
+package mtc.sanity.timing;
+
+import static com.notnoop.threadedtc.RunnerConductor.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.notnoop.threadedtc.*;
+
+/**
+ * A benchmark calls the method of each test thread over and over, and counts the
+ * calls made during its measurement period.
+ */
+@RunWith(TCRunner.class)
+public class TestTUnitTestBenchmark
+{
+    final AtomicLong counter = new AtomicLong();
+    final Object lock = new Object();
+    long guarded = 0;
+
+    @Threaded("incrementer")
+    public void increment()
+    {
+        counter.incrementAndGet();
+    }
+
+    @Threaded("locker")
+    public void lock()
+    {
+        synchronized (lock) {
+            guarded++;
+        }
+    }
+
+    @Test
+    @Benchmark(warmup = 100, measurement = 300, unit = TimeUnit.MILLISECONDS)
+    public void throughputIsReportedPerThread()
+    {
+        BenchmarkResult result = getBenchmarkResult();
+        assertEquals(2, result.getOpsPerSecondByThread().size());
+        assertTrue(result.getOpsPerSecond("incrementer") > 0);
+        assertTrue(result.getOpsPerSecond("locker") > 0);
+        assertEquals(result.getOpsPerSecond("incrementer") + result.getOpsPerSecond("locker"),
+                result.getTotalOpsPerSecond(), 1e-6 * result.getTotalOpsPerSecond());
+
+        // the calls made while warming up aren't counted
+        assertTrue(counter.get() + guarded > result.getTotalOperations());
+    }
+}
@@ -0,0 +1,47 @@
+package mtc.sanity.timing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.notnoop.threadedtc.*;
+
+/**
+ * Even with a polling clock, waiting for beats 1, 100 and 1000 only takes
+ * three clock periods, because the clock skips the beats nobody waits for.
+ */
+public class TestTUnitTestClockFastForwards
+{
+    @Test
+    public void clockJumpsToTheLowestBeatWaitedFor()
+    {
+        final Conductor c = new Conductor();
+        c.setQuiescenceDriven(false);
+        final StringBuffer s = new StringBuffer();
+
+        c.thread(new TCRunnable() {
+            public void run() {
+                c.waitForBeat(1);
+                s.append("A" + c.beat());
+                c.waitForBeat(1000);
+                s.append("C" + c.beat());
+            }
+        });
+
+        c.thread(new TCRunnable() {
+            public void run() {
+                c.waitForBeat(100);
+                s.append("B" + c.beat());
+            }
+        });
+
+        long start = System.currentTimeMillis();
+        c.conduct(10, 5);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals("A1B100C1000", s.toString());
+        assertEquals(1000, c.beat());
+        assertTrue("took " + elapsed + "ms", elapsed < 1000);
+    }
+}
@@ -0,0 +1,70 @@
+package mtc.sanity.timing;
+
+import static com.notnoop.threadedtc.RunnerConductor.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.notnoop.threadedtc.*;
+
+/**
+ * A scaling sweep runs the scenario at each thread count, scaling only the methods
+ * marked as scaled, and reports how the throughput grew.
+ */
+@RunWith(TCRunner.class)
+public class TestTUnitTestScalingSweep
+{
+    final Object lock = new Object();
+    long counter = 0;
+
+    @Threaded(scaled = true)
+    public void contend(int index)
+    {
+        for (int i = 0; i < 1000; i++) {
+            synchronized (lock) {
+                counter++;
+            }
+        }
+    }
+
+    @Threaded("observer")
+    public void observe()
+    {
+        waitForBeat(1);
+    }
+
+    @Test
+    @MultiThreadedTest(times = 5)
+    @ScalingSweep(threads = { 1, 2, 4 })
+    public void everyThreadCountIsReported()
+    {
+        ScalingReport report = getScalingReport();
+        assertEquals(3, report.getPoints().size());
+
+        // the observer isn't scaled
+        assertEquals(2, report.getPoints().get(0).getThreads());
+        assertEquals(5, report.getPoint(5).getThreads());
+        assertEquals(1.0, report.getPoint(2).getEfficiency(), 1e-9);
+
+        for (ScalingReport.Point point : report.getPoints()) {
+            assertTrue(point.getThroughput() > 0);
+            assertTrue(point.getLatency(TimeUnit.NANOSECONDS) > 0);
+            assertTrue(point.getBlockedFraction() <= 1);
+        }
+        assertEquals(1000 * (1 + 2 + 4) * 5, counter);
+    }
+
+    @Test
+    @Benchmark(warmup = 50, measurement = 100, unit = TimeUnit.MILLISECONDS)
+    @ScalingSweep(threads = { 1, 2 })
+    public void benchmarksCanBeSwept()
+    {
+        ScalingReport report = getScalingReport();
+        assertEquals(2, report.getPoints().size());
+        assertTrue(report.getPoint(3).getThroughput() > 0);
+    }
+}
@@ -0,0 +1,71 @@
+package mtc.sanity.timing;
+
+import static com.notnoop.threadedtc.RunnerConductor.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.notnoop.threadedtc.*;
+
+/**
+ * Threads parked on a lock of <code>java.util.concurrent</code> are waiting rather than
+ * blocked, and a scaling sweep counts them as blocked all the same, but not the
+ * threads waiting for a beat. Contention monitoring is turned off again after the sweep.
+ */
+@RunWith(TCRunner.class)
+public class TestTUnitTestScalingSweepSeesLockConvoys
+{
+    static boolean monitoring;
+
+    final ReentrantLock lock = new ReentrantLock();
+
+    @BeforeClass
+    public static void recordMonitoring()
+    {
+        monitoring = ManagementFactory.getThreadMXBean().isThreadContentionMonitoringEnabled();
+    }
+
+    @Threaded(scaled = true)
+    public void convoy(int index)
+    {
+        for (int i = 0; i < 10; i++) {
+            lock.lock();
+            try {
+                long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(2);
+                while (System.nanoTime() < end)
+                    ;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Threaded("observer")
+    public void observe()
+    {
+        waitForBeat(1);
+    }
+
+    @Test
+    @ScalingSweep(threads = { 1, 4 })
+    public void parkedThreadsCountAsBlocked()
+    {
+        ScalingReport report = getScalingReport();
+        if (report.getPoint(2).getBlockedFraction() < 0)
+            return;
+
+        // the observer waited for a beat all along, and the convoy never waited
+        assertTrue(report.toString(), report.getPoint(2).getBlockedFraction() < 0.4);
+        // the threads that don't hold the lock wait for it
+        assertTrue(report.toString(), report.getPoint(5).getBlockedFraction() > 0.15);
+
+        assertEquals(monitoring, ManagementFactory.getThreadMXBean().isThreadContentionMonitoringEnabled());
+    }
+}
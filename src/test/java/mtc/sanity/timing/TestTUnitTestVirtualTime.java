@@ -0,0 +1,156 @@
+package mtc.sanity.timing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.notnoop.threadedtc.*;
+
+/**
+ * Timed waits in virtual time finish right away, in the order of their deadlines,
+ * and only once the beats being waited for have been reached.
+ */
+public class TestTUnitTestVirtualTime
+{
+    @Test
+    public void sleepsTakeNoRealTime()
+    {
+        final Conductor c = new Conductor();
+        final VirtualTime time = c.getVirtualTime();
+        final StringBuffer s = new StringBuffer();
+
+        c.thread(new TCRunnable() {
+            public void run() throws InterruptedException {
+                time.sleep(2, TimeUnit.HOURS);
+                s.append("B");
+            }
+        });
+
+        c.thread(new TCRunnable() {
+            public void run() throws InterruptedException {
+                time.sleep(1, TimeUnit.HOURS);
+                s.append("A");
+                time.sleep(2, TimeUnit.HOURS);
+                s.append("C");
+            }
+        });
+
+        long start = System.currentTimeMillis();
+        c.conduct();
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals("ABC", s.toString());
+        assertEquals(TimeUnit.HOURS.toNanos(3), time.nanoTime());
+        assertTrue("took " + elapsed + "ms", elapsed < 1000);
+    }
+
+    @Test
+    public void beatsComeFirst()
+    {
+        final Conductor c = new Conductor();
+        final VirtualTime time = c.getVirtualTime();
+
+        c.thread(new TCRunnable() {
+            public void run() throws InterruptedException {
+                time.sleep(1000);
+                assertEquals(2, c.beat());
+            }
+        });
+
+        c.thread(new TCRunnable() {
+            public void run() {
+                c.waitForBeat(2);
+                assertEquals(0, time.nanoTime());
+            }
+        });
+
+        c.conduct();
+    }
+
+    @Test
+    public void scheduledTasksRunInVirtualTime() throws Exception
+    {
+        final Conductor c = new Conductor();
+        final VirtualTime time = c.getVirtualTime();
+        final ScheduledExecutorService executor = time.newScheduledExecutor();
+        final AtomicInteger ticks = new AtomicInteger();
+        final CountDownLatch fiveTicks = new CountDownLatch(5);
+
+        c.thread(new TCRunnable() {
+            public void run() throws Exception {
+                executor.scheduleAtFixedRate(new Runnable() {
+                    public void run() {
+                        ticks.incrementAndGet();
+                        fiveTicks.countDown();
+                    }
+                }, 1, 1, TimeUnit.MINUTES);
+
+                fiveTicks.await();
+                assertEquals(TimeUnit.MINUTES.toNanos(5), time.nanoTime());
+            }
+        });
+
+        c.thread(new TCRunnable() {
+            public void run() throws Exception {
+                ScheduledFuture<?> never = executor.schedule(new Runnable() {
+                    public void run() {
+                    }
+                }, 1, TimeUnit.DAYS);
+                try {
+                    never.get(90, TimeUnit.SECONDS);
+                    fail("should have timed out");
+                } catch (TimeoutException e) {
+                    assertEquals(TimeUnit.SECONDS.toNanos(90), time.nanoTime());
+                }
+            }
+        });
+
+        long start = System.currentTimeMillis();
+        c.conduct();
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals(5, ticks.get());
+        assertTrue("took " + elapsed + "ms", elapsed < 1000);
+        assertTrue(executor.isShutdown());
+    }
+
+    /*
+     * The getter woken by the task it waits for is runnable from then on, even
+     * before it has run again, so virtual time can't move on to the next task in
+     * the meantime.
+     */
+    @Test
+    public void completedGetIsNoLongerWaiting() throws Exception
+    {
+        for (int i = 0; i < 100; i++) {
+            final Conductor c = new Conductor();
+            final VirtualTime time = c.getVirtualTime();
+            final ScheduledExecutorService executor = time.newScheduledExecutor();
+
+            c.thread(new TCRunnable() {
+                public void run() throws Exception {
+                    executor.schedule(new Runnable() {
+                        public void run() {
+                        }
+                    }, 1, TimeUnit.HOURS);
+                    ScheduledFuture<?> soon = executor.schedule(new Runnable() {
+                        public void run() {
+                        }
+                    }, 1, TimeUnit.MINUTES);
+                    soon.get(10, TimeUnit.MINUTES);
+                    assertEquals(TimeUnit.MINUTES.toNanos(1), time.nanoTime());
+                }
+            });
+            c.conduct();
+        }
+    }
+}